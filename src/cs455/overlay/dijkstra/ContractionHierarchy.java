@@ -0,0 +1,587 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+
+/**
+ * An index over the overlay that answers the shortest distance and path
+ * between any two nodes without a full shortest path computation.
+ *
+ * During preprocessing, the nodes are <i>contracted</i> one at a time,
+ * least important first. Contracting a node removes it from the
+ * remaining graph, and a <i>shortcut</i> is added between two of its
+ * neighbors whenever the path through it is the only shortest path
+ * between them. The importance of a node is the number of shortcuts its
+ * contraction adds less the links it removes, plus the number of its
+ * neighbors already contracted, and is updated lazily.
+ *
+ * Every shortest path then has a form that only climbs to more
+ * important nodes and then descends, so a query runs Dijkstra's
+ * algorithm from both ends over the links to more important nodes only,
+ * and meets in the middle. This settles a few hundred nodes rather than
+ * the whole overlay. Shortcuts remember the node they bypass, and are
+ * unpacked into the original links for the path.
+ *
+ * The index is built for fixed weights, and must be rebuilt once any
+ * link weight changes. Queries share search state, and are synchronized.
+ *
+ * @author stock
+ *
+ */
+public class ContractionHierarchy {
+
+  private static final int NO_VERTEX = -1;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  /**
+   * The number of nodes a witness search settles before it gives up.
+   * Giving up early only adds shortcuts that are not needed.
+   */
+  private static final int WITNESS_LIMIT = 500;
+
+  // The order each node was contracted in
+  private int[] rank;
+
+  // Links to more important nodes, including shortcuts, as compressed
+  // sparse rows. A shortcut holds the node it bypasses as its middle
+  private int[] upOffsets;
+
+  private int[] upTargets;
+
+  private int[] upWeights;
+
+  private int[] upMiddles;
+
+  private int numShortcuts;
+
+  // The remaining graph, as growable lists of links, while contracting
+  private int[][] links;
+
+  private int[][] linkWeights;
+
+  private int[][] linkMiddles;
+
+  private int[] degrees;
+
+  private boolean[] contracted;
+
+  // Search state, reused between queries and witness searches
+  private int[] distances;
+
+  private int[] backwardDistances;
+
+  private int[] parents;
+
+  private int[] backwardParents;
+
+  private IndexedMinHeap heap;
+
+  private IndexedMinHeap backwardHeap;
+
+  private int[] touched;
+
+  private int numTouched;
+
+  private int[] backwardTouched;
+
+  private int numBackwardTouched;
+
+  /**
+   * Default constructor - contract every node of the graph and build
+   * the index.
+   *
+   * @param graph the overlay built from the link weights
+   */
+  public ContractionHierarchy(Graph graph) {
+    int numNodes = graph.size();
+    this.rank = new int[ numNodes ];
+    this.distances = new int[ numNodes ];
+    this.backwardDistances = new int[ numNodes ];
+    this.parents = new int[ numNodes ];
+    this.backwardParents = new int[ numNodes ];
+    Arrays.fill( distances, INFINITY );
+    Arrays.fill( backwardDistances, INFINITY );
+    this.heap = new IndexedMinHeap( numNodes );
+    this.backwardHeap = new IndexedMinHeap( numNodes );
+    this.touched = new int[ numNodes ];
+    this.backwardTouched = new int[ numNodes ];
+
+    copyLinks( graph );
+    contractAll();
+    buildUpwardLinks();
+
+    this.links = null;
+    this.linkWeights = null;
+    this.linkMiddles = null;
+    this.degrees = null;
+    this.contracted = null;
+  }
+
+  /**
+   * @return The number of shortcuts added to the overlay.
+   */
+  public int numShortcuts() {
+    return numShortcuts;
+  }
+
+  /**
+   * Find the shortest distance between two nodes.
+   *
+   * @param source
+   * @param sink
+   * @return The weight of the shortest path, or
+   *         <code>Integer.MAX_VALUE</code> if the sink is unreachable.
+   */
+  public synchronized int distance(int source, int sink) {
+    int meeting = search( source, sink );
+    return meeting == NO_VERTEX ? INFINITY
+        : distances[ meeting ] + backwardDistances[ meeting ];
+  }
+
+  /**
+   * Find the shortest path between two nodes, with every shortcut
+   * unpacked into the links of the overlay.
+   *
+   * @param source
+   * @param sink
+   * @return The indices of the nodes from the source to the sink,
+   *         excluding the source as in
+   *         {@link ShortestPath#buildPath(int[], int, int)}, or an empty
+   *         array if the sink is unreachable.
+   */
+  public synchronized int[] path(int source, int sink) {
+    int meeting = search( source, sink );
+    if ( meeting == NO_VERTEX )
+    {
+      return new int[ 0 ];
+    }
+    // Collect the nodes up to the meeting node, and then down to the
+    // sink, before unpacking the links between them
+    int up = 0;
+    for ( int node = meeting; node != source; node = parents[ node ] )
+    {
+      ++up;
+    }
+    int down = 0;
+    for ( int node = meeting; node != sink; node =
+        backwardParents[ node ] )
+    {
+      ++down;
+    }
+    int[] packed = new int[ up + down + 1 ];
+    int node = meeting;
+    for ( int i = up; i > 0; --i )
+    {
+      packed[ i ] = node;
+      node = parents[ node ];
+    }
+    packed[ 0 ] = source;
+    node = meeting;
+    for ( int i = up + 1; i < packed.length; ++i )
+    {
+      node = backwardParents[ node ];
+      packed[ i ] = node;
+    }
+
+    int[] path = new int[ 16 ];
+    int length = 0;
+    int[] stack = new int[ 16 ];
+    for ( int i = 0; i < packed.length - 1; ++i )
+    {
+      int depth = 0;
+      stack[ depth++ ] = packed[ i ];
+      stack[ depth++ ] = packed[ i + 1 ];
+      while ( depth > 0 )
+      {
+        int to = stack[ --depth ];
+        int from = stack[ --depth ];
+        int middle = middle( from, to );
+        if ( middle == NO_VERTEX )
+        {
+          if ( length == path.length )
+          {
+            path = Arrays.copyOf( path, length * 2 );
+          }
+          path[ length++ ] = to;
+          continue;
+        }
+        if ( depth + 4 > stack.length )
+        {
+          stack = Arrays.copyOf( stack, stack.length * 2 );
+        }
+        stack[ depth++ ] = middle;
+        stack[ depth++ ] = to;
+        stack[ depth++ ] = from;
+        stack[ depth++ ] = middle;
+      }
+    }
+    return Arrays.copyOf( path, length );
+  }
+
+  /**
+   * Run Dijkstra's algorithm from both ends over the links to more
+   * important nodes, alternating between the two, until neither can
+   * find a shorter path.
+   *
+   * @return The node the shortest path climbs to, or
+   *         {@link #NO_VERTEX} if the sink is unreachable.
+   */
+  private int search(int source, int sink) {
+    reset();
+    distances[ source ] = 0;
+    parents[ source ] = NO_VERTEX;
+    touched[ numTouched++ ] = source;
+    heap.insertOrDecrease( source, 0 );
+    backwardDistances[ sink ] = 0;
+    backwardParents[ sink ] = NO_VERTEX;
+    backwardTouched[ numBackwardTouched++ ] = sink;
+    backwardHeap.insertOrDecrease( sink, 0 );
+
+    int best = INFINITY;
+    int meeting = NO_VERTEX;
+    while ( !heap.isEmpty() || !backwardHeap.isEmpty() )
+    {
+      if ( !heap.isEmpty() )
+      {
+        int vertex = heap.poll();
+        if ( distances[ vertex ] >= best )
+        {
+          heap.clear();
+        } else
+        {
+          if ( backwardDistances[ vertex ] != INFINITY
+              && distances[ vertex ] + backwardDistances[ vertex ] < best )
+          {
+            best = distances[ vertex ] + backwardDistances[ vertex ];
+            meeting = vertex;
+          }
+          numTouched = relaxUpward( vertex, distances, parents, heap,
+              touched, numTouched );
+        }
+      }
+      if ( !backwardHeap.isEmpty() )
+      {
+        int vertex = backwardHeap.poll();
+        if ( backwardDistances[ vertex ] >= best )
+        {
+          backwardHeap.clear();
+        } else
+        {
+          if ( distances[ vertex ] != INFINITY
+              && distances[ vertex ] + backwardDistances[ vertex ] < best )
+          {
+            best = distances[ vertex ] + backwardDistances[ vertex ];
+            meeting = vertex;
+          }
+          numBackwardTouched = relaxUpward( vertex, backwardDistances,
+              backwardParents, backwardHeap, backwardTouched,
+              numBackwardTouched );
+        }
+      }
+    }
+    return meeting;
+  }
+
+  /**
+   * Relax the links from the vertex to more important nodes.
+   *
+   * @return The number of touched nodes after relaxing.
+   */
+  private int relaxUpward(int vertex, int[] distances, int[] parents,
+      IndexedMinHeap heap, int[] touched, int numTouched) {
+    for ( int i = upOffsets[ vertex ]; i < upOffsets[ vertex + 1 ]; ++i )
+    {
+      int target = upTargets[ i ];
+      int distance = distances[ vertex ] + upWeights[ i ];
+      if ( distance < distances[ target ] )
+      {
+        if ( distances[ target ] == INFINITY )
+        {
+          touched[ numTouched++ ] = target;
+        }
+        distances[ target ] = distance;
+        parents[ target ] = vertex;
+        heap.insertOrDecrease( target, distance );
+      }
+    }
+    return numTouched;
+  }
+
+  /**
+   * Clear the distances of the nodes touched by the previous search,
+   * rather than the whole overlay.
+   */
+  private void reset() {
+    heap.clear();
+    backwardHeap.clear();
+    for ( int i = 0; i < numTouched; ++i )
+    {
+      distances[ touched[ i ] ] = INFINITY;
+    }
+    for ( int i = 0; i < numBackwardTouched; ++i )
+    {
+      backwardDistances[ backwardTouched[ i ] ] = INFINITY;
+    }
+    numTouched = 0;
+    numBackwardTouched = 0;
+  }
+
+  /**
+   * @return The node bypassed by the link between two nodes, or
+   *         {@link #NO_VERTEX} if it is a link of the overlay.
+   */
+  private int middle(int from, int to) {
+    int lower = rank[ from ] < rank[ to ] ? from : to;
+    int higher = lower == from ? to : from;
+    for ( int i = upOffsets[ lower ]; i < upOffsets[ lower + 1 ]; ++i )
+    {
+      if ( upTargets[ i ] == higher )
+      {
+        return upMiddles[ i ];
+      }
+    }
+    return NO_VERTEX;
+  }
+
+  /**
+   * Copy the links of the graph into growable lists, as shortcuts are
+   * added while contracting.
+   */
+  private void copyLinks(Graph graph) {
+    int numNodes = graph.size();
+    int[] offsets = graph.getOffsets();
+    this.links = new int[ numNodes ][];
+    this.linkWeights = new int[ numNodes ][];
+    this.linkMiddles = new int[ numNodes ][];
+    this.degrees = new int[ numNodes ];
+    this.contracted = new boolean[ numNodes ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int degree = offsets[ node + 1 ] - offsets[ node ];
+      links[ node ] = Arrays.copyOfRange( graph.getTargets(), offsets[ node ],
+          offsets[ node + 1 ] );
+      linkWeights[ node ] = Arrays.copyOfRange( graph.getWeights(),
+          offsets[ node ], offsets[ node + 1 ] );
+      linkMiddles[ node ] = new int[ degree ];
+      Arrays.fill( linkMiddles[ node ], NO_VERTEX );
+      degrees[ node ] = degree;
+    }
+  }
+
+  /**
+   * Contract the nodes in order of importance. A node whose importance
+   * grew since it was queued is queued again instead.
+   */
+  private void contractAll() {
+    int numNodes = rank.length;
+    int[] priorities = new int[ numNodes ];
+    int[] contractedNeighbors = new int[ numNodes ];
+    IndexedMinHeap order = new IndexedMinHeap( numNodes );
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      priorities[ node ] = contract( node, true ) - degree( node );
+      order.insertOrDecrease( node, priorities[ node ] );
+    }
+
+    int next = 0;
+    while ( !order.isEmpty() )
+    {
+      int node = order.poll();
+      int priority = contract( node, true ) - degree( node )
+          + contractedNeighbors[ node ];
+      if ( priority > priorities[ node ] )
+      {
+        priorities[ node ] = priority;
+        order.insertOrDecrease( node, priority );
+        continue;
+      }
+      numShortcuts += contract( node, false );
+      contracted[ node ] = true;
+      rank[ node ] = next++;
+      for ( int i = 0; i < degrees[ node ]; ++i )
+      {
+        ++contractedNeighbors[ links[ node ][ i ] ];
+      }
+    }
+  }
+
+  /**
+   * @return The number of links to nodes not yet contracted.
+   */
+  private int degree(int node) {
+    int degree = 0;
+    for ( int i = 0; i < degrees[ node ]; ++i )
+    {
+      if ( !contracted[ links[ node ][ i ] ] )
+      {
+        ++degree;
+      }
+    }
+    return degree;
+  }
+
+  /**
+   * Find the shortcuts needed to contract the node. For each neighbor,
+   * a limited witness search looks for a path to each other neighbor
+   * that avoids the node and is no longer than the path through it.
+   *
+   * @param node the node to contract
+   * @param simulate true to only count the shortcuts, false to add
+   *        them
+   * @return The number of shortcuts needed.
+   */
+  private int contract(int node, boolean simulate) {
+    int shortcuts = 0;
+    int[] neighbors = links[ node ];
+    int[] weights = linkWeights[ node ];
+    int degree = degrees[ node ];
+    for ( int i = 0; i < degree; ++i )
+    {
+      int from = neighbors[ i ];
+      if ( contracted[ from ] )
+      {
+        continue;
+      }
+      int maxWeight = 0;
+      for ( int j = 0; j < degree; ++j )
+      {
+        if ( neighbors[ j ] > from && !contracted[ neighbors[ j ] ] )
+        {
+          maxWeight = Math.max( maxWeight, weights[ i ] + weights[ j ] );
+        }
+      }
+      if ( maxWeight == 0 )
+      {
+        continue;
+      }
+      witnessSearch( from, node, maxWeight );
+      for ( int j = 0; j < degree; ++j )
+      {
+        int to = neighbors[ j ];
+        if ( to <= from || contracted[ to ] )
+        {
+          continue;
+        }
+        int weight = weights[ i ] + weights[ j ];
+        if ( distances[ to ] > weight )
+        {
+          ++shortcuts;
+          if ( !simulate )
+          {
+            addShortcut( from, to, weight, node );
+            addShortcut( to, from, weight, node );
+          }
+        }
+      }
+      reset();
+    }
+    return shortcuts;
+  }
+
+  /**
+   * Dijkstra's algorithm from the source over the nodes not yet
+   * contracted, other than the excluded node, until the remaining
+   * nodes are further than the limit.
+   */
+  private void witnessSearch(int source, int excluded, int limit) {
+    distances[ source ] = 0;
+    touched[ numTouched++ ] = source;
+    heap.insertOrDecrease( source, 0 );
+    int settled = 0;
+    while ( !heap.isEmpty() && settled++ < WITNESS_LIMIT )
+    {
+      int vertex = heap.poll();
+      if ( distances[ vertex ] > limit )
+      {
+        break;
+      }
+      for ( int i = 0; i < degrees[ vertex ]; ++i )
+      {
+        int target = links[ vertex ][ i ];
+        if ( target == excluded || contracted[ target ] )
+        {
+          continue;
+        }
+        int distance = distances[ vertex ] + linkWeights[ vertex ][ i ];
+        if ( distance < distances[ target ] )
+        {
+          if ( distances[ target ] == INFINITY )
+          {
+            touched[ numTouched++ ] = target;
+          }
+          distances[ target ] = distance;
+          heap.insertOrDecrease( target, distance );
+        }
+      }
+    }
+  }
+
+  /**
+   * Add a shortcut from one node to another, or lower the weight of an
+   * existing link between them.
+   */
+  private void addShortcut(int from, int to, int weight, int middle) {
+    for ( int i = 0; i < degrees[ from ]; ++i )
+    {
+      if ( links[ from ][ i ] == to )
+      {
+        if ( weight < linkWeights[ from ][ i ] )
+        {
+          linkWeights[ from ][ i ] = weight;
+          linkMiddles[ from ][ i ] = middle;
+        }
+        return;
+      }
+    }
+    int degree = degrees[ from ];
+    if ( degree == links[ from ].length )
+    {
+      int capacity = Math.max( 4, degree * 2 );
+      links[ from ] = Arrays.copyOf( links[ from ], capacity );
+      linkWeights[ from ] = Arrays.copyOf( linkWeights[ from ], capacity );
+      linkMiddles[ from ] = Arrays.copyOf( linkMiddles[ from ], capacity );
+    }
+    links[ from ][ degree ] = to;
+    linkWeights[ from ][ degree ] = weight;
+    linkMiddles[ from ][ degree ] = middle;
+    degrees[ from ] = degree + 1;
+  }
+
+  /**
+   * Keep only the links from each node to more important nodes, which
+   * are all a query needs.
+   */
+  private void buildUpwardLinks() {
+    int numNodes = rank.length;
+    this.upOffsets = new int[ numNodes + 1 ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int count = 0;
+      for ( int i = 0; i < degrees[ node ]; ++i )
+      {
+        if ( rank[ links[ node ][ i ] ] > rank[ node ] )
+        {
+          ++count;
+        }
+      }
+      upOffsets[ node + 1 ] = upOffsets[ node ] + count;
+    }
+    this.upTargets = new int[ upOffsets[ numNodes ] ];
+    this.upWeights = new int[ upOffsets[ numNodes ] ];
+    this.upMiddles = new int[ upOffsets[ numNodes ] ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int index = upOffsets[ node ];
+      for ( int i = 0; i < degrees[ node ]; ++i )
+      {
+        if ( rank[ links[ node ][ i ] ] > rank[ node ] )
+        {
+          upTargets[ index ] = links[ node ][ i ];
+          upWeights[ index ] = linkWeights[ node ][ i ];
+          upMiddles[ index ] = linkMiddles[ node ][ i ];
+          ++index;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compute the shortest path tree from a single source with the
+ * delta-stepping algorithm, relaxing links in parallel on a fork/join
+ * pool.
+ *
+ * Vertices are grouped into buckets of distances <i>delta</i> wide.
+ * The lowest bucket is settled by relaxing the <i>light</i> links ( at
+ * most delta ) of all of its vertices at once, repeating while vertices
+ * fall back into the same bucket, and then the <i>heavy</i> links of
+ * every vertex it settled once. Unlike Dijkstra's algorithm, a vertex
+ * may be relaxed more than once, in exchange for every vertex of a
+ * bucket being relaxed in parallel.
+ *
+ * The distance and parent of each vertex are packed into one
+ * <code>long</code>, so both are updated together with a single
+ * compare-and-set and no locks. A vertex whose distance improves is
+ * claimed once per phase for the next bucket, and the buckets are only
+ * filled between phases.
+ *
+ * @author stock
+ *
+ */
+public class DeltaStepping {
+
+  private static final int NO_PARENT = -1;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  /**
+   * The number of vertices a task relaxes before it is split.
+   */
+  private static final int THRESHOLD = 256;
+
+  private Graph graph;
+
+  private ForkJoinPool pool;
+
+  private int delta;
+
+  // The distance ( high bits ) and parent ( low bits ) of each vertex
+  private AtomicLongArray state;
+
+  // The phase each vertex was last claimed for the next bucket in
+  private AtomicIntegerArray claimed;
+
+  // Vertices whose distance improved during the current phase
+  private int[] improved;
+
+  private AtomicInteger numImproved;
+
+  private int phase;
+
+  /**
+   * A growable list of vertices, for each bucket.
+   */
+  private static class Bucket {
+
+    private int[] vertices = new int[ 16 ];
+
+    private int size;
+
+    private void add(int vertex) {
+      if ( size == vertices.length )
+      {
+        vertices = Arrays.copyOf( vertices, size * 2 );
+      }
+      vertices[ size++ ] = vertex;
+    }
+  }
+
+  /**
+   * Relax the light, or heavy, links of a range of vertices.
+   */
+  private class RelaxTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] vertices;
+
+    private int low;
+
+    private int high;
+
+    private boolean light;
+
+    private RelaxTask(int[] vertices, int low, int high, boolean light) {
+      this.vertices = vertices;
+      this.low = low;
+      this.high = high;
+      this.light = light;
+    }
+
+    @Override
+    protected void compute() {
+      if ( high - low <= THRESHOLD )
+      {
+        relax( vertices, low, high, light );
+        return;
+      }
+      int middle = ( low + high ) >>> 1;
+      invokeAll( new RelaxTask( vertices, low, middle, light ),
+          new RelaxTask( vertices, middle, high, light ) );
+    }
+  }
+
+  /**
+   * Default constructor - compute over the graph on the given pool.
+   *
+   * @param graph the overlay built from the link weights
+   * @param pool the threads to relax links on
+   */
+  public DeltaStepping(Graph graph, ForkJoinPool pool) {
+    this.graph = graph;
+    this.pool = pool;
+    // Around one light link per vertex, on average, keeps the work of
+    // each phase close to that of Dijkstra's algorithm
+    int averageDegree = Math.max( 1, graph.getTargets().length
+        / Math.max( 1, graph.size() ) );
+    this.delta = Math.max( 1, graph.getMaxWeight() / averageDegree );
+  }
+
+  /**
+   * Compute the shortest path tree from the source.
+   *
+   * @param source
+   * @param distances filled with the shortest distance to each node,
+   *        where unreachable nodes are <code>Integer.MAX_VALUE</code>
+   * @return The array of parent values from the start node to each
+   *         node.
+   */
+  public int[] compute(int source, int[] distances) {
+    int numNodes = graph.size();
+    this.state = new AtomicLongArray( numNodes );
+    this.claimed = new AtomicIntegerArray( numNodes );
+    this.improved = new int[ numNodes ];
+    this.numImproved = new AtomicInteger();
+    this.phase = 0;
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      state.set( node, pack( INFINITY, NO_PARENT ) );
+      claimed.set( node, -1 );
+    }
+    state.set( source, pack( 0, NO_PARENT ) );
+
+    // Every queued distance is within the largest weight of the
+    // current bucket, so the buckets are reused circularly
+    int numBuckets = graph.getMaxWeight() / delta + 2;
+    Bucket[] buckets = new Bucket[ numBuckets ];
+    for ( int i = 0; i < numBuckets; ++i )
+    {
+      buckets[ i ] = new Bucket();
+    }
+    buckets[ 0 ].add( source );
+    long queued = 1;
+
+    int[] frontier = new int[ numNodes ];
+    int[] settled = new int[ numNodes ];
+    int[] frontierPhase = new int[ numNodes ];
+    int[] settledBucket = new int[ numNodes ];
+    Arrays.fill( frontierPhase, -1 );
+    Arrays.fill( settledBucket, -1 );
+
+    for ( int index = 0; queued > 0; ++index )
+    {
+      Bucket bucket = buckets[ index % numBuckets ];
+      int numSettled = 0;
+      while ( bucket.size > 0 )
+      {
+        // Take the vertices that still belong to this bucket, once each
+        ++phase;
+        int numFrontier = 0;
+        for ( int i = 0; i < bucket.size; ++i )
+        {
+          int vertex = bucket.vertices[ i ];
+          if ( distance( vertex ) / delta != index
+              || frontierPhase[ vertex ] == phase )
+          {
+            continue;
+          }
+          frontierPhase[ vertex ] = phase;
+          frontier[ numFrontier++ ] = vertex;
+          if ( settledBucket[ vertex ] != index )
+          {
+            settledBucket[ vertex ] = index;
+            settled[ numSettled++ ] = vertex;
+          }
+        }
+        queued -= bucket.size;
+        bucket.size = 0;
+
+        run( frontier, numFrontier, true );
+        queued += fill( buckets );
+      }
+      if ( numSettled > 0 )
+      {
+        ++phase;
+        run( settled, numSettled, false );
+        queued += fill( buckets );
+      }
+    }
+
+    int[] parents = new int[ numNodes ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      long packed = state.get( node );
+      distances[ node ] = ( int ) ( packed >>> 32 );
+      parents[ node ] = ( int ) packed;
+    }
+    return parents;
+  }
+
+  /**
+   * Relax the links of the vertices, in parallel if there are enough
+   * of them to split.
+   */
+  private void run(int[] vertices, int count, boolean light) {
+    numImproved.set( 0 );
+    if ( count <= THRESHOLD )
+    {
+      relax( vertices, 0, count, light );
+    } else
+    {
+      pool.invoke( new RelaxTask( vertices, 0, count, light ) );
+    }
+  }
+
+  /**
+   * Place the vertices improved by the last phase into the bucket of
+   * their distance.
+   *
+   * @return The number of vertices placed.
+   */
+  private int fill(Bucket[] buckets) {
+    int count = numImproved.get();
+    for ( int i = 0; i < count; ++i )
+    {
+      int vertex = improved[ i ];
+      buckets[ ( distance( vertex ) / delta ) % buckets.length ].add( vertex );
+    }
+    return count;
+  }
+
+  /**
+   * Relax the light, or heavy, links of the vertices in
+   * <code>[low, high)</code>.
+   */
+  private void relax(int[] vertices, int low, int high, boolean light) {
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+    for ( int k = low; k < high; ++k )
+    {
+      int vertex = vertices[ k ];
+      int distance = distance( vertex );
+      for ( int i = offsets[ vertex ]; i < offsets[ vertex + 1 ]; ++i )
+      {
+        if ( ( weights[ i ] <= delta ) == light )
+        {
+          relax( targets[ i ], distance + weights[ i ], vertex );
+        }
+      }
+    }
+  }
+
+  /**
+   * Lower the distance of the target through the parent, if shorter,
+   * and claim the target for the next bucket.
+   */
+  private void relax(int target, int distance, int parent) {
+    while ( true )
+    {
+      long current = state.get( target );
+      if ( ( int ) ( current >>> 32 ) <= distance )
+      {
+        return;
+      }
+      if ( state.compareAndSet( target, current,
+          pack( distance, parent ) ) )
+      {
+        if ( claimed.getAndSet( target, phase ) != phase )
+        {
+          improved[ numImproved.getAndIncrement() ] = target;
+        }
+        return;
+      }
+    }
+  }
+
+  private int distance(int vertex) {
+    return ( int ) ( state.get( vertex ) >>> 32 );
+  }
+
+  private static long pack(int distance, int parent) {
+    return ( ( long ) distance << 32 ) | ( parent & 0xFFFFFFFFL );
+  }
+}
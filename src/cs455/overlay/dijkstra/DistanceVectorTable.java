@@ -0,0 +1,410 @@
+package cs455.overlay.dijkstra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import cs455.overlay.wireformats.DistanceVector;
+import cs455.overlay.wireformats.LinkWeights;
+import cs455.overlay.wireformats.RoutingTable;
+
+/**
+ * The distance and next hop from a messaging node to every sink,
+ * computed with the distributed Bellman-Ford algorithm from the
+ * weights of its own links and the {@link DistanceVector} of each
+ * neighbor.
+ *
+ * A node only needs the weights of its own links, and only exchanges
+ * vectors with its neighbors, so the traffic to converge depends on
+ * the degree of each node rather than the size of the overlay. When
+ * the distance to a sink changes, a triggered update with only the
+ * changed sinks is sent to every neighbor. Changes are held until the
+ * updates are {@link #flush() flushed}, which the caller delays by
+ * {@link #UPDATE_DELAY} so that many changes, and any intermediate
+ * distances, are carried by one update. With split horizon, a route
+ * is never advertised back to the neighbor it goes through; instead it
+ * is withdrawn from that neighbor ( poisoned reverse ), as the updates
+ * are partial and an omitted sink would keep its previous distance.
+ *
+ * Vectors may arrive from a neighbor before the weight of the link to
+ * it is known. They are held, and used once the link weights are set.
+ * A neighbor that connects again, such as after it restarts, is sent
+ * the whole vector with {@link #getVector(String)}, as the triggered
+ * updates it missed only carried the changes.
+ *
+ * @author stock
+ *
+ */
+public class DistanceVectorTable {
+
+  private static final int UNREACHABLE = DistanceVector.UNREACHABLE;
+
+  /**
+   * The weight of a link that is not known.
+   */
+  public static final int UNKNOWN_WEIGHT = -1;
+
+  /**
+   * The milliseconds to hold changes before sending triggered updates.
+   */
+  public static final long UPDATE_DELAY = 20;
+
+  private String self;
+
+  private NodeIndex nodes;
+
+  private int selfIndex;
+
+  private int[] distances;
+
+  private int[] nextHops;
+
+  // The neighbors, by index, in the order they were first seen
+  private Map<Integer, Neighbor> neighbors = new LinkedHashMap<>();
+
+  private boolean routesChanged;
+
+  // The sinks whose distance changed since the last flush
+  private boolean[] pending;
+
+  private List<Integer> pendingSinks = new ArrayList<>();
+
+  /**
+   * The weight of the link to a neighbor, and the distances it last
+   * advertised to each sink.
+   */
+  private static class Neighbor {
+
+    private int weight = UNKNOWN_WEIGHT;
+
+    private int[] advertised = new int[ 0 ];
+
+    private int get(int sink) {
+      return sink < advertised.length ? advertised[ sink ] : UNREACHABLE;
+    }
+
+    private void set(int sink, int distance) {
+      if ( sink >= advertised.length )
+      {
+        int length = advertised.length;
+        advertised = Arrays.copyOf( advertised,
+            Math.max( sink + 1, length * 2 ) );
+        Arrays.fill( advertised, length, advertised.length, UNREACHABLE );
+      }
+      advertised[ sink ] = distance;
+    }
+  }
+
+  /**
+   * Default constructor - a table that only knows the node itself.
+   *
+   * @param self host:port of calling messaging node
+   */
+  public DistanceVectorTable(String self) {
+    this.self = self;
+    this.nodes = new NodeIndex();
+    this.selfIndex = nodes.intern( self );
+    this.distances = new int[] { 0 };
+    this.nextHops = new int[] { ShortestPath.NO_HOP };
+    this.pending = new boolean[ 1 ];
+    this.routesChanged = true;
+  }
+
+  /**
+   * Set the weights of the links of this node, and compute the
+   * distances to every sink known so far. Every known sink is sent to
+   * the neighbors on the next flush.
+   *
+   * @param linkWeights the links of this node, as sent by the registry;
+   *        links without this node are ignored
+   */
+  public synchronized void setLinkWeights(LinkWeights linkWeights) {
+    for ( String link : linkWeights.getLinks() )
+    {
+      String peer = LinkWeights.getPeer( link, self );
+      if ( peer != null )
+      {
+        neighbor( nodes.intern( peer ) ).weight =
+            Integer.parseInt( link.split( "\\s+" )[ 2 ] );
+      }
+    }
+    grow();
+    for ( int sink = 0; sink < nodes.size(); ++sink )
+    {
+      recompute( sink );
+      markPending( sink );
+    }
+  }
+
+  /**
+   * Change the weight of the link to a neighbor.
+   *
+   * @param peer host:port of the neighbor
+   * @param weight the new weight of the link
+   * @return true if the weight was changed, false if the peer is not a
+   *         neighbor.
+   */
+  public synchronized boolean setLinkWeight(String peer, int weight) {
+    Neighbor neighbor = neighbors.get( nodes.indexOf( peer ) );
+    if ( neighbor == null || neighbor.weight == UNKNOWN_WEIGHT )
+    {
+      return false;
+    }
+    neighbor.weight = weight;
+    for ( int sink = 0; sink < nodes.size(); ++sink )
+    {
+      if ( recompute( sink ) )
+      {
+        markPending( sink );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Merge the vector received from a neighbor.
+   *
+   * @param vector distances from the neighbor
+   * @return true if the distance to any sink changed.
+   */
+  public synchronized boolean merge(DistanceVector vector) {
+    Neighbor neighbor = neighbor( nodes.intern( vector.getSender() ) );
+    grow();
+    String[] sinks = vector.getSinks();
+    int[] advertised = vector.getDistances();
+    boolean changed = false;
+    for ( int i = 0; i < sinks.length; ++i )
+    {
+      int sink = nodes.indexOf( sinks[ i ] );
+      if ( sink == NodeIndex.UNKNOWN )
+      {
+        if ( advertised[ i ] == UNREACHABLE )
+        {
+          continue;
+        }
+        sink = nodes.intern( sinks[ i ] );
+        grow();
+      }
+      neighbor.set( sink, advertised[ i ] );
+      if ( recompute( sink ) )
+      {
+        markPending( sink );
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Build the triggered updates for the sinks whose distance changed
+   * since the last flush.
+   *
+   * @return The vector to send to each neighbor, keyed by host:port,
+   *         which is empty if nothing changed.
+   */
+  public synchronized Map<String, DistanceVector> flush() {
+    Map<String, DistanceVector> updates = updates( pendingSinks );
+    for ( int sink : pendingSinks )
+    {
+      pending[ sink ] = false;
+    }
+    pendingSinks.clear();
+    return updates;
+  }
+
+  /**
+   * @return true if a next hop has changed, or a sink has been found,
+   *         since the last call to {@link #getRoutingTable()}.
+   */
+  public synchronized boolean haveRoutesChanged() {
+    return routesChanged;
+  }
+
+  /**
+   * @return The next hop to every known sink, in the same form as the
+   *         tables computed by the registry.
+   */
+  public synchronized RoutingTable getRoutingTable() {
+    String[] identifiers = new String[ nodes.size() ];
+    for ( int i = 0; i < identifiers.length; ++i )
+    {
+      identifiers[ i ] = nodes.get( i );
+    }
+    routesChanged = false;
+    return new RoutingTable( identifiers, selfIndex,
+        Arrays.copyOf( nextHops, identifiers.length ) );
+  }
+
+  /**
+   * @param peer host:port of the neighbor
+   * @return The weight of the link to the neighbor, or
+   *         {@link #UNKNOWN_WEIGHT} if it is not a neighbor or the
+   *         weight is not known.
+   */
+  public synchronized int getLinkWeight(String peer) {
+    Neighbor neighbor = neighbors.get( nodes.indexOf( peer ) );
+    return neighbor == null ? UNKNOWN_WEIGHT : neighbor.weight;
+  }
+
+  /**
+   * Build the vector of every known sink for a neighbor, with the same
+   * routes withdrawn as in its triggered updates.
+   *
+   * @param peer host:port of the neighbor
+   * @return The vector, or null if the peer is not a neighbor or the
+   *         weight of the link to it is not known.
+   */
+  public synchronized DistanceVector getVector(String peer) {
+    int index = nodes.indexOf( peer );
+    Neighbor neighbor = neighbors.get( index );
+    if ( neighbor == null || neighbor.weight == UNKNOWN_WEIGHT )
+    {
+      return null;
+    }
+    List<Integer> sinks = new ArrayList<>( nodes.size() );
+    for ( int sink = 0; sink < nodes.size(); ++sink )
+    {
+      sinks.add( sink );
+    }
+    return updates( sinks ).get( peer );
+  }
+
+  /**
+   * @return The number of nodes known, including this node.
+   */
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * @param sink host:port of the end point
+   * @return The distance to the sink, or
+   *         {@link DistanceVector#UNREACHABLE} if no route is known.
+   */
+  public synchronized int getDistance(String sink) {
+    int index = nodes.indexOf( sink );
+    return index == NodeIndex.UNKNOWN ? UNREACHABLE : distances[ index ];
+  }
+
+  /**
+   * @return The neighbor at the index, added if it is new.
+   */
+  private Neighbor neighbor(int index) {
+    Neighbor neighbor = neighbors.get( index );
+    if ( neighbor == null )
+    {
+      neighbor = new Neighbor();
+      neighbors.put( index, neighbor );
+    }
+    return neighbor;
+  }
+
+  /**
+   * Extend the distances and next hops to every interned node.
+   */
+  private void grow() {
+    int length = distances.length;
+    if ( nodes.size() <= length )
+    {
+      return;
+    }
+    int capacity = Math.max( nodes.size(), length * 2 );
+    distances = Arrays.copyOf( distances, capacity );
+    nextHops = Arrays.copyOf( nextHops, capacity );
+    Arrays.fill( distances, length, capacity, UNREACHABLE );
+    Arrays.fill( nextHops, length, capacity, ShortestPath.NO_HOP );
+    pending = Arrays.copyOf( pending, capacity );
+  }
+
+  private void markPending(int sink) {
+    if ( !pending[ sink ] )
+    {
+      pending[ sink ] = true;
+      pendingSinks.add( sink );
+    }
+  }
+
+  /**
+   * Choose the neighbor with the shortest distance to the sink. Ties
+   * keep the current next hop, so routes do not flap between equal
+   * paths.
+   *
+   * @return true if the distance or next hop changed.
+   */
+  private boolean recompute(int sink) {
+    if ( sink == selfIndex )
+    {
+      return false;
+    }
+    int best = UNREACHABLE;
+    int hop = ShortestPath.NO_HOP;
+    for ( Map.Entry<Integer, Neighbor> entry : neighbors.entrySet() )
+    {
+      Neighbor neighbor = entry.getValue();
+      int index = entry.getKey();
+      int advertised = index == sink ? 0 : neighbor.get( sink );
+      if ( neighbor.weight == UNKNOWN_WEIGHT || advertised == UNREACHABLE )
+      {
+        continue;
+      }
+      long distance = ( long ) neighbor.weight + advertised;
+      if ( distance < best
+          || ( distance == best && index == nextHops[ sink ] ) )
+      {
+        best = ( int ) Math.min( distance, UNREACHABLE - 1 );
+        hop = index;
+      }
+    }
+    if ( best == distances[ sink ] && hop == nextHops[ sink ] )
+    {
+      return false;
+    }
+    if ( hop != nextHops[ sink ] )
+    {
+      routesChanged = true;
+    }
+    distances[ sink ] = best;
+    nextHops[ sink ] = hop;
+    return true;
+  }
+
+  /**
+   * Build the vector for each neighbor whose link weight is known,
+   * withdrawing the routes that go through that neighbor.
+   */
+  private Map<String, DistanceVector> updates(List<Integer> changed) {
+    Map<String, DistanceVector> updates = new LinkedHashMap<>();
+    if ( changed.isEmpty() )
+    {
+      return updates;
+    }
+    for ( Map.Entry<Integer, Neighbor> entry : neighbors.entrySet() )
+    {
+      int index = entry.getKey();
+      if ( entry.getValue().weight == UNKNOWN_WEIGHT )
+      {
+        continue;
+      }
+      List<String> sinks = new ArrayList<>( changed.size() );
+      int[] advertised = new int[ changed.size() ];
+      for ( int sink : changed )
+      {
+        if ( sink == index )
+        {
+          continue;
+        }
+        advertised[ sinks.size() ] =
+            nextHops[ sink ] == index ? UNREACHABLE : distances[ sink ];
+        sinks.add( nodes.get( sink ) );
+      }
+      if ( !sinks.isEmpty() )
+      {
+        updates.put( nodes.get( index ),
+            new DistanceVector( self, sinks.toArray( new String[ 0 ] ),
+                Arrays.copyOf( advertised, sinks.size() ) ) );
+      }
+    }
+    return updates;
+  }
+}
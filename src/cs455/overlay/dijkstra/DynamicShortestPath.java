@@ -0,0 +1,230 @@
+package cs455.overlay.dijkstra;
+
+/**
+ * Maintains the shortest path tree from a single source as the weights
+ * of links in the overlay change.
+ *
+ * Rather than recomputing every route when a weight changes, only the
+ * part of the tree that is affected is repaired:
+ *
+ * <ul>
+ * <li>When a weight <b>decreases</b>, the endpoint that becomes closer
+ * is relaxed, and Dijkstra's algorithm continues from it only through
+ * the nodes whose distance improves.</li>
+ * <li>When the weight of a link in the tree <b>increases</b>, the
+ * subtree below it is detached, each detached node is reconnected
+ * through its best neighbor outside the subtree, and Dijkstra's
+ * algorithm settles the subtree from there. Increases to links
+ * outside the tree change nothing.</li>
+ * </ul>
+ *
+ * The structure of the graph is fixed; only weights may change.
+ *
+ * @author stock
+ *
+ */
+public class DynamicShortestPath {
+
+  private static final int NO_PARENT = -1;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private Graph graph;
+
+  private int source;
+
+  private int[] parents;
+
+  private int[] distances;
+
+  private IndexedMinHeap heap;
+
+  // Scratch space to mark and collect the detached subtree
+  private boolean[] detached;
+
+  private int[] subtree;
+
+  /**
+   * Default constructor - compute the initial shortest path tree from
+   * the source.
+   *
+   * @param graph the overlay, whose weights will be changed through
+   *        {@link #updateWeight(int, int, int)}
+   * @param source index of the nodes self
+   */
+  public DynamicShortestPath(Graph graph, int source) {
+    this( graph, source, ShortestPath.Engine.BUCKET );
+  }
+
+  /**
+   * Constructor - compute the initial shortest path tree from the
+   * source with the specified engine. Repairs are always sequential.
+   *
+   * @param graph the overlay, whose weights will be changed through
+   *        {@link #updateWeight(int, int, int)}
+   * @param source index of the nodes self
+   * @param engine computes the initial tree
+   */
+  public DynamicShortestPath(Graph graph, int source,
+      ShortestPath.Engine engine) {
+    this.graph = graph;
+    this.source = source;
+    ShortestPath shortestPath = new ShortestPath( engine, graph );
+    this.parents = shortestPath.dijkstra( source );
+    this.distances = shortestPath.getDistances();
+
+    int numNodes = graph.size();
+    this.heap = new IndexedMinHeap( numNodes );
+    this.detached = new boolean[ numNodes ];
+    this.subtree = new int[ numNodes ];
+  }
+
+  /**
+   * @return The parent of each node in the shortest path tree. The
+   *         array is updated in place as weights change.
+   */
+  public int[] getParents() {
+    return parents;
+  }
+
+  /**
+   * @return The shortest distance to each node, where unreachable nodes
+   *         are <code>Integer.MAX_VALUE</code>.
+   */
+  public int[] getDistances() {
+    return distances;
+  }
+
+  /**
+   * @return The graph being maintained.
+   */
+  public Graph getGraph() {
+    return graph;
+  }
+
+  /**
+   * Change the weight of a link and repair the shortest path tree.
+   *
+   * @param u one endpoint of the link
+   * @param v the other endpoint of the link
+   * @param weight the new weight of the link, at least 1
+   * @return true if the link exists, false otherwise.
+   */
+  public boolean updateWeight(int u, int v, int weight) {
+    int previous = graph.setWeight( u, v, weight );
+    if ( previous == -1 )
+    {
+      return false;
+    }
+    if ( weight < previous )
+    {
+      relax( u, v, weight );
+      relax( v, u, weight );
+      settle();
+    } else if ( weight > previous )
+    {
+      if ( parents[ v ] == u )
+      {
+        reattach( v );
+      } else if ( parents[ u ] == v )
+      {
+        reattach( u );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Queue the node <code>to</code> if it is closer through the node
+   * <code>from</code>.
+   */
+  private void relax(int from, int to, int weight) {
+    if ( distances[ from ] == INFINITY )
+    {
+      return;
+    }
+    int candidate = distances[ from ] + weight;
+    if ( candidate < distances[ to ] )
+    {
+      distances[ to ] = candidate;
+      parents[ to ] = from;
+      heap.insertOrDecrease( to, candidate );
+    }
+  }
+
+  /**
+   * Detach the subtree rooted at <code>root</code>, reconnect each of
+   * its nodes through the best neighbor outside of it, and settle the
+   * distances within it.
+   *
+   * @param root the child of the link whose weight increased
+   */
+  private void reattach(int root) {
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    // Collect the subtree breadth first, through the links to children
+    int size = 0;
+    subtree[ size++ ] = root;
+    detached[ root ] = true;
+    for ( int head = 0; head < size; ++head )
+    {
+      int node = subtree[ head ];
+      for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; ++i )
+      {
+        int child = targets[ i ];
+        if ( parents[ child ] == node && !detached[ child ] )
+        {
+          detached[ child ] = true;
+          subtree[ size++ ] = child;
+        }
+      }
+    }
+    for ( int k = 0; k < size; ++k )
+    {
+      distances[ subtree[ k ] ] = INFINITY;
+      parents[ subtree[ k ] ] = NO_PARENT;
+    }
+
+    // Reconnect through the best neighbor outside of the subtree
+    for ( int k = 0; k < size; ++k )
+    {
+      int node = subtree[ k ];
+      for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; ++i )
+      {
+        int neighbor = targets[ i ];
+        if ( !detached[ neighbor ] )
+        {
+          relax( neighbor, node, weights[ i ] );
+        }
+      }
+    }
+    for ( int k = 0; k < size; ++k )
+    {
+      detached[ subtree[ k ] ] = false;
+    }
+    settle();
+  }
+
+  /**
+   * Continue Dijkstra's algorithm from the queued nodes until no
+   * distance can be improved.
+   */
+  private void settle() {
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    while ( !heap.isEmpty() )
+    {
+      int nearestVertex = heap.poll();
+      for ( int i = offsets[ nearestVertex ]; i < offsets[ nearestVertex
+          + 1 ]; i++ )
+      {
+        relax( nearestVertex, targets[ i ], weights[ i ] );
+      }
+    }
+  }
+
+}
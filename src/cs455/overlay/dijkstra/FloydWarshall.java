@@ -0,0 +1,228 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compute the next hop from every node to every other at once with
+ * the Floyd-Warshall algorithm, for overlays that are dense enough
+ * that the <i>O(N&sup3;)</i> matrix beats a shortest path computation
+ * per source.
+ *
+ * The distances and next hops are held in two flat
+ * <code>int[N * N]</code> arrays in row-major order. The matrix is
+ * processed in square tiles of {@link #TILE} nodes so that the rows a
+ * tile reads stay in cache. For each diagonal tile <i>k</i>, the
+ * diagonal tile is updated first, then the tiles in row and column
+ * <i>k</i>, and then every other tile. Each step only reads tiles
+ * finished by the step before, so the tiles of a step are updated in
+ * parallel, one row of tiles per task.
+ *
+ * @author stock
+ *
+ */
+public class FloydWarshall {
+
+  /**
+   * The width of a square tile of the matrix, in nodes.
+   */
+  public static final int TILE = 64;
+
+  // Half of the largest value, so that two may be added without
+  // overflow
+  private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+  private int numNodes;
+
+  private int numTiles;
+
+  private int[] distances;
+
+  private int[] nextHops;
+
+  /**
+   * Update a range of tile rows for the diagonal tile <i>k</i>.
+   */
+  private class TileRowTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private int k;
+
+    private int low;
+
+    private int high;
+
+    private boolean crossOnly;
+
+    /**
+     * @param k the diagonal tile
+     * @param low first tile row, inclusive
+     * @param high last tile row, exclusive
+     * @param crossOnly update only the tiles in row and column k,
+     *        otherwise only the tiles outside of them
+     */
+    private TileRowTask(int k, int low, int high, boolean crossOnly) {
+      this.k = k;
+      this.low = low;
+      this.high = high;
+      this.crossOnly = crossOnly;
+    }
+
+    @Override
+    protected void compute() {
+      if ( high - low <= 1 )
+      {
+        for ( int row = low; row < high; ++row )
+        {
+          updateRow( k, row, crossOnly );
+        }
+        return;
+      }
+      int middle = ( low + high ) >>> 1;
+      invokeAll( new TileRowTask( k, low, middle, crossOnly ),
+          new TileRowTask( k, middle, high, crossOnly ) );
+    }
+  }
+
+  /**
+   * Default constructor - fill the matrix from the links of the graph.
+   *
+   * @param graph the overlay built from the link weights
+   */
+  public FloydWarshall(Graph graph) {
+    this.numNodes = graph.size();
+    this.numTiles = ( numNodes + TILE - 1 ) / TILE;
+    this.distances = new int[ numNodes * numNodes ];
+    this.nextHops = new int[ numNodes * numNodes ];
+    Arrays.fill( distances, INFINITY );
+    Arrays.fill( nextHops, ShortestPath.NO_HOP );
+
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int row = node * numNodes;
+      distances[ row + node ] = 0;
+      for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; ++i )
+      {
+        if ( targets[ i ] != node
+            && weights[ i ] < distances[ row + targets[ i ] ] )
+        {
+          distances[ row + targets[ i ] ] = weights[ i ];
+          nextHops[ row + targets[ i ] ] = targets[ i ];
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute the shortest distances and next hops between every pair
+   * of nodes.
+   *
+   * @param pool the threads to update tiles on
+   */
+  public void compute(ForkJoinPool pool) {
+    for ( int k = 0; k < numTiles; ++k )
+    {
+      updateTile( k, k, k );
+      pool.invoke( new TileRowTask( k, 0, numTiles, true ) );
+      pool.invoke( new TileRowTask( k, 0, numTiles, false ) );
+    }
+  }
+
+  /**
+   * Hand the next hop table of every source to the listener, once
+   * {@link #compute(ForkJoinPool)} is complete.
+   *
+   * @param listener receives the table for each source
+   */
+  public void forEachSource(NextHopTask.Listener listener) {
+    for ( int source = 0; source < numNodes; ++source )
+    {
+      int row = source * numNodes;
+      listener.onNextHops( source,
+          Arrays.copyOfRange( nextHops, row, row + numNodes ) );
+    }
+  }
+
+  /**
+   * @param source
+   * @param sink
+   * @return The shortest distance from the source to the sink, or
+   *         <code>Integer.MAX_VALUE</code> if it is unreachable.
+   */
+  public int getDistance(int source, int sink) {
+    int distance = distances[ source * numNodes + sink ];
+    return distance >= INFINITY ? Integer.MAX_VALUE : distance;
+  }
+
+  /**
+   * Update the tiles of one tile row for the diagonal tile
+   * <i>k</i>.
+   */
+  private void updateRow(int k, int row, boolean crossOnly) {
+    if ( row == k )
+    {
+      if ( crossOnly )
+      {
+        for ( int column = 0; column < numTiles; ++column )
+        {
+          if ( column != k )
+          {
+            updateTile( k, row, column );
+          }
+        }
+      }
+      return;
+    }
+    if ( crossOnly )
+    {
+      updateTile( k, row, k );
+      return;
+    }
+    for ( int column = 0; column < numTiles; ++column )
+    {
+      if ( column != k )
+      {
+        updateTile( k, row, column );
+      }
+    }
+  }
+
+  /**
+   * Relax every pair in the tile ( row, column ) through each node of
+   * the diagonal tile <i>k</i>.
+   */
+  private void updateTile(int k, int row, int column) {
+    int kEnd = Math.min( ( k + 1 ) * TILE, numNodes );
+    int iEnd = Math.min( ( row + 1 ) * TILE, numNodes );
+    int jStart = column * TILE;
+    int jEnd = Math.min( jStart + TILE, numNodes );
+    for ( int via = k * TILE; via < kEnd; ++via )
+    {
+      int viaRow = via * numNodes;
+      for ( int i = row * TILE; i < iEnd; ++i )
+      {
+        int iRow = i * numNodes;
+        int toVia = distances[ iRow + via ];
+        if ( toVia >= INFINITY )
+        {
+          continue;
+        }
+        int hop = nextHops[ iRow + via ];
+        for ( int j = jStart; j < jEnd; ++j )
+        {
+          int distance = toVia + distances[ viaRow + j ];
+          if ( distance < distances[ iRow + j ] )
+          {
+            distances[ iRow + j ] = distance;
+            nextHops[ iRow + j ] = hop;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package cs455.overlay.dijkstra;
+
+/**
+ * An undirected, weighted graph of the overlay held in compressed
+ * sparse row form.
+ *
+ * The neighbors of vertex <code>v</code> are stored in
+ * <code>targets[offsets[v]]</code> through
+ * <code>targets[offsets[v + 1] - 1]</code>, with the weight of each
+ * link at the same index of <code>weights</code>. Memory is therefore
+ * <i>O(N + E)</i> rather than the <i>O(N&sup2;)</i> of an adjacency
+ * matrix, and the graph is built once from the link weights and shared
+ * by every routing engine.
+ *
+ * @author stock
+ *
+ */
+public class Graph {
+
+  private int[] offsets;
+
+  private int[] targets;
+
+  private int[] weights;
+
+  private int minWeight = Integer.MAX_VALUE;
+
+  private int maxWeight = 0;
+
+  /**
+   * Default constructor - build the graph from a list of bidirectional
+   * edges, where edge <code>i</code> connects <code>sources[i]</code>
+   * to <code>destinations[i]</code> with weight
+   * <code>edgeWeights[i]</code>.
+   *
+   * @param numNodes total number of vertices in the overlay
+   * @param sources
+   * @param destinations
+   * @param edgeWeights
+   */
+  public Graph(int numNodes, int[] sources, int[] destinations,
+      int[] edgeWeights) {
+    int numEdges = sources.length;
+    this.offsets = new int[ numNodes + 1 ];
+    this.targets = new int[ 2 * numEdges ];
+    this.weights = new int[ 2 * numEdges ];
+
+    // Count the degree of each vertex, then convert to offsets
+    for ( int i = 0; i < numEdges; ++i )
+    {
+      ++offsets[ sources[ i ] + 1 ];
+      ++offsets[ destinations[ i ] + 1 ];
+    }
+    for ( int v = 0; v < numNodes; ++v )
+    {
+      offsets[ v + 1 ] += offsets[ v ];
+    }
+
+    int[] next = new int[ numNodes ];
+    System.arraycopy( offsets, 0, next, 0, numNodes );
+    for ( int i = 0; i < numEdges; ++i )
+    {
+      int weight = edgeWeights[ i ];
+      int forward = next[ sources[ i ] ]++;
+      targets[ forward ] = destinations[ i ];
+      weights[ forward ] = weight;
+      int backward = next[ destinations[ i ] ]++;
+      targets[ backward ] = sources[ i ];
+      weights[ backward ] = weight;
+      minWeight = Math.min( minWeight, weight );
+      maxWeight = Math.max( maxWeight, weight );
+    }
+  }
+
+  /**
+   * Build the graph from the links distributed by the registry,
+   * interning each identifier so that vertex <code>v</code> is the node
+   * <code>nodes.get(v)</code>.
+   *
+   * @param links The weighted links between connections. As a list in
+   *        the format <i>host:port host:port weight</i>
+   * @param nodes The table to intern identifiers into
+   * @return A new graph of the links.
+   */
+  public static Graph fromLinks(String[] links, NodeIndex nodes) {
+    int[] sources = new int[ links.length ];
+    int[] destinations = new int[ links.length ];
+    int[] weights = new int[ links.length ];
+    for ( int i = 0; i < links.length; ++i )
+    {
+      String[] splited = links[ i ].split( "\\s+" );
+      sources[ i ] = nodes.intern( splited[ 0 ] );
+      destinations[ i ] = nodes.intern( splited[ 1 ] );
+      weights[ i ] = Integer.parseInt( splited[ 2 ] );
+    }
+    return new Graph( nodes.size(), sources, destinations, weights );
+  }
+
+  /**
+   * @param source
+   * @param destination
+   * @return The weight of the link between the two vertices, or -1 if
+   *         they are not linked.
+   */
+  public int getWeight(int source, int destination) {
+    for ( int i = offsets[ source ]; i < offsets[ source + 1 ]; ++i )
+    {
+      if ( targets[ i ] == destination )
+      {
+        return weights[ i ];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Change the weight of an existing link in both directions. The
+   * structure of the graph is fixed, so links can not be added.
+   *
+   * @param source
+   * @param destination
+   * @param weight the new weight of the link
+   * @return The previous weight of the link, or -1 if the vertices are
+   *         not linked.
+   */
+  public int setWeight(int source, int destination, int weight) {
+    int previous = -1;
+    for ( int i = offsets[ source ]; i < offsets[ source + 1 ]; ++i )
+    {
+      if ( targets[ i ] == destination )
+      {
+        previous = weights[ i ];
+        weights[ i ] = weight;
+      }
+    }
+    for ( int i = offsets[ destination ]; i < offsets[ destination + 1 ]; ++i )
+    {
+      if ( targets[ i ] == source )
+      {
+        weights[ i ] = weight;
+      }
+    }
+    if ( previous != -1 )
+    {
+      minWeight = Math.min( minWeight, weight );
+      maxWeight = Math.max( maxWeight, weight );
+    }
+    return previous;
+  }
+
+  /**
+   * @return The number of vertices in the graph.
+   */
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @return The start of each vertex's neighbors, with one extra entry
+   *         marking the end of the last vertex.
+   */
+  public int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * @return The neighbor of each directed link.
+   */
+  public int[] getTargets() {
+    return targets;
+  }
+
+  /**
+   * @return The weight of each directed link.
+   */
+  public int[] getWeights() {
+    return weights;
+  }
+
+  /**
+   * @return A lower bound of the link weights, or
+   *         <code>Integer.MAX_VALUE</code> if there are no links.
+   */
+  public int getMinWeight() {
+    return minWeight;
+  }
+
+  /**
+   * @return An upper bound of the link weights, or 0 if there are no
+   *         links.
+   */
+  public int getMaxWeight() {
+    return maxWeight;
+  }
+}
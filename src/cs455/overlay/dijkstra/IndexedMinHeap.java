@@ -0,0 +1,161 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of vertex indices keyed by an <code>int</code>
+ * distance.
+ *
+ * The heap is backed entirely by primitive arrays, and maintains the
+ * position of each vertex so that a key can be decreased in
+ * <i>O(log N)</i> without searching. Ties between equal keys are
+ * broken by the lower vertex index, which matches the order the
+ * linear scan in {@link ShortestPath} selects the nearest vertex.
+ *
+ * @author stock
+ *
+ */
+public class IndexedMinHeap {
+
+  private static final int NOT_IN_HEAP = -1;
+
+  // heap[i] holds the vertex stored at heap slot i
+  private int[] heap;
+
+  // position[v] holds the heap slot of vertex v, or NOT_IN_HEAP
+  private int[] position;
+
+  // keys[v] holds the current key of vertex v
+  private int[] keys;
+
+  private int size;
+
+  /**
+   * Default constructor - create an empty heap able to hold every
+   * vertex in <code>[0, capacity)</code>.
+   *
+   * @param capacity the number of vertices in the graph
+   */
+  public IndexedMinHeap(int capacity) {
+    this.heap = new int[ capacity ];
+    this.position = new int[ capacity ];
+    this.keys = new int[ capacity ];
+    Arrays.fill( position, NOT_IN_HEAP );
+  }
+
+  /**
+   * Remove every vertex from the heap so that it may be reused for
+   * another computation without reallocating.
+   */
+  public void clear() {
+    for ( int i = 0; i < size; ++i )
+    {
+      position[ heap[ i ] ] = NOT_IN_HEAP;
+    }
+    size = 0;
+  }
+
+  /**
+   * @return true if there are no vertices left in the heap, false
+   *         otherwise.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @param vertex
+   * @return true if the vertex is currently queued in the heap.
+   */
+  public boolean contains(int vertex) {
+    return position[ vertex ] != NOT_IN_HEAP;
+  }
+
+  /**
+   * Insert the vertex with the given key, or lower its key if it is
+   * already queued and the new key is smaller.
+   *
+   * @param vertex
+   * @param key
+   */
+  public void insertOrDecrease(int vertex, int key) {
+    if ( position[ vertex ] == NOT_IN_HEAP )
+    {
+      keys[ vertex ] = key;
+      heap[ size ] = vertex;
+      position[ vertex ] = size;
+      siftUp( size++ );
+    } else if ( key < keys[ vertex ] )
+    {
+      keys[ vertex ] = key;
+      siftUp( position[ vertex ] );
+    }
+  }
+
+  /**
+   * Remove and return the vertex with the smallest key.
+   *
+   * @return The index of the vertex with the smallest key.
+   */
+  public int poll() {
+    int min = heap[ 0 ];
+    position[ min ] = NOT_IN_HEAP;
+    if ( --size > 0 )
+    {
+      heap[ 0 ] = heap[ size ];
+      position[ heap[ 0 ] ] = 0;
+      siftDown( 0 );
+    }
+    return min;
+  }
+
+  /**
+   * Compare two vertices by key, and then by index.
+   *
+   * @return true if vertex <code>a</code> should be ahead of vertex
+   *         <code>b</code> in the heap.
+   */
+  private boolean less(int a, int b) {
+    return keys[ a ] < keys[ b ] || ( keys[ a ] == keys[ b ] && a < b );
+  }
+
+  private void siftUp(int slot) {
+    int vertex = heap[ slot ];
+    while ( slot > 0 )
+    {
+      int parent = ( slot - 1 ) >>> 1;
+      if ( !less( vertex, heap[ parent ] ) )
+      {
+        break;
+      }
+      heap[ slot ] = heap[ parent ];
+      position[ heap[ slot ] ] = slot;
+      slot = parent;
+    }
+    heap[ slot ] = vertex;
+    position[ vertex ] = slot;
+  }
+
+  private void siftDown(int slot) {
+    int vertex = heap[ slot ];
+    int half = size >>> 1;
+    while ( slot < half )
+    {
+      int child = 2 * slot + 1;
+      int right = child + 1;
+      if ( right < size && less( heap[ right ], heap[ child ] ) )
+      {
+        child = right;
+      }
+      if ( !less( heap[ child ], vertex ) )
+      {
+        break;
+      }
+      heap[ slot ] = heap[ child ];
+      position[ heap[ slot ] ] = slot;
+      slot = child;
+    }
+    heap[ slot ] = vertex;
+    position[ vertex ] = slot;
+  }
+}
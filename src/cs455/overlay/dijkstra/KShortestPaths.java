@@ -0,0 +1,262 @@
+package cs455.overlay.dijkstra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Compute the <i>k</i> shortest loopless paths between two nodes with
+ * Yen's algorithm.
+ *
+ * The shortest path is found first. Each following path deviates from
+ * an accepted path at some <i>spur</i> node: the nodes before the spur
+ * are removed, as are the links leaving the spur that accepted paths
+ * with the same prefix already take, and the shortest path from the
+ * spur to the sink is appended to the prefix. The cheapest of these
+ * candidates is accepted next.
+ *
+ * Each spur search runs Dijkstra's algorithm with an
+ * {@link IndexedMinHeap} over the shared {@link Graph}, and stops as
+ * soon as the sink is settled. Removed nodes and links are masked
+ * rather than copied out of the graph.
+ *
+ * @author stock
+ *
+ */
+public class KShortestPaths {
+
+  private static final int NO_PARENT = -1;
+
+  private static final int INFINITY = Integer.MAX_VALUE;
+
+  private Graph graph;
+
+  private IndexedMinHeap heap;
+
+  private int[] distances;
+
+  private int[] parents;
+
+  // Nodes and links ( by position in the graph ) removed for a search
+  private boolean[] removedNodes;
+
+  private boolean[] removedLinks;
+
+  /**
+   * A path from the source to the sink, inclusive, with its total
+   * weight.
+   */
+  private static class Path implements Comparable<Path> {
+
+    private int[] nodes;
+
+    private int cost;
+
+    private Path(int[] nodes, int cost) {
+      this.nodes = nodes;
+      this.cost = cost;
+    }
+
+    @Override
+    public int compareTo(Path other) {
+      if ( cost != other.cost )
+      {
+        return Integer.compare( cost, other.cost );
+      }
+      return Integer.compare( nodes.length, other.nodes.length );
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Path
+          && Arrays.equals( nodes, ( ( Path ) other ).nodes );
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode( nodes );
+    }
+  }
+
+  /**
+   * Default constructor - search paths in the given graph. The search
+   * state is allocated once and reused by every call to
+   * {@link #find(int, int, int)}.
+   *
+   * @param graph the overlay built from the link weights
+   */
+  public KShortestPaths(Graph graph) {
+    this.graph = graph;
+    int numNodes = graph.size();
+    this.heap = new IndexedMinHeap( numNodes );
+    this.distances = new int[ numNodes ];
+    this.parents = new int[ numNodes ];
+    this.removedNodes = new boolean[ numNodes ];
+    this.removedLinks = new boolean[ graph.getTargets().length ];
+  }
+
+  /**
+   * Find up to <code>k</code> loopless paths from the source to the
+   * sink, in order of increasing weight.
+   *
+   * @param source index of the nodes self
+   * @param sink index of the end point
+   * @param k the largest number of paths to find
+   * @return The paths, where each excludes the source as in
+   *         {@link ShortestPath#buildPath(int[], int, int)}. There are
+   *         fewer than <code>k</code> if the overlay has no more, and
+   *         none if the sink is unreachable.
+   */
+  public int[][] find(int source, int sink, int k) {
+    List<Path> accepted = new ArrayList<>();
+    PriorityQueue<Path> candidates = new PriorityQueue<>();
+    Set<Path> seen = new HashSet<>();
+
+    Path shortest = search( source, sink, null, 0, 0 );
+    if ( shortest != null )
+    {
+      accepted.add( shortest );
+      seen.add( shortest );
+    }
+    while ( !accepted.isEmpty() && accepted.size() < k )
+    {
+      int[] previous = accepted.get( accepted.size() - 1 ).nodes;
+      int rootCost = 0;
+      for ( int i = 0; i < previous.length - 1; ++i )
+      {
+        int spur = previous[ i ];
+        if ( i > 0 )
+        {
+          rootCost += graph.getWeight( previous[ i - 1 ], spur );
+          removedNodes[ previous[ i - 1 ] ] = true;
+        }
+        setRemovedLinks( accepted, previous, i, true );
+
+        Path candidate = search( spur, sink, previous, i, rootCost );
+        if ( candidate != null && seen.add( candidate ) )
+        {
+          candidates.add( candidate );
+        }
+        setRemovedLinks( accepted, previous, i, false );
+      }
+      for ( int i = 0; i < previous.length; ++i )
+      {
+        removedNodes[ previous[ i ] ] = false;
+      }
+      if ( candidates.isEmpty() )
+      {
+        break;
+      }
+      accepted.add( candidates.poll() );
+    }
+
+    int[][] paths = new int[ accepted.size() ][];
+    for ( int i = 0; i < paths.length; ++i )
+    {
+      int[] nodes = accepted.get( i ).nodes;
+      paths[ i ] = Arrays.copyOfRange( nodes, 1, nodes.length );
+    }
+    return paths;
+  }
+
+  /**
+   * Remove, or restore, the link leaving the spur of every accepted
+   * path that shares the root up to and including the spur.
+   */
+  private void setRemovedLinks(List<Path> accepted, int[] root, int spur,
+      boolean removed) {
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    for ( Path path : accepted )
+    {
+      int[] nodes = path.nodes;
+      if ( nodes.length <= spur + 1 || !Arrays.equals( nodes, 0, spur + 1,
+          root, 0, spur + 1 ) )
+      {
+        continue;
+      }
+      int node = root[ spur ];
+      for ( int i = offsets[ node ]; i < offsets[ node + 1 ]; ++i )
+      {
+        if ( targets[ i ] == nodes[ spur + 1 ] )
+        {
+          removedLinks[ i ] = removed;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the shortest path from the spur to the sink that avoids the
+   * removed nodes and links, and join it to the root before the spur.
+   *
+   * @param spur node the search starts from
+   * @param sink node the search ends at
+   * @param root path from the source through the spur
+   * @param prefix the number of nodes of the root kept before the spur
+   * @param rootCost weight of the root up to the spur
+   * @return The joined path, or null if the sink can not be reached.
+   */
+  private Path search(int spur, int sink, int[] root, int prefix,
+      int rootCost) {
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    Arrays.fill( distances, INFINITY );
+    Arrays.fill( parents, NO_PARENT );
+    heap.clear();
+    distances[ spur ] = 0;
+    heap.insertOrDecrease( spur, 0 );
+
+    while ( !heap.isEmpty() )
+    {
+      int nearestVertex = heap.poll();
+      if ( nearestVertex == sink )
+      {
+        break;
+      }
+      for ( int i = offsets[ nearestVertex ]; i < offsets[ nearestVertex
+          + 1 ]; i++ )
+      {
+        int vertex = targets[ i ];
+        if ( removedLinks[ i ] || removedNodes[ vertex ] )
+        {
+          continue;
+        }
+        int distance = distances[ nearestVertex ] + weights[ i ];
+        if ( distance < distances[ vertex ] )
+        {
+          distances[ vertex ] = distance;
+          parents[ vertex ] = nearestVertex;
+          heap.insertOrDecrease( vertex, distance );
+        }
+      }
+    }
+    if ( distances[ sink ] == INFINITY )
+    {
+      return null;
+    }
+
+    int length = prefix + 1;
+    for ( int node = sink; node != spur; node = parents[ node ] )
+    {
+      ++length;
+    }
+    int[] nodes = new int[ length ];
+    if ( prefix > 0 )
+    {
+      System.arraycopy( root, 0, nodes, 0, prefix );
+    }
+    int node = sink;
+    for ( int i = length - 1; i >= prefix; --i )
+    {
+      nodes[ i ] = node;
+      node = parents[ node ];
+    }
+    return new Path( nodes, rootCost + distances[ sink ] );
+  }
+}
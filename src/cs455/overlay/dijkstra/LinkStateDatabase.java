@@ -0,0 +1,311 @@
+package cs455.overlay.dijkstra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import cs455.overlay.wireformats.LinkStateAdvertisement;
+import cs455.overlay.wireformats.LinkWeights;
+
+/**
+ * The links of the overlay as learned from the
+ * {@link LinkStateAdvertisement} flooded by every messaging node, so
+ * that no node depends on the registry for more than the weights of
+ * its own links.
+ *
+ * An advertisement is installed only if its sequence number is newer
+ * than the last one from the same origin, and only then forwarded, so
+ * duplicates arriving over other links are dropped. The weight of a
+ * link is taken from the newest advertisement that has it, from either
+ * end.
+ *
+ * Changes are collected until they are taken with
+ * {@link #takeChanges()}. Once the structure of the overlay is known,
+ * a changed weight may be applied to a {@link RoutingCache} with
+ * {@link RoutingCache#updateLinkWeight(String, String, int)}, and only
+ * the affected routes are repaired. Links are never removed, as the
+ * overlay does not change once it is set up.
+ *
+ * A node that restarts continues its sequence numbers from
+ * {@link #resume(int)}, as its neighbors would drop advertisements
+ * numbered from 1 again as out of date. An advertisement of this node
+ * newer than its own, from an instance before it restarted, is
+ * superseded with {@link #supersede(LinkStateAdvertisement)}. The
+ * neighbors send it the advertisements of every origin with
+ * {@link #getAdvertisements()} once it connects again.
+ *
+ * @author stock
+ *
+ */
+public class LinkStateDatabase {
+
+  /**
+   * The milliseconds to hold installed advertisements before the routes
+   * are rebuilt, so that a burst of advertisements, such as when every
+   * node first floods its links, is applied at once.
+   */
+  public static final long REBUILD_DELAY = 50;
+
+  private String self;
+
+  // The newest advertisement from each origin
+  private Map<String, LinkStateAdvertisement> advertisements =
+      new HashMap<>();
+
+  // The weight of each link, keyed by its ends in order
+  private Map<String, Integer> links = new LinkedHashMap<>();
+
+  // The links of this node, as the advertisement it originates
+  private LinkStateAdvertisement advertisement;
+
+  // The sequence number of the last advertisement of this node
+  private int sequence;
+
+  private List<String> changes = new ArrayList<>();
+
+  private boolean linksAdded;
+
+  /**
+   * Default constructor - an empty database for a messaging node.
+   *
+   * @param self host:port of calling messaging node
+   */
+  public LinkStateDatabase(String self) {
+    this.self = self;
+  }
+
+  /**
+   * Originate the first advertisement of this node from the weights of
+   * its own links.
+   *
+   * @param linkWeights the links of this node, as sent by the registry;
+   *        links without this node are ignored
+   * @return The advertisement to flood to every neighbor.
+   */
+  public synchronized LinkStateAdvertisement originate(
+      LinkWeights linkWeights) {
+    List<String> neighbors = new ArrayList<>();
+    List<Integer> weights = new ArrayList<>();
+    for ( String link : linkWeights.getLinks() )
+    {
+      String peer = LinkWeights.getPeer( link, self );
+      if ( peer != null )
+      {
+        neighbors.add( peer );
+        weights.add( Integer.parseInt( link.split( "\\s+" )[ 2 ] ) );
+      }
+    }
+    int[] values = new int[ weights.size() ];
+    for ( int i = 0; i < values.length; ++i )
+    {
+      values[ i ] = weights.get( i );
+    }
+    advertisement = new LinkStateAdvertisement( self, ++sequence,
+        neighbors.toArray( new String[ 0 ] ), values );
+    install( advertisement );
+    return advertisement;
+  }
+
+  /**
+   * Originate a new advertisement of this node after the weight of one
+   * of its links has changed.
+   *
+   * @param peer host:port of the neighbor
+   * @param weight the new weight of the link
+   * @return The advertisement to flood to every neighbor, or null if
+   *         the peer is not a neighbor or no advertisement has been
+   *         originated yet.
+   */
+  public synchronized LinkStateAdvertisement originate(String peer,
+      int weight) {
+    if ( advertisement == null )
+    {
+      return null;
+    }
+    String[] neighbors = advertisement.getNeighbors();
+    int[] weights = advertisement.getWeights().clone();
+    boolean found = false;
+    for ( int i = 0; i < neighbors.length; ++i )
+    {
+      if ( neighbors[ i ].equals( peer ) )
+      {
+        weights[ i ] = weight;
+        found = true;
+      }
+    }
+    if ( !found )
+    {
+      return null;
+    }
+    advertisement = new LinkStateAdvertisement( self, ++sequence,
+        neighbors, weights );
+    install( advertisement );
+    return advertisement;
+  }
+
+  /**
+   * Continue the sequence numbers of this node after those of an
+   * earlier instance, such as one restored from a routing snapshot.
+   *
+   * @param sequence of the last advertisement of the earlier instance
+   */
+  public synchronized void resume(int sequence) {
+    this.sequence = Math.max( this.sequence, sequence );
+  }
+
+  /**
+   * Supersede an advertisement of this node that is newer than its own,
+   * as sent before this node restarted.
+   *
+   * An advertisement with the same sequence as the current one is only
+   * superseded if its links differ, as it is otherwise the current one
+   * flooded back to this node.
+   *
+   * @param lsa the advertisement received from a neighbor
+   * @return A new advertisement of the current links to flood to every
+   *         neighbor, or null if the advertisement is not from this
+   *         node or not newer. If this node has not originated yet, the
+   *         sequence is continued and null is returned.
+   */
+  public synchronized LinkStateAdvertisement supersede(
+      LinkStateAdvertisement lsa) {
+    if ( !lsa.getOrigin().equals( self ) || lsa.getSequence() < sequence
+        || ( lsa.getSequence() == sequence && advertisement != null
+            && Arrays.equals( lsa.getNeighbors(),
+                advertisement.getNeighbors() )
+            && Arrays.equals( lsa.getWeights(),
+                advertisement.getWeights() ) ) )
+    {
+      return null;
+    }
+    sequence = lsa.getSequence();
+    if ( advertisement == null )
+    {
+      return null;
+    }
+    advertisement = new LinkStateAdvertisement( self, ++sequence,
+        advertisement.getNeighbors(), advertisement.getWeights() );
+    install( advertisement );
+    return advertisement;
+  }
+
+  /**
+   * Install an advertisement if it is newer than the last one from its
+   * origin. Advertisements of this node are only installed as it
+   * originates them.
+   *
+   * @param lsa the advertisement received from a neighbor
+   * @return true if it was installed and should be forwarded, false if
+   *         it is a duplicate or out of date.
+   */
+  public synchronized boolean install(LinkStateAdvertisement lsa) {
+    LinkStateAdvertisement newest = advertisements.get( lsa.getOrigin() );
+    if ( ( newest != null && newest.getSequence() >= lsa.getSequence() )
+        || ( lsa.getOrigin().equals( self ) && lsa != advertisement ) )
+    {
+      return false;
+    }
+    advertisements.put( lsa.getOrigin(), lsa );
+    String[] neighbors = lsa.getNeighbors();
+    int[] weights = lsa.getWeights();
+    for ( int i = 0; i < neighbors.length; ++i )
+    {
+      String origin = lsa.getOrigin();
+      String key = origin.compareTo( neighbors[ i ] ) < 0
+          ? origin + " " + neighbors[ i ] : neighbors[ i ] + " " + origin;
+      Integer previous = links.put( key, weights[ i ] );
+      if ( previous == null )
+      {
+        linksAdded = true;
+      } else if ( previous != weights[ i ] )
+      {
+        changes.add( key + " " + Integer.toString( weights[ i ] ) );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if this node has originated its advertisement, so its
+   *         routes may be computed.
+   */
+  public synchronized boolean hasOriginated() {
+    return advertisement != null;
+  }
+
+  /**
+   * @return The sequence number of the last advertisement of this node,
+   *         or 0 if it has not originated one.
+   */
+  public synchronized int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @param peer host:port of the neighbor
+   * @return The weight of the link to the neighbor, or
+   *         {@link DistanceVectorTable#UNKNOWN_WEIGHT} if it is not a
+   *         neighbor or this node has not originated.
+   */
+  public synchronized int getLinkWeight(String peer) {
+    if ( advertisement != null )
+    {
+      String[] neighbors = advertisement.getNeighbors();
+      for ( int i = 0; i < neighbors.length; ++i )
+      {
+        if ( neighbors[ i ].equals( peer ) )
+        {
+          return advertisement.getWeights()[ i ];
+        }
+      }
+    }
+    return DistanceVectorTable.UNKNOWN_WEIGHT;
+  }
+
+  /**
+   * @return The newest advertisement from every origin, to send to a
+   *         neighbor that connects again.
+   */
+  public synchronized List<LinkStateAdvertisement> getAdvertisements() {
+    return new ArrayList<>( advertisements.values() );
+  }
+
+  /**
+   * Take the changes since the last call.
+   *
+   * @return The changed links, of the form <b>host:port host:port
+   *         weight</b>, or null if links have been added and the routes
+   *         must be rebuilt from {@link #getLinkWeights()}.
+   */
+  public synchronized String[] takeChanges() {
+    boolean rebuild = linksAdded;
+    String[] changed = changes.toArray( new String[ 0 ] );
+    linksAdded = false;
+    changes.clear();
+    return rebuild ? null : changed;
+  }
+
+  /**
+   * @return Every link learned so far, in the same form as the link
+   *         weights sent by the registry.
+   */
+  public synchronized LinkWeights getLinkWeights() {
+    String[] all = new String[ links.size() ];
+    int index = 0;
+    for ( Map.Entry<String, Integer> link : links.entrySet() )
+    {
+      all[ index++ ] =
+          link.getKey() + " " + Integer.toString( link.getValue() );
+    }
+    return new LinkWeights( all );
+  }
+
+  /**
+   * @return The number of nodes that have advertised their links.
+   */
+  public synchronized int numOrigins() {
+    return advertisements.size();
+  }
+}
@@ -0,0 +1,85 @@
+package cs455.overlay.dijkstra;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compute the next hop tables for a range of sources on a fork/join
+ * pool.
+ *
+ * The range is split in half until it is small enough, and each
+ * source then runs its own shortest path computation over the shared
+ * {@link Graph}. Tables are handed to a {@link Listener} as soon as
+ * they are complete rather than collected, so only one table per
+ * worker thread is held at a time.
+ *
+ * @author stock
+ *
+ */
+public class NextHopTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Receives the next hop table for each source. This is called
+   * concurrently from the threads of the pool.
+   */
+  public interface Listener {
+
+    /**
+     * @param source index of the node the table is for
+     * @param nextHops index of the neighbor to forward to for each node
+     */
+    public void onNextHops(int source, int[] nextHops);
+  }
+
+  /**
+   * The number of sources below which the range is no longer split.
+   */
+  private static final int THRESHOLD = 4;
+
+  private transient Graph graph;
+
+  private int low;
+
+  private int high;
+
+  private transient Listener listener;
+
+  /**
+   * Default constructor - compute the tables for the sources in
+   * <code>[low, high)</code>.
+   *
+   * @param graph the overlay shared by every source
+   * @param low first source, inclusive
+   * @param high last source, exclusive
+   * @param listener receives each table
+   */
+  public NextHopTask(Graph graph, int low, int high, Listener listener) {
+    this.graph = graph;
+    this.low = low;
+    this.high = high;
+    this.listener = listener;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void compute() {
+    if ( high - low <= THRESHOLD )
+    {
+      ShortestPath shortestPath =
+          new ShortestPath( ShortestPath.Engine.BUCKET, graph );
+      for ( int source = low; source < high; ++source )
+      {
+        int[] parents = shortestPath.dijkstra( source );
+        listener.onNextHops( source,
+            ShortestPath.nextHops( parents, source ) );
+      }
+      return;
+    }
+    int middle = ( low + high ) >>> 1;
+    invokeAll( new NextHopTask( graph, low, middle, listener ),
+        new NextHopTask( graph, middle, high, listener ) );
+  }
+}
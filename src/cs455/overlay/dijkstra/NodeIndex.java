@@ -0,0 +1,113 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interning table between the <b>host:port</b> identifier of each
+ * messaging node and a dense integer index.
+ *
+ * Indices are assigned in the order identifiers are first interned,
+ * starting at 0, so every node that interns the same link weights
+ * derives the same table. Both directions are <i>O(1)</i>, allowing the
+ * routing pipeline to work with <code>int</code> vertices and only
+ * convert back to identifiers at the edges.
+ *
+ * The nodes of a {@link RoutingSnapshot} are instead looked up in its
+ * mapped file, see {@link RoutingSnapshot#getNodes()}.
+ *
+ * @author stock
+ *
+ */
+public class NodeIndex {
+
+  /**
+   * Returned by {@link #indexOf(String)} for unknown identifiers.
+   */
+  public static final int UNKNOWN = -1;
+
+  private Map<String, Integer> indices;
+
+  private String[] identifiers;
+
+  private int size;
+
+  /**
+   * Default constructor - create an empty table.
+   */
+  public NodeIndex() {
+    this.indices = new HashMap<>();
+    this.identifiers = new String[ 16 ];
+  }
+
+  /**
+   * Create the dictionary of nodes shared by the overlay, where the
+   * identifiers are interned in sorted order so every node derives the
+   * same table from the same set of nodes, in any order.
+   *
+   * @param identifiers host:port of every messaging node
+   * @return A table of the identifiers.
+   */
+  public static NodeIndex sorted(String[] identifiers) {
+    String[] sorted = identifiers.clone();
+    Arrays.sort( sorted );
+    NodeIndex index = new NodeIndex();
+    for ( String identifier : sorted )
+    {
+      index.intern( identifier );
+    }
+    return index;
+  }
+
+  /**
+   * Retrieve the index for an identifier, assigning the next index if
+   * it has not been seen before.
+   *
+   * @param identifier host:port of a messaging node
+   * @return The index of the identifier.
+   */
+  public int intern(String identifier) {
+    Integer index = indices.get( identifier );
+    if ( index != null )
+    {
+      return index;
+    }
+    if ( size == identifiers.length )
+    {
+      identifiers = Arrays.copyOf( identifiers, 2 * size );
+    }
+    identifiers[ size ] = identifier;
+    indices.put( identifier, size );
+    return size++;
+  }
+
+  /**
+   * @param identifier host:port of a messaging node
+   * @return The index of the identifier, or {@link #UNKNOWN} if it has
+   *         not been interned.
+   */
+  public int indexOf(String identifier) {
+    Integer index = indices.get( identifier );
+    return index == null ? UNKNOWN : index;
+  }
+
+  /**
+   * @param index
+   * @return The host:port identifier for the index.
+   */
+  public String get(int index) throws ArrayIndexOutOfBoundsException {
+    if ( index >= size )
+    {
+      throw new ArrayIndexOutOfBoundsException( index );
+    }
+    return identifiers[ index ];
+  }
+
+  /**
+   * @return The number of interned identifiers.
+   */
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,70 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Arrays;
+
+/**
+ * The routes from a source to every node of the overlay, packed into
+ * two primitive arrays.
+ *
+ * The route to sink <code>v</code> is held in <code>hops</code> from
+ * <code>offsets[v]</code> up to <code>offsets[v + 1]</code>, excluding
+ * the source itself. The table is built by
+ * {@link ShortestPath#buildAllPaths(int[], int)}.
+ *
+ * The same layout holds the equal-cost next hops to each sink, as built
+ * by {@link ShortestPath#equalCostNextHops(Graph, int[], int)}.
+ *
+ * @author stock
+ *
+ */
+public class RouteTable {
+
+  private int[] offsets;
+
+  private int[] hops;
+
+  /**
+   * Default constructor - wrap already packed routes.
+   *
+   * @param offsets start of each route, with one extra entry marking the
+   *        end of the last route
+   * @param hops the indices of every route, back to back
+   */
+  public RouteTable(int[] offsets, int[] hops) {
+    this.offsets = offsets;
+    this.hops = hops;
+  }
+
+  /**
+   * @return The number of routes in the table.
+   */
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * @param sink
+   * @return The number of hops from the source to the sink.
+   */
+  public int getLength(int sink) {
+    return offsets[ sink + 1 ] - offsets[ sink ];
+  }
+
+  /**
+   * @param sink
+   * @param index position along the route, starting at 0 for the first
+   *        hop after the source
+   * @return The index of the node at that position.
+   */
+  public int getHop(int sink, int index) {
+    return hops[ offsets[ sink ] + index ];
+  }
+
+  /**
+   * @param sink
+   * @return A copy of the route from the source to the sink.
+   */
+  public int[] getRoute(int sink) {
+    return Arrays.copyOfRange( hops, offsets[ sink ], offsets[ sink + 1 ] );
+  }
+}
@@ -1,8 +1,16 @@
 package cs455.overlay.dijkstra;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import cs455.overlay.util.Configuration;
 import cs455.overlay.wireformats.LinkWeights;
+import cs455.overlay.wireformats.RoutingTable;
 
 /**
  * Contains the <code>routes</code> for the each node that
@@ -10,19 +18,125 @@ import cs455.overlay.wireformats.LinkWeights;
  * 
  * In order to get the routing cache for a node, the link weights need
  * to be supplied to each of the nodes in the overlay. From here, the
- * shortest bath can be built.
+ * shortest bath can be built. Only the parents of the shortest path
+ * tree are kept, and the route to a sink is built the first time it is
+ * requested. A bounded number of recently used routes are held as
+ * <code>int[]</code> of indices into a {@link NodeIndex}, and only
+ * converted to host:port identifiers when requested.
+ * 
+ * In the {@link Mode#NEXT_HOP} mode only the first hop of each route
+ * is kept, and messages are forwarded hop-by-hop by looking up the
+ * sink at every node. The next hops may also be computed by the
+ * registry for every node at once, see
+ * {@link #buildNextHopTables(Graph, ForkJoinPool, NextHopTask.Listener)},
+ * and delivered as a {@link RoutingTable}.
+ * 
+ * The {@link Mode#ECMP} mode also forwards hop-by-hop, but keeps every
+ * neighbor that lies on a shortest path to each sink. As link weights
+ * only take a few values, many sinks have several equal-cost paths, and
+ * messages are spread across them per flow or round-robin.
+ * 
+ * Alternate routes to each sink may also be held in the
+ * {@link Mode#SOURCE} mode, so a node can switch to a backup route when
+ * the first hop of the shortest one is congested or down, see
+ * {@link #getRoute(String, String)}.
+ * 
+ * When built from the link weights, the weight of a link may later be
+ * changed with {@link #updateLinkWeight(String, String, int)}, and only
+ * the affected part of the shortest path tree is recomputed.
+ * 
+ * The routes may be saved to a {@link RoutingSnapshot} file, and
+ * restored from it when the node restarts. The parents, next hops and
+ * identifiers of restored routes are read from the mapped file rather
+ * than copied, so they are held as {@link IntBuffer} views, which wrap
+ * the arrays of routes that are computed.
  * 
  * @author stock
  *
  */
 public class RoutingCache {
 
-  private Map<String, String[]> routes;
+  /**
+   * How routes are held and messages are forwarded.
+   */
+  public enum Mode {
+    SOURCE, NEXT_HOP, ECMP
+  }
 
-  private String self;
+  /**
+   * How one of several equal-cost next hops is chosen in the
+   * {@link Mode#ECMP} mode.
+   */
+  public enum Selection {
+    HASH, ROUND_ROBIN
+  }
+
+  /**
+   * The number of routes held when
+   * {@link Configuration#ROUTE_CACHE_SIZE} is not set.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 256;
+
+  /**
+   * The fewest directed links to compute in parallel when
+   * {@link Configuration#PARALLEL_LINKS} is not set.
+   */
+  public static final int DEFAULT_PARALLEL_LINKS = 1000000;
+
+  /**
+   * The fraction of the <i>N&sup2;</i> directed links an overlay must
+   * have for the next hop tables of every node to be computed with
+   * {@link FloydWarshall} rather than a shortest path tree per source.
+   */
+  public static final double DENSE_LINKS = 0.5;
+
+  /**
+   * The most nodes for which the <i>N&sup2;</i> matrices of
+   * {@link FloydWarshall} are allocated.
+   */
+  public static final int MAX_MATRIX_NODES = 4096;
+
+  private Mode mode;
+
+  // Repairs the shortest path tree as link weights change, when the
+  // routes are computed from the link weights
+  private DynamicShortestPath dynamicPath;
+
+  // The parent of each node in the shortest path tree, updated in place
+  // by the dynamic path
+  private IntBuffer parents;
+
+  // The most recently used routes, keyed by sink, in the SOURCE mode.
+  // Each sink holds its shortest route first, followed by any
+  // alternates in order of weight
+  private Map<Integer, int[][]> routes;
+
+  // Finds the alternate routes, when more than one is held per sink
+  private KShortestPaths kShortestPaths;
+
+  private int numPaths;
+
+  // Answers queries between any two nodes, built on the first query
+  private ContractionHierarchy hierarchy;
+
+  // The neighbor to forward to for each sink, replaced as a whole when
+  // a link weight changes
+  private volatile IntBuffer nextHops;
+
+  // Every neighbor on a shortest path to each sink, in the ECMP mode
+  private volatile RouteTable multipath;
+
+  private Selection selection;
+
+  // The next of the equal-cost hops to use for each sink, when selected
+  // round-robin
+  private AtomicIntegerArray cursors;
 
-  // List of total connections in the overlay
-  private String[] connections;
+  private int selfIndex;
+
+  private NodeIndex nodes;
+
+  private String self;
 
   /**
    * Default constructor - create the routes from this instance to every
@@ -32,10 +146,165 @@ public class RoutingCache {
    * @param self host:port of calling messaging node
    */
   public RoutingCache(LinkWeights linkWeights, String self) {
+    this( linkWeights, self, Mode.SOURCE );
+  }
+
+  /**
+   * Constructor - create the routes, or next hops, from this instance
+   * to every other node.
+   * 
+   * @param linkWeights weights distributed from the registry
+   * @param self host:port of calling messaging node
+   * @param mode how the routes should be held
+   */
+  public RoutingCache(LinkWeights linkWeights, String self, Mode mode) {
+    this.self = self;
+    this.mode = mode;
+    this.nodes = new NodeIndex();
+    Graph graph = Graph.fromLinks( linkWeights.getLinks(), nodes );
+    this.dynamicPath = new DynamicShortestPath( graph, nodes.indexOf( self ),
+        ShortestPath.selectEngine( graph, Configuration
+            .getInt( Configuration.PARALLEL_LINKS, DEFAULT_PARALLEL_LINKS ) ) );
+    this.parents = IntBuffer.wrap( dynamicPath.getParents() );
+    this.nextHops = IntBuffer.wrap( ShortestPath
+        .nextHops( dynamicPath.getParents(), nodes.indexOf( self ) ) );
+    if ( mode == Mode.ECMP )
+    {
+      this.multipath = ShortestPath.equalCostNextHops( graph,
+          dynamicPath.getDistances(), nodes.indexOf( self ) );
+      this.selection = Configuration
+          .get( Configuration.ECMP_SELECTION, "hash" ).equals( "round-robin" )
+              ? Selection.ROUND_ROBIN : Selection.HASH;
+      this.cursors = new AtomicIntegerArray( nodes.size() );
+    } else if ( mode == Mode.SOURCE )
+    {
+      this.routes = createRoutes();
+      this.numPaths = Configuration.getInt( Configuration.ROUTE_PATHS, 1 );
+      if ( numPaths > 1 )
+      {
+        this.kShortestPaths = new KShortestPaths( graph );
+      }
+    }
+
+    this.selfIndex = nodes.indexOf( self );
+  }
+
+  /**
+   * Constructor - hold the next hops precomputed by the registry for
+   * this instance, in the {@link Mode#NEXT_HOP} mode.
+   * 
+   * @param table next hops distributed from the registry
+   * @param self host:port of calling messaging node
+   */
+  public RoutingCache(RoutingTable table, String self) {
     this.self = self;
-    this.routes = new HashMap<>();
-    ( new ShortestPath() ).buildShortestPath( routes, linkWeights, self );
-    this.connections = routes.keySet().toArray( new String[ routes.size() ] );
+    this.mode = Mode.NEXT_HOP;
+    this.nodes = new NodeIndex();
+    for ( String node : table.getNodes() )
+    {
+      nodes.intern( node );
+    }
+    this.nextHops = IntBuffer.wrap( table.getNextHops() );
+    this.selfIndex = nodes.indexOf( self );
+  }
+
+  /**
+   * Constructor - restore the routes of this instance from a snapshot
+   * written by {@link #save(Path, Map, int, NodeIndex)}, so that
+   * messages may be forwarded before the link weights are distributed
+   * again. The restored routes can not be updated with
+   * {@link #updateLinkWeight(String, String, int)}, and only the
+   * shortest route, or a single next hop, is held to each sink.
+   * 
+   * @param snapshot routes of this instance before it restarted
+   */
+  public RoutingCache(RoutingSnapshot snapshot) {
+    this.mode = snapshot.getMode();
+    this.nodes = snapshot.getNodes();
+    this.selfIndex = snapshot.getSelf();
+    this.self = nodes.get( selfIndex );
+    this.nextHops = snapshot.getNextHops();
+    if ( mode == Mode.SOURCE )
+    {
+      this.parents = snapshot.getParents();
+      this.routes = createRoutes();
+    }
+  }
+
+  /**
+   * Write the routes of this instance to a {@link RoutingSnapshot}.
+   * 
+   * @param file destination of the snapshot
+   * @param neighbors host:port of each neighbor of this node, and the
+   *        weight of the link to it, which are stored with the routes
+   * @param sequence of the last link state advertisement of this node,
+   *        or 0 if it has not originated one
+   * @param dictionary of the nodes sent with the link weights, or null
+   *        if it has not been received
+   * @throws IOException if the snapshot can not be written
+   */
+  public synchronized void save(Path file, Map<String, Integer> neighbors,
+      int sequence, NodeIndex dictionary) throws IOException {
+    int[] indices = new int[ neighbors.size() ];
+    int[] weights = new int[ neighbors.size() ];
+    int count = 0;
+    for ( Map.Entry<String, Integer> neighbor : neighbors.entrySet() )
+    {
+      int index = nodes.indexOf( neighbor.getKey() );
+      if ( index != NodeIndex.UNKNOWN && count < indices.length )
+      {
+        weights[ count ] = neighbor.getValue();
+        indices[ count++ ] = index;
+      }
+    }
+    RoutingSnapshot.write( file, mode, nodes, selfIndex, parents, nextHops,
+        Arrays.copyOf( indices, count ), weights, sequence, dictionary );
+  }
+
+  /**
+   * @return An empty map of the most recently used routes, bounded by
+   *         {@link Configuration#ROUTE_CACHE_SIZE}.
+   */
+  private static Map<Integer, int[][]> createRoutes() {
+    final int capacity = Configuration
+        .getInt( Configuration.ROUTE_CACHE_SIZE, DEFAULT_CACHE_SIZE );
+    return new LinkedHashMap<Integer, int[][]>( 16, 0.75f, true ) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<Integer, int[][]> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Compute the next hop table from every node in the overlay to every
+   * other. Each table is handed to the listener as it completes.
+   * 
+   * Sparse overlays run one shortest path computation per source spread
+   * across the pool. Overlays with at least {@link #DENSE_LINKS} of the
+   * possible links, and at most {@link #MAX_MATRIX_NODES} nodes, are
+   * instead computed all at once with {@link FloydWarshall}.
+   * 
+   * @param graph the overlay built from the link weights
+   * @param pool the threads to compute on
+   * @param listener receives the table for each source
+   */
+  public static void buildNextHopTables(Graph graph, ForkJoinPool pool,
+      NextHopTask.Listener listener) {
+    long numNodes = graph.size();
+    if ( numNodes <= MAX_MATRIX_NODES
+        && graph.getTargets().length >= DENSE_LINKS * numNodes * numNodes )
+    {
+      FloydWarshall floydWarshall = new FloydWarshall( graph );
+      floydWarshall.compute( pool );
+      floydWarshall.forEachSource( listener );
+      return;
+    }
+    pool.invoke( new NextHopTask( graph, 0, graph.size(), listener ) );
   }
 
   /**
@@ -44,11 +313,205 @@ public class RoutingCache {
    * identifier of where to traverse to next.
    * 
    * @param sinkNode Location of the end point
-   * @return A <code>String[]</code> from the given sinkNode
+   * @return A <code>String[]</code> from the given sinkNode, or null if
+   *         the sink is unknown or only next hops are held.
    */
   public String[] getRoute(String sinkNode)
       throws NullPointerException, ClassCastException {
-    return routes.get( sinkNode );
+    return getRoute( sinkNode, null );
+  }
+
+  /**
+   * Retrieve the shortest route to the <i>sink</i> node whose first hop
+   * is not the given neighbor, such as when it is congested or down.
+   * 
+   * When {@link Configuration#ROUTE_PATHS} is more than one, the
+   * alternate routes to a sink are found with {@link KShortestPaths}
+   * the first time it is requested, and held with the shortest route.
+   * Switching to an alternate is then only a scan of the few routes
+   * held for the sink.
+   * 
+   * @param sinkNode Location of the end point
+   * @param avoid host:port of the neighbor to avoid, or null
+   * @return A <code>String[]</code> from the given sinkNode, which is
+   *         the shortest route if every route starts at the avoided
+   *         neighbor, or null if the sink is unknown or only next hops
+   *         are held.
+   */
+  public String[] getRoute(String sinkNode, String avoid) {
+    int sink = nodes.indexOf( sinkNode );
+    if ( sink == NodeIndex.UNKNOWN || mode != Mode.SOURCE )
+    {
+      return null;
+    }
+    int avoided = avoid == null ? NodeIndex.UNKNOWN : nodes.indexOf( avoid );
+    int[] route;
+    synchronized ( this )
+    {
+      int[][] candidates = routes.get( sink );
+      if ( candidates == null )
+      {
+        candidates = kShortestPaths == null ? null
+            : kShortestPaths.find( selfIndex, sink, numPaths );
+        if ( candidates == null || candidates.length == 0 )
+        {
+          candidates = new int[][] {
+              buildPath( parents, selfIndex, sink ) };
+        }
+        routes.put( sink, candidates );
+      }
+      route = candidates[ 0 ];
+      if ( avoided != NodeIndex.UNKNOWN )
+      {
+        for ( int[] candidate : candidates )
+        {
+          if ( candidate.length > 0 && candidate[ 0 ] != avoided )
+          {
+            route = candidate;
+            break;
+          }
+        }
+      }
+    }
+    String[] addresses = new String[ route.length ];
+    for ( int i = 0; i < route.length; ++i )
+    {
+      addresses[ i ] = nodes.get( route[ i ] );
+    }
+    return addresses;
+  }
+
+  /**
+   * Change the weight of a link in the overlay, and repair the routes
+   * that pass through it rather than recomputing them all. Routes that
+   * have been materialized are discarded, and rebuilt on their next
+   * request.
+   * 
+   * @param source host:port of one end of the link
+   * @param destination host:port of the other end of the link
+   * @param weight the new weight of the link
+   * @return true if the routes were updated, false if the link is not
+   *         in the overlay or the routes were computed by the registry.
+   */
+  public synchronized boolean updateLinkWeight(String source,
+      String destination, int weight) {
+    int u = nodes.indexOf( source );
+    int v = nodes.indexOf( destination );
+    if ( dynamicPath == null || u == NodeIndex.UNKNOWN
+        || v == NodeIndex.UNKNOWN )
+    {
+      return false;
+    }
+    if ( !dynamicPath.updateWeight( u, v, weight ) )
+    {
+      return false;
+    }
+    this.nextHops = IntBuffer.wrap(
+        ShortestPath.nextHops( dynamicPath.getParents(), selfIndex ) );
+    this.hierarchy = null;
+    if ( multipath != null )
+    {
+      this.multipath = ShortestPath.equalCostNextHops(
+          dynamicPath.getGraph(), dynamicPath.getDistances(), selfIndex );
+    }
+    if ( routes != null )
+    {
+      routes.clear();
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the neighbor that messages to the <i>sink</i> node should
+   * be forwarded to.
+   * 
+   * @param sinkNode Location of the end point
+   * @return The host:port identifier of the next hop, or null if the
+   *         sink is unknown, unreachable, or this node.
+   */
+  public String getNextHop(String sinkNode) {
+    int sink = nodes.indexOf( sinkNode );
+    if ( sink == NodeIndex.UNKNOWN )
+    {
+      return null;
+    }
+    int hop = nextHops.get( sink );
+    return hop == ShortestPath.NO_HOP ? null : nodes.get( hop );
+  }
+
+  /**
+   * Retrieve the neighbor that messages of a flow to the <i>sink</i>
+   * node should be forwarded to. In the {@link Mode#ECMP} mode, one of
+   * the equal-cost next hops is chosen either by hashing the flow with
+   * this node, so every message of a flow takes the same path, or
+   * round-robin per sink. Otherwise, this is the same as
+   * {@link #getNextHop(String)}.
+   * 
+   * @param sinkNode Location of the end point
+   * @param flow identifier shared by related messages
+   * @return The host:port identifier of the next hop, or null if the
+   *         sink is unknown, unreachable, or this node.
+   */
+  public String getNextHop(String sinkNode, int flow) {
+    RouteTable table = multipath;
+    int sink = nodes.indexOf( sinkNode );
+    if ( table == null || sink == NodeIndex.UNKNOWN )
+    {
+      return getNextHop( sinkNode );
+    }
+    int length = table.getLength( sink );
+    if ( length == 0 )
+    {
+      return null;
+    }
+    int choice = 0;
+    if ( length > 1 )
+    {
+      choice = selection == Selection.ROUND_ROBIN
+          ? Math.floorMod( cursors.getAndIncrement( sink ), length )
+          : Math.floorMod( mix( flow, selfIndex ), length );
+    }
+    return nodes.get( table.getHop( sink, choice ) );
+  }
+
+  /**
+   * @param sinkNode Location of the end point
+   * @return The number of equal-cost next hops to the sink, which is at
+   *         most one outside of the {@link Mode#ECMP} mode.
+   */
+  public int numNextHops(String sinkNode) {
+    RouteTable table = multipath;
+    int sink = nodes.indexOf( sinkNode );
+    if ( sink == NodeIndex.UNKNOWN )
+    {
+      return 0;
+    }
+    if ( table == null )
+    {
+      return nextHops.get( sink ) == ShortestPath.NO_HOP ? 0 : 1;
+    }
+    return table.getLength( sink );
+  }
+
+  /**
+   * Combine the flow with this node so successive hops of a flow make
+   * independent choices, rather than all favoring the same index.
+   */
+  private static int mix(int flow, int node) {
+    int h = flow ^ ( node * 0x9E3779B9 );
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * @return How the routes are held and messages are forwarded.
+   */
+  public Mode getMode() {
+    return mode;
   }
 
   /**
@@ -61,7 +524,19 @@ public class RoutingCache {
    */
   public String getConnection(int index)
       throws ArrayIndexOutOfBoundsException, NullPointerException {
-    return connections[ index ];
+    return nodes.get( sinkAt( index ) );
+  }
+
+  /**
+   * @return The index of the node at the position among every node
+   *         other than self.
+   */
+  private int sinkAt(int index) throws ArrayIndexOutOfBoundsException {
+    if ( index < 0 || index >= numConnection() )
+    {
+      throw new ArrayIndexOutOfBoundsException( index );
+    }
+    return index < selfIndex ? index : index + 1;
   }
 
   /**
@@ -70,33 +545,192 @@ public class RoutingCache {
    * @return An integer of the total number of connections.
    */
   public int numConnection() throws NullPointerException {
-    return connections.length;
+    return nodes.size() - 1;
   }
 
   /**
    * Each messaging node will hold its out routing cache. This method
    * will assist in formatting the <code>routes</code> computed. the
-   * link weights are required to retrieve the original weights.
+   * link weights are required to retrieve the original weights. In the
+   * {@link Mode#NEXT_HOP} and {@link Mode#ECMP} modes only the first
+   * hop is known, so the
+   * remainder of each route is elided.
    * 
    * @param linkWeights Original connection links and weights provided
-   *        by the registry.
+   *        by the registry, or null if the routes were computed by the
+   *        registry.
    */
   public void printShortestPath(LinkWeights linkWeights) {
+    RouteTable table;
+    synchronized ( this )
+    {
+      table = mode != Mode.SOURCE ? null : buildAllPaths();
+    }
     System.out.println();
-    routes.forEach( (k, v) ->
+    for ( int position = 0; position < numConnection(); ++position )
     {
+      int sink = sinkAt( position );
+      if ( mode != Mode.SOURCE )
+      {
+        String next = getNextHop( nodes.get( sink ) );
+        if ( next == null )
+        {
+          // Unreachable, or not yet learned by distance vector
+          printUnreachable( nodes.get( sink ) );
+          continue;
+        }
+        StringBuilder sb = new StringBuilder( self );
+        sb.append( getWeight( linkWeights, self, next ) );
+        sb.append( next );
+        if ( !next.equals( nodes.get( sink ) ) )
+        {
+          sb.append( " ... " ).append( nodes.get( sink ) );
+        }
+        int paths = numNextHops( nodes.get( sink ) );
+        if ( paths > 1 )
+        {
+          sb.append( " ( " ).append( paths ).append( " equal-cost hops )" );
+        }
+        System.out.println( sb.toString() );
+        continue;
+      }
+      if ( table.getLength( sink ) == 0 )
+      {
+        printUnreachable( nodes.get( sink ) );
+        continue;
+      }
       StringBuilder sb = new StringBuilder();
       String current = self;
       sb.append( current );
-      for ( int i = 0; i < v.length; ++i )
+      for ( int i = 0; i < table.getLength( sink ); ++i )
       {
-        String next = v[ i ];
-        sb.append( linkWeights.getWeight( current, next ) );
+        String next = nodes.get( table.getHop( sink, i ) );
+        sb.append( getWeight( linkWeights, current, next ) );
         sb.append( next );
         current = next;
       }
       System.out.println( sb.toString() );
-    } );
+    }
     System.out.println();
   }
+
+  private void printUnreachable(String sinkNode) {
+    System.out.println( self + " ... " + sinkNode + " ( unreachable )" );
+  }
+
+  /**
+   * Print the shortest path between any two nodes of the overlay, with
+   * the respective link weights. A {@link ContractionHierarchy} is built
+   * for the overlay on the first query, and rebuilt after a link weight
+   * changes, so that each query settles only a small part of the
+   * overlay.
+   * 
+   * @param linkWeights Original connection links and weights provided
+   *        by the registry
+   * @param sourceNode Location of the start point
+   * @param sinkNode Location of the end point
+   * @return true if the path was printed, false if either node is
+   *         unknown or the routes were computed by the registry.
+   */
+  public boolean printShortestPath(LinkWeights linkWeights,
+      String sourceNode, String sinkNode) {
+    int source = nodes.indexOf( sourceNode );
+    int sink = nodes.indexOf( sinkNode );
+    if ( dynamicPath == null || source == NodeIndex.UNKNOWN
+        || sink == NodeIndex.UNKNOWN )
+    {
+      return false;
+    }
+    int[] path;
+    int distance;
+    long elapsed;
+    synchronized ( this )
+    {
+      if ( hierarchy == null )
+      {
+        hierarchy = new ContractionHierarchy( dynamicPath.getGraph() );
+      }
+      long start = System.nanoTime();
+      path = hierarchy.path( source, sink );
+      elapsed = System.nanoTime() - start;
+      distance = hierarchy.distance( source, sink );
+    }
+    StringBuilder sb = new StringBuilder();
+    String current = sourceNode;
+    sb.append( current );
+    for ( int hop : path )
+    {
+      String next = nodes.get( hop );
+      sb.append( getWeight( linkWeights, current, next ) );
+      sb.append( next );
+      current = next;
+    }
+    System.out.println( "\n" + sb.toString() );
+    System.out.println( "\nTotal weight of " + ( distance == Integer.MAX_VALUE
+        ? "---" : Integer.toString( distance ) ) + ", found in "
+        + ( elapsed / 1000 ) + " us.\n" );
+    return true;
+  }
+
+  /**
+   * Build the route to every node, in a single pass when the parents
+   * are held in an array, or else one route at a time from the mapped
+   * parents of restored routes.
+   */
+  private RouteTable buildAllPaths() {
+    if ( parents.hasArray() )
+    {
+      return ShortestPath.buildAllPaths( parents.array(), selfIndex );
+    }
+    int numNodes = parents.limit();
+    int[][] paths = new int[ numNodes ][];
+    int[] offsets = new int[ numNodes + 1 ];
+    for ( int sink = 0; sink < numNodes; ++sink )
+    {
+      paths[ sink ] = buildPath( parents, selfIndex, sink );
+      offsets[ sink + 1 ] =
+          Math.addExact( offsets[ sink ], paths[ sink ].length );
+    }
+    int[] hops = new int[ offsets[ numNodes ] ];
+    for ( int sink = 0; sink < numNodes; ++sink )
+    {
+      System.arraycopy( paths[ sink ], 0, hops, offsets[ sink ],
+          paths[ sink ].length );
+    }
+    return new RouteTable( offsets, hops );
+  }
+
+  /**
+   * As {@link ShortestPath#buildPath(int[], int, int)}, over parents
+   * that may be a view of a mapped snapshot.
+   */
+  private static int[] buildPath(IntBuffer parents, int source, int sink) {
+    int length = 0;
+    for ( int current = sink; current != source; current =
+        parents.get( current ) )
+    {
+      if ( parents.get( current ) == ShortestPath.NO_PARENT )
+      {
+        return new int[ 0 ];
+      }
+      ++length;
+    }
+    int[] path = new int[ length ];
+    for ( int current = sink; current != source; current =
+        parents.get( current ) )
+    {
+      path[ --length ] = current;
+    }
+    return path;
+  }
+
+  /**
+   * @return The formatted weight between two nodes, or an arrow if the
+   *         link weights are not known.
+   */
+  private static String getWeight(LinkWeights linkWeights, String current,
+      String next) {
+    return linkWeights == null ? "---->"
+        : linkWeights.getWeight( current, next );
+  }
 }
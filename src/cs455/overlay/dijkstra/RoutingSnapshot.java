@@ -0,0 +1,506 @@
+package cs455.overlay.dijkstra;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A compact binary file of the routes held by a messaging node, so a
+ * node that restarts may resume forwarding without waiting for the
+ * link weights to be distributed and its routes recomputed.
+ *
+ * The file is a header of {@link #HEADER_INTS} integers followed by
+ * primitive sections, written and read through a memory-mapped
+ * {@link FileChannel}:
+ *
+ * <pre>
+ * magic, version, mode, nodes, self, neighbors, name bytes, sequence,
+ * dictionary, dictionary bytes
+ * int[nodes]       parent of each node in the shortest path tree
+ * int[nodes]       next hop to each node
+ * int[neighbors]   index of each neighbor in the overlay
+ * int[neighbors]   weight of the link to each neighbor, or -1
+ * int[nodes]       index of each node, in order of the identifiers
+ * int[nodes + 1]   offset of each identifier in the name bytes
+ * int[dictionary + 1]  offset of each identifier in the dictionary bytes
+ * byte[]           host:port identifiers, UTF-8
+ * byte[]           host:port identifiers of the dictionary, UTF-8
+ * </pre>
+ *
+ * Reading a snapshot only maps the file. The sections are views of the
+ * mapping rather than copies, and an identifier is decoded only when
+ * requested. The identifiers are looked up by a binary search over the
+ * sorted section, comparing the bytes in the mapping, so a restored
+ * node holds no table of its overlay on the heap.
+ *
+ * The dictionary of nodes sent with the link weights is stored apart
+ * from the nodes of the routes, which may have been computed from only
+ * part of the overlay, so the identifiers of compact messages keep the
+ * indices every other node uses.
+ *
+ * @author stock
+ *
+ */
+public class RoutingSnapshot {
+
+  private static final int MAGIC = 0x5254534E;
+
+  private static final int VERSION = 5;
+
+  /**
+   * The number of integers before the first section.
+   */
+  public static final int HEADER_INTS = 10;
+
+  private static final int NO_PARENT = -1;
+
+  /**
+   * The milliseconds a messaging node holds changes to its routes
+   * before saving them, so a burst of updates is written once.
+   */
+  public static final long SAVE_DELAY = 1000;
+
+  private RoutingCache.Mode mode;
+
+  private int numNodes;
+
+  private int self;
+
+  private int sequence;
+
+  private IntBuffer parents;
+
+  private IntBuffer nextHops;
+
+  private IntBuffer neighbors;
+
+  private IntBuffer weights;
+
+  private IntBuffer order;
+
+  private IntBuffer nameOffsets;
+
+  private ByteBuffer names;
+
+  private IntBuffer dictionaryOffsets;
+
+  private ByteBuffer dictionaryNames;
+
+  /**
+   * Constructor - views of the sections of a mapped snapshot.
+   */
+  private RoutingSnapshot(RoutingCache.Mode mode, int numNodes, int self,
+      int sequence, IntBuffer parents, IntBuffer nextHops, IntBuffer neighbors,
+      IntBuffer weights, IntBuffer order, IntBuffer nameOffsets,
+      ByteBuffer names, IntBuffer dictionaryOffsets,
+      ByteBuffer dictionaryNames) {
+    this.mode = mode;
+    this.numNodes = numNodes;
+    this.self = self;
+    this.sequence = sequence;
+    this.parents = parents;
+    this.nextHops = nextHops;
+    this.neighbors = neighbors;
+    this.weights = weights;
+    this.order = order;
+    this.nameOffsets = nameOffsets;
+    this.names = names;
+    this.dictionaryOffsets = dictionaryOffsets;
+    this.dictionaryNames = dictionaryNames;
+  }
+
+  /**
+   * Write a snapshot of the routes. The file is written beside the
+   * destination and then moved over it, so a reader never sees a
+   * partially written snapshot.
+   *
+   * @param file destination of the snapshot
+   * @param mode how the routes are held
+   * @param nodes identifiers of every node in the overlay
+   * @param self index of the nodes self
+   * @param parents parent of each node in the shortest path tree, or
+   *        null if only the next hops are known
+   * @param nextHops next hop to each node
+   * @param neighbors index of each neighbor in the overlay
+   * @param weights weight of the link to each neighbor, or
+   *        {@link DistanceVectorTable#UNKNOWN_WEIGHT}
+   * @param sequence of the last link state advertisement of the node,
+   *        or 0 if it has not originated one
+   * @param dictionary of the nodes sent with the link weights, or null
+   *        if it has not been received
+   * @throws IOException if the snapshot can not be written
+   */
+  public static void write(Path file, RoutingCache.Mode mode,
+      NodeIndex nodes, int self, IntBuffer parents, IntBuffer nextHops,
+      int[] neighbors, int[] weights, int sequence, NodeIndex dictionary)
+      throws IOException {
+    int numNodes = nodes.size();
+    byte[][] identifiers = encode( nodes );
+    int[] nameOffsets = offsets( identifiers );
+    Integer[] sorted = new Integer[ numNodes ];
+    for ( int i = 0; i < numNodes; ++i )
+    {
+      sorted[ i ] = i;
+    }
+    byte[][] dictionaryIdentifiers =
+        dictionary == null ? new byte[ 0 ][] : encode( dictionary );
+    int[] dictionaryOffsets = offsets( dictionaryIdentifiers );
+    int numDictionary = dictionaryIdentifiers.length;
+    // In the byte order the identifiers are searched in, which is the
+    // order of the strings for host:port identifiers
+    Arrays.sort( sorted, ( a, b ) -> Arrays
+        .compareUnsigned( identifiers[ a ], identifiers[ b ] ) );
+    int nameBytes = nameOffsets[ numNodes ];
+    int dictionaryBytes = dictionaryOffsets[ numDictionary ];
+    long ints = HEADER_INTS + 4L * numNodes + 2L * neighbors.length + 1
+        + numDictionary + 1;
+    long size = Integer.BYTES * ints + nameBytes + dictionaryBytes;
+
+    Path temporary = file.resolveSibling( file.getFileName() + ".tmp" );
+    try ( FileChannel channel = FileChannel.open( temporary,
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) )
+    {
+      MappedByteBuffer buffer =
+          channel.map( FileChannel.MapMode.READ_WRITE, 0, size );
+      IntBuffer header = buffer.asIntBuffer();
+      header.put( new int[] { MAGIC, VERSION, mode.ordinal(), numNodes,
+          self, neighbors.length, nameBytes, sequence, numDictionary,
+          dictionaryBytes } );
+      if ( parents == null )
+      {
+        for ( int i = 0; i < numNodes; ++i )
+        {
+          header.put( NO_PARENT );
+        }
+      } else
+      {
+        header.put( parents.duplicate().limit( numNodes ) );
+      }
+      header.put( nextHops.duplicate().limit( numNodes ) );
+      header.put( neighbors );
+      header.put( weights, 0, neighbors.length );
+      for ( int index : sorted )
+      {
+        header.put( index );
+      }
+      header.put( nameOffsets );
+      header.put( dictionaryOffsets );
+      buffer.position( Integer.BYTES * ( int ) ints );
+      for ( byte[] identifier : identifiers )
+      {
+        buffer.put( identifier );
+      }
+      for ( byte[] identifier : dictionaryIdentifiers )
+      {
+        buffer.put( identifier );
+      }
+      buffer.force();
+    }
+    Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+  }
+
+  /**
+   * @return The UTF-8 bytes of each identifier, by its index.
+   */
+  private static byte[][] encode(NodeIndex nodes) {
+    byte[][] identifiers = new byte[ nodes.size() ][];
+    for ( int i = 0; i < identifiers.length; ++i )
+    {
+      identifiers[ i ] = nodes.get( i ).getBytes( StandardCharsets.UTF_8 );
+    }
+    return identifiers;
+  }
+
+  /**
+   * @return The offset of each identifier once they are concatenated,
+   *         followed by their total length.
+   */
+  private static int[] offsets(byte[][] identifiers) {
+    int[] offsets = new int[ identifiers.length + 1 ];
+    for ( int i = 0; i < identifiers.length; ++i )
+    {
+      offsets[ i + 1 ] = offsets[ i ] + identifiers[ i ].length;
+    }
+    return offsets;
+  }
+
+  /**
+   * Map a snapshot written by
+   * {@link #write(Path, RoutingCache.Mode, NodeIndex, int, IntBuffer,
+   * IntBuffer, int[], int[], int, NodeIndex)}.
+   *
+   * @param file location of the snapshot
+   * @return The snapshot, backed by the mapped file.
+   * @throws IOException if the file can not be read, or is not a
+   *         complete snapshot
+   */
+  public static RoutingSnapshot read(Path file) throws IOException {
+    MappedByteBuffer buffer;
+    try ( FileChannel channel =
+        FileChannel.open( file, StandardOpenOption.READ ) )
+    {
+      buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+          channel.size() );
+    }
+    if ( buffer.capacity() < Integer.BYTES * HEADER_INTS
+        || buffer.getInt( 0 ) != MAGIC
+        || buffer.getInt( Integer.BYTES ) != VERSION )
+    {
+      throw new IOException( file + " is not a routing snapshot." );
+    }
+    IntBuffer header = buffer.asIntBuffer();
+    int modeOrdinal = header.get( 2 );
+    int numNodes = header.get( 3 );
+    int self = header.get( 4 );
+    int numNeighbors = header.get( 5 );
+    int nameBytes = header.get( 6 );
+    int sequence = header.get( 7 );
+    int numDictionary = header.get( 8 );
+    int dictionaryBytes = header.get( 9 );
+    long ints = HEADER_INTS + 4L * numNodes + 2L * numNeighbors + 1
+        + numDictionary + 1;
+    if ( modeOrdinal < 0 || modeOrdinal >= RoutingCache.Mode.values().length
+        || numNodes < 1 || self < 0 || self >= numNodes || numNeighbors < 0
+        || nameBytes < 0 || sequence < 0 || numDictionary < 0
+        || dictionaryBytes < 0 || buffer.capacity() != Integer.BYTES * ints
+            + ( long ) nameBytes + dictionaryBytes )
+    {
+      throw new IOException( file + " is truncated or corrupt." );
+    }
+    int position = HEADER_INTS;
+    IntBuffer parents = section( header, position, numNodes );
+    position += numNodes;
+    IntBuffer nextHops = section( header, position, numNodes );
+    position += numNodes;
+    IntBuffer neighbors = section( header, position, numNeighbors );
+    position += numNeighbors;
+    IntBuffer weights = section( header, position, numNeighbors );
+    position += numNeighbors;
+    IntBuffer order = section( header, position, numNodes );
+    position += numNodes;
+    IntBuffer nameOffsets = section( header, position, numNodes + 1 );
+    position += numNodes + 1;
+    IntBuffer dictionaryOffsets =
+        section( header, position, numDictionary + 1 );
+    int start = Integer.BYTES * ( int ) ints;
+    ByteBuffer names = buffer.slice( start, nameBytes );
+    ByteBuffer dictionaryNames =
+        buffer.slice( start + nameBytes, dictionaryBytes );
+    return new RoutingSnapshot( RoutingCache.Mode.values()[ modeOrdinal ],
+        numNodes, self, sequence, parents, nextHops, neighbors, weights, order,
+        nameOffsets, names, dictionaryOffsets, dictionaryNames );
+  }
+
+  /**
+   * @return A view of <code>length</code> integers from the position.
+   */
+  private static IntBuffer section(IntBuffer buffer, int position,
+      int length) {
+    return buffer.duplicate().position( position ).limit( position + length )
+        .slice();
+  }
+
+  /**
+   * @return How the routes were held.
+   */
+  public RoutingCache.Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * @return The number of nodes in the overlay.
+   */
+  public int size() {
+    return numNodes;
+  }
+
+  /**
+   * @return The index of the node the routes are from.
+   */
+  public int getSelf() {
+    return self;
+  }
+
+  /**
+   * @return The sequence of the last link state advertisement of the
+   *         node, or 0 if it had not originated one.
+   */
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The parent of each node in the shortest path tree, where
+   *         every parent is -1 if only the next hops were known.
+   */
+  public IntBuffer getParents() {
+    return parents.duplicate();
+  }
+
+  /**
+   * @return The next hop to each node.
+   */
+  public IntBuffer getNextHops() {
+    return nextHops.duplicate();
+  }
+
+  /**
+   * @return The index of each neighbor of this node in the overlay.
+   */
+  public IntBuffer getNeighbors() {
+    return neighbors.duplicate();
+  }
+
+  /**
+   * @return The weight of the link to each neighbor, in the order of
+   *         {@link #getNeighbors()}, or
+   *         {@link DistanceVectorTable#UNKNOWN_WEIGHT} if it was not
+   *         known.
+   */
+  public IntBuffer getWeights() {
+    return weights.duplicate();
+  }
+
+  /**
+   * @param index of the node
+   * @return The host:port identifier of the node.
+   * @throws IndexOutOfBoundsException if the index is not a node
+   */
+  public String getNode(int index) throws IndexOutOfBoundsException {
+    int start = nameOffsets.get( index );
+    int end = nameOffsets.get( index + 1 );
+    byte[] identifier = new byte[ end - start ];
+    names.duplicate().position( start ).get( identifier );
+    return new String( identifier, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * @return The nodes of the overlay by their index in the snapshot,
+   *         served from the mapping.
+   */
+  public NodeIndex getNodes() {
+    return new MappedNodeIndex();
+  }
+
+  /**
+   * Copy the dictionary of nodes saved with the routes, which is sent
+   * by the registry with the link weights.
+   *
+   * @return The nodes by the same index as the dictionary that was
+   *         saved, or null if none was.
+   */
+  public NodeIndex getDictionary() {
+    int numDictionary = dictionaryOffsets.limit() - 1;
+    if ( numDictionary == 0 )
+    {
+      return null;
+    }
+    NodeIndex dictionary = new NodeIndex();
+    for ( int i = 0; i < numDictionary; ++i )
+    {
+      int start = dictionaryOffsets.get( i );
+      byte[] identifier = new byte[ dictionaryOffsets.get( i + 1 ) - start ];
+      dictionaryNames.get( start, identifier );
+      dictionary.intern( new String( identifier, StandardCharsets.UTF_8 ) );
+    }
+    return dictionary;
+  }
+
+  /**
+   * Find an identifier with a binary search over the sorted section.
+   *
+   * @return The position of the identifier in the sorted section, or
+   *         {@link NodeIndex#UNKNOWN} if it is not a node.
+   */
+  private int search(String identifier) {
+    ByteBuffer key =
+        ByteBuffer.wrap( identifier.getBytes( StandardCharsets.UTF_8 ) );
+    int low = 0;
+    int high = numNodes - 1;
+    while ( low <= high )
+    {
+      int middle = ( low + high ) >>> 1;
+      int index = order.get( middle );
+      int start = nameOffsets.get( index );
+      ByteBuffer name =
+          names.slice( start, nameOffsets.get( index + 1 ) - start );
+      int compare = compareUnsigned( name, key );
+      if ( compare < 0 )
+      {
+        low = middle + 1;
+      } else if ( compare > 0 )
+      {
+        high = middle - 1;
+      } else
+      {
+        return middle;
+      }
+    }
+    return NodeIndex.UNKNOWN;
+  }
+
+  /**
+   * @return The order of the bytes of two buffers, compared unsigned as
+   *         the identifiers were sorted.
+   */
+  private static int compareUnsigned(ByteBuffer a, ByteBuffer b) {
+    int i = a.mismatch( b );
+    if ( i < 0 )
+    {
+      return 0;
+    }
+    if ( i >= a.remaining() || i >= b.remaining() )
+    {
+      return a.remaining() - b.remaining();
+    }
+    return Byte.compareUnsigned( a.get( i ), b.get( i ) );
+  }
+
+  /**
+   * The identifiers of a snapshot, resolved from the mapping as they
+   * are requested. No identifier may be added.
+   */
+  private class MappedNodeIndex extends NodeIndex {
+
+    @Override
+    public int intern(String identifier) {
+      int index = indexOf( identifier );
+      if ( index == UNKNOWN )
+      {
+        throw new UnsupportedOperationException(
+            "The nodes of a routing snapshot can not be added to." );
+      }
+      return index;
+    }
+
+    @Override
+    public int indexOf(String identifier) {
+      int position = search( identifier );
+      return position == UNKNOWN ? position : order.get( position );
+    }
+
+    @Override
+    public String get(int index) throws ArrayIndexOutOfBoundsException {
+      if ( index < 0 || index >= numNodes )
+      {
+        throw new ArrayIndexOutOfBoundsException( index );
+      }
+      return getNode( index );
+    }
+
+    @Override
+    public int size() {
+      return numNodes;
+    }
+  }
+}
@@ -1,110 +1,540 @@
 package cs455.overlay.dijkstra;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import cs455.overlay.wireformats.LinkWeights;
 
 /**
  * Compute the shortest path given the link weights to all other
  * connections.
  * 
- * This class will transform the link weights to a two-dimensional
- * graph where representing each connection as an index and the
- * weights as bidirectional values. Implementation of Dijkstra's
+ * This class will transform the link weights to a compressed sparse
+ * row {@link Graph} where representing each connection as an index and
+ * the weights as bidirectional values. Implementation of Dijkstra's
  * Algorithm was referenced from the GeeksforGeeks lecture on
  * <i>Dijkstra’s shortest path algorithm</i>. The routes from the
  * <i>source</i> node to all others in the network are appended to a
  * map of <code>routes</code> from the driving method.
  * 
+ * Every engine relaxes links through the same graph. The
+ * {@link Engine#LINEAR} engine scans every vertex for the nearest one
+ * in <i>O(N&sup2;)</i>, while the {@link Engine#HEAP} engine uses an
+ * {@link IndexedMinHeap} to run in <i>O((N+E) log N)</i>. Both produce
+ * identical parents for the same link weights. As the registry only
+ * assigns integer weights between 1 and 10, the {@link Engine#BUCKET}
+ * engine uses Dial's circular bucket queue in <i>O(E + N &middot;
+ * maxWeight)</i>, and falls back to the heap when a weight is outside
+ * of {@link #MAX_BUCKET_WEIGHT}. For overlays too large for a single
+ * core, the {@link Engine#DELTA_STEPPING} engine relaxes the links of
+ * many vertices at once across the common fork/join pool, see
+ * {@link DeltaStepping}.
+ * 
  * @author stock
  *
  */
 public class ShortestPath {
 
-  private int[][] graph;
+  /**
+   * The algorithm used to select the next nearest vertex.
+   */
+  public enum Engine {
+    LINEAR, HEAP, BUCKET, DELTA_STEPPING
+  }
+
+  private Engine engine;
+
+  private Graph graph;
+
+  // The distances from the most recent computation
+  private int[] distances;
+
+  /**
+   * The parent of the source itself, and of unreachable nodes.
+   */
+  public static final int NO_PARENT = -1;
+
+  /**
+   * The next hop of the source itself, and of unreachable nodes.
+   */
+  public static final int NO_HOP = -1;
 
-  private static final int NO_PARENT = -1;
+  private static final int NO_VERTEX = -1;
+
+  /**
+   * The largest link weight the {@link Engine#BUCKET} engine will
+   * allocate buckets for.
+   */
+  public static final int MAX_BUCKET_WEIGHT = 255;
+
+  /**
+   * Default constructor - compute routes with the
+   * {@link Engine#BUCKET} engine, as the overlay is a sparse k-regular
+   * graph with small integer weights.
+   */
+  public ShortestPath() {
+    this( Engine.BUCKET );
+  }
+
+  /**
+   * Constructor - compute routes with the specified engine.
+   * 
+   * @param engine
+   */
+  public ShortestPath(Engine engine) {
+    this.engine = engine;
+  }
+
+  /**
+   * Constructor - compute routes with the specified engine over an
+   * existing graph, so that many sources may share one graph.
+   * 
+   * @param engine
+   * @param graph
+   */
+  public ShortestPath(Engine engine, Graph graph) {
+    this.engine = engine;
+    this.graph = graph;
+  }
+
+  /**
+   * Select the engine for a graph, so that only overlays large enough
+   * to outweigh the cost of synchronizing threads are computed in
+   * parallel.
+   * 
+   * @param graph the overlay built from the link weights
+   * @param parallelLinks the fewest links, counted in each direction,
+   *        to compute in parallel
+   * @return {@link Engine#DELTA_STEPPING} if the graph has at least
+   *         <code>parallelLinks</code> links and more than one core is
+   *         available, otherwise {@link Engine#BUCKET}.
+   */
+  public static Engine selectEngine(Graph graph, int parallelLinks) {
+    if ( graph.getTargets().length >= parallelLinks
+        && ForkJoinPool.getCommonPoolParallelism() > 1 )
+    {
+      return Engine.DELTA_STEPPING;
+    }
+    return Engine.BUCKET;
+  }
+
+  /**
+   * @return The graph built from the most recent link weights.
+   */
+  public Graph getGraph() {
+    return graph;
+  }
+
+  /**
+   * @return The shortest distance from the source of the most recent
+   *         {@link #dijkstra(int)} to each node, where unreachable nodes
+   *         are <code>Integer.MAX_VALUE</code>.
+   */
+  public int[] getDistances() {
+    return distances;
+  }
 
   /**
    * Constructs the routes, from a given starting node, for the topology
-   * using dijkstras shortest path algorithm. The
-   * <code>Map<String, String[]> routes</code> object has an entry of
-   * the form <b>sink : [host:port, host:port, ...]</b>, where the value
-   * for the sink node defines the route from the parent self ( start ).
+   * using dijkstras shortest path algorithm. The returned table has an
+   * entry of the form <b>sink : [index, index, ...]</b>, where the
+   * value for the sink node defines the route from the parent self (
+   * start ), and each index is an identifier in <code>nodes</code>.
    * 
-   * @param routes
    * @param linkWeights Defines the connection and weights between each
    *        link in the overlay.
+   * @param nodes The table each identifier is interned into
    * @param self Identifier for the parent self in the form
    *        <b>host:port</b>. This will be the starting node to compute
    *        the <code>routes</code>.
+   * @return The route to every node, indexed by the sink. The route to
+   *         self is empty.
+   */
+  public RouteTable buildShortestPath(LinkWeights linkWeights,
+      NodeIndex nodes, String self) {
+    graph = Graph.fromLinks( linkWeights.getLinks(), nodes );
+
+    int indexOfStart = nodes.indexOf( self );
+    return buildAllPaths( dijkstra( indexOfStart ), indexOfStart );
+  }
+
+  /**
+   * Constructs the shortest path tree, from a given starting node, for
+   * the topology. Routes can then be built for individual sinks with
+   * {@link #buildPath(int[], int, int)} as they are needed.
+   * 
+   * @param linkWeights Defines the connection and weights between each
+   *        link in the overlay.
+   * @param nodes The table each identifier is interned into
+   * @param self Identifier for the parent self in the form
+   *        <b>host:port</b>.
+   * @return The parent of each node in the shortest path tree.
+   */
+  public int[] buildShortestPathTree(LinkWeights linkWeights,
+      NodeIndex nodes, String self) {
+    graph = Graph.fromLinks( linkWeights.getLinks(), nodes );
+    return dijkstra( nodes.indexOf( self ) );
+  }
+
+  /**
+   * Constructs the next hop, from a given starting node, to every other
+   * node in the topology. Only the first node of each route is kept, so
+   * the table is <i>O(N)</i> regardless of the length of the routes.
+   * 
+   * @param linkWeights Defines the connection and weights between each
+   *        link in the overlay.
+   * @param nodes The table each identifier is interned into
+   * @param self Identifier for the parent self in the form
+   *        <b>host:port</b>.
+   * @return The index of the neighbor to forward to for each sink, or
+   *         {@link #NO_HOP} for self.
    */
-  public void buildShortestPath(Map<String, String[]> routes,
-      LinkWeights linkWeights, String self) {
-    String[] links = linkWeights.getLinks();
-    List<String> transformer = new ArrayList<>();
-    transformLinks( transformer, links );
+  public int[] buildNextHops(LinkWeights linkWeights, NodeIndex nodes,
+      String self) {
+    graph = Graph.fromLinks( linkWeights.getLinks(), nodes );
 
-    int numConnections = transformer.size();
-    graph = new int[ numConnections ][ numConnections ];
-    for ( String connection : links )
+    int indexOfStart = nodes.indexOf( self );
+    return nextHops( dijkstra( indexOfStart ), indexOfStart );
+  }
+
+  /**
+   * Derive the next hop from the source to every node given the parents
+   * of the shortest path tree. The next hop of a node is that of its
+   * parent, unless the parent is the source. Each walk toward the source
+   * stops at the first node with a known hop, and every node it passed
+   * is then assigned, so each node is visited a constant number of
+   * times.
+   * 
+   * @param parents the parent of each node in the shortest path tree
+   * @param source index of the nodes self
+   * @return The index of the neighbor to forward to for each sink, or
+   *         {@link #NO_HOP} for the source and unreachable nodes.
+   */
+  public static int[] nextHops(int[] parents, int source) {
+    int numNodes = parents.length;
+    int[] hops = new int[ numNodes ];
+    Arrays.fill( hops, NO_HOP );
+    boolean[] resolved = new boolean[ numNodes ];
+    resolved[ source ] = true;
+
+    int[] stack = new int[ numNodes ];
+    for ( int node = 0; node < numNodes; ++node )
     {
-      String[] splited = connection.split( "\\s+" );
-      addEdge( transformer.indexOf( splited[ 0 ] ),
-          transformer.indexOf( splited[ 1 ] ),
-          Integer.parseInt( splited[ 2 ] ) );
+      int depth = 0;
+      int current = node;
+      while ( !resolved[ current ] && parents[ current ] != source
+          && parents[ current ] != NO_PARENT )
+      {
+        stack[ depth++ ] = current;
+        current = parents[ current ];
+      }
+      if ( !resolved[ current ] )
+      {
+        hops[ current ] = parents[ current ] == source ? current : NO_HOP;
+        resolved[ current ] = true;
+      }
+      int hop = hops[ current ];
+      while ( depth > 0 )
+      {
+        int next = stack[ --depth ];
+        hops[ next ] = hop;
+        resolved[ next ] = true;
+      }
+    }
+    return hops;
+  }
+
+  /**
+   * Derive every equal-cost next hop from the source to every node. A
+   * link from <code>u</code> to <code>v</code> is on a shortest path
+   * when <code>distances[u] + weight == distances[v]</code>, and these
+   * links form a directed acyclic graph rather than a tree. The next
+   * hops of a node are the union of those of its predecessors in the
+   * graph, or the node itself when the source is a predecessor.
+   * 
+   * Nodes are visited in order of distance, so every predecessor is
+   * complete before its successors. The next hops of each node are held
+   * as a bit set over the neighbors of the source, so the computation
+   * is <i>O(N log N + E &middot; degree / 64)</i>.
+   * 
+   * @param graph the overlay the distances were computed over
+   * @param distances the shortest distance from the source to each node
+   * @param source index of the nodes self
+   * @return The indices of the neighbors on a shortest path to each
+   *         sink, where the source and unreachable nodes have none.
+   */
+  public static RouteTable equalCostNextHops(Graph graph, int[] distances,
+      int source) {
+    int numNodes = graph.size();
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    // Order the reachable nodes by distance, packed with their index
+    long[] order = new long[ numNodes ];
+    int reachable = 0;
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      if ( node != source && distances[ node ] != Integer.MAX_VALUE )
+      {
+        order[ reachable++ ] = ( ( long ) distances[ node ] << 32 ) | node;
+      }
+    }
+    Arrays.sort( order, 0, reachable );
+
+    // Bit i of a node is set when the i-th neighbor of the source is one
+    // of its next hops
+    int first = offsets[ source ];
+    int degree = offsets[ source + 1 ] - first;
+    int words = ( degree + 63 ) >>> 6;
+    long[] bits = new long[ numNodes * words ];
+    for ( int k = 0; k < reachable; ++k )
+    {
+      int v = ( int ) order[ k ];
+      for ( int i = offsets[ v ]; i < offsets[ v + 1 ]; ++i )
+      {
+        int u = targets[ i ];
+        if ( distances[ u ] == Integer.MAX_VALUE
+            || distances[ u ] + weights[ i ] != distances[ v ] )
+        {
+          continue;
+        }
+        if ( u == source )
+        {
+          for ( int slot = 0; slot < degree; ++slot )
+          {
+            if ( targets[ first + slot ] == v )
+            {
+              bits[ v * words + ( slot >>> 6 ) ] |= 1L << slot;
+            }
+          }
+        } else
+        {
+          for ( int w = 0; w < words; ++w )
+          {
+            bits[ v * words + w ] |= bits[ u * words + w ];
+          }
+        }
+      }
     }
-    int indexOfStart = transformer.indexOf( self );
-    int[] parents = dijkstra( indexOfStart );
 
-    for ( int current = 0; current < numConnections; ++current )
+    int[] hopOffsets = new int[ numNodes + 1 ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int count = 0;
+      for ( int w = 0; w < words; ++w )
+      {
+        count += Long.bitCount( bits[ node * words + w ] );
+      }
+      hopOffsets[ node + 1 ] = hopOffsets[ node ] + count;
+    }
+    int[] hops = new int[ hopOffsets[ numNodes ] ];
+    for ( int node = 0; node < numNodes; ++node )
     {
-      if ( current != indexOfStart )
+      int index = hopOffsets[ node ];
+      for ( int w = 0; w < words; ++w )
       {
-        List<String> addresses = new ArrayList<>();
-        buildPath( indexOfStart, current, parents, transformer, addresses );
-        routes.put( transformer.get( current ),
-            addresses.toArray( new String[] {} ) );
+        long word = bits[ node * words + w ];
+        while ( word != 0 )
+        {
+          int slot = ( w << 6 ) + Long.numberOfTrailingZeros( word );
+          hops[ index++ ] = targets[ first + slot ];
+          word &= word - 1;
+        }
       }
     }
+    return new RouteTable( hopOffsets, hops );
   }
 
   /**
-   * Transform array of weighted links to integer placeholder.
+   * Compute Dijkstra's Algorithm from the source node to every node
+   * using the configured {@link Engine}.
    * 
-   * @param transformer The map that will maintain the transformed
-   *        representations
-   * @param links The weighted links between connections. As a list in
-   *        the format <i>host:port host:port weight</i>
+   * @param source
+   * @return The array of parent values from the start node to each
+   *         node.
    */
-  private void transformLinks(List<String> transformer, String[] links) {
-    for ( String connection : links )
+  public int[] dijkstra(int source) {
+    switch ( engine )
     {
-      String[] splited = connection.split( "\\s+" );
-      if ( !transformer.contains( splited[ 0 ] ) )
+      case LINEAR :
+        return linearDijkstra( source );
+
+      case BUCKET :
+        if ( graph.getMinWeight() >= 1
+            && graph.getMaxWeight() <= MAX_BUCKET_WEIGHT )
+        {
+          return bucketDijkstra( source );
+        }
+        return heapDijkstra( source );
+
+      case DELTA_STEPPING :
+        if ( graph.getMinWeight() >= 0 )
+        {
+          distances = new int[ graph.size() ];
+          return new DeltaStepping( graph, ForkJoinPool.commonPool() )
+              .compute( source, distances );
+        }
+        return heapDijkstra( source );
+
+      default :
+        return heapDijkstra( source );
+    }
+  }
+
+  /**
+   * Compute Dijkstra's Algorithm over the graph with Dial's
+   * bucket queue. As every weight is at most <code>maxWeight</code>,
+   * all queued distances lie within <code>maxWeight + 1</code> of the
+   * current distance, so a circular array of that many buckets is
+   * sufficient. Each bucket is a doubly linked list threaded through
+   * primitive arrays, so no allocation occurs while relaxing edges.
+   * 
+   * As every weight is at least 1, the vertices of the current bucket
+   * are final, and are settled in order of their index, as the heap
+   * engine settles vertices of equal distance. Parents on equal-cost
+   * ties, and so the routes, are the same with either engine.
+   * 
+   * @param source
+   * @return The array of parent values from the start node to each
+   *         node.
+   */
+  private int[] bucketDijkstra(int source) {
+    int numNodes = graph.size();
+    int numBuckets = graph.getMaxWeight() + 1;
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    int[] shortestDistances = new int[ numNodes ];
+    Arrays.fill( shortestDistances, Integer.MAX_VALUE );
+
+    int[] parents = new int[ numNodes ];
+    Arrays.fill( parents, NO_PARENT );
+
+    // head[b] is the first vertex of bucket b, with next[v] and prev[v]
+    // linking the vertices that share a bucket.
+    int[] head = new int[ numBuckets ];
+    Arrays.fill( head, NO_VERTEX );
+    int[] next = new int[ numNodes ];
+    int[] prev = new int[ numNodes ];
+    // The vertices of the current bucket, in the order they are settled
+    int[] settled = new int[ numNodes ];
+
+    shortestDistances[ source ] = 0;
+    distances = shortestDistances;
+    next[ source ] = NO_VERTEX;
+    prev[ source ] = NO_VERTEX;
+    head[ 0 ] = source;
+    int queued = 1;
+
+    int distance = 0;
+    while ( queued > 0 )
+    {
+      int bucket = distance % numBuckets;
+      int count = 0;
+      for ( int v = head[ bucket ]; v != NO_VERTEX; v = next[ v ] )
       {
-        transformer.add( splited[ 0 ] );
+        settled[ count++ ] = v;
       }
-      if ( !transformer.contains( splited[ 1 ] ) )
+      head[ bucket ] = NO_VERTEX;
+      queued -= count;
+      Arrays.sort( settled, 0, count );
+
+      for ( int j = 0; j < count; ++j )
       {
-        transformer.add( splited[ 1 ] );
+        int nearestVertex = settled[ j ];
+        for ( int i = offsets[ nearestVertex ]; i < offsets[ nearestVertex
+            + 1 ]; i++ )
+        {
+          int nodeIndex = targets[ i ];
+          int candidate = distance + weights[ i ];
+          int current = shortestDistances[ nodeIndex ];
+
+          if ( candidate < current )
+          {
+            if ( current != Integer.MAX_VALUE )
+            {
+              // Unlink the vertex from the bucket of its old distance
+              if ( prev[ nodeIndex ] == NO_VERTEX )
+              {
+                head[ current % numBuckets ] = next[ nodeIndex ];
+              } else
+              {
+                next[ prev[ nodeIndex ] ] = next[ nodeIndex ];
+              }
+              if ( next[ nodeIndex ] != NO_VERTEX )
+              {
+                prev[ next[ nodeIndex ] ] = prev[ nodeIndex ];
+              }
+            } else
+            {
+              ++queued;
+            }
+            int target = candidate % numBuckets;
+            prev[ nodeIndex ] = NO_VERTEX;
+            next[ nodeIndex ] = head[ target ];
+            if ( head[ target ] != NO_VERTEX )
+            {
+              prev[ head[ target ] ] = nodeIndex;
+            }
+            head[ target ] = nodeIndex;
+
+            parents[ nodeIndex ] = nearestVertex;
+            shortestDistances[ nodeIndex ] = candidate;
+          }
+        }
       }
+      ++distance;
     }
+    return parents;
   }
 
   /**
-   * Create the bidirectional graph from a source to destination with a
-   * weight. These values will come from the weight list of connection
-   * link weight attributes.
+   * Compute Dijkstra's Algorithm over the graph, using an indexed
+   * min-heap to find the nearest unprocessed node.
    * 
    * @param source
-   * @param destination
-   * @param weight
+   * @return The array of parent values from the start node to each
+   *         node.
    */
-  public void addEdge(int source, int destination, int weight) {
-    graph[ source ][ destination ] = weight;
-    graph[ destination ][ source ] = weight;
+  private int[] heapDijkstra(int source) {
+    int numNodes = graph.size();
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
+
+    int[] shortestDistances = new int[ numNodes ];
+    Arrays.fill( shortestDistances, Integer.MAX_VALUE );
+
+    int[] parents = new int[ numNodes ];
+    Arrays.fill( parents, NO_PARENT );
+
+    shortestDistances[ source ] = 0;
+    distances = shortestDistances;
+
+    IndexedMinHeap heap = new IndexedMinHeap( numNodes );
+    heap.insertOrDecrease( source, 0 );
+
+    while ( !heap.isEmpty() )
+    {
+      int nearestVertex = heap.poll();
+      int distance = shortestDistances[ nearestVertex ];
+
+      for ( int i = offsets[ nearestVertex ]; i < offsets[ nearestVertex
+          + 1 ]; i++ )
+      {
+        int nodeIndex = targets[ i ];
+        int candidate = distance + weights[ i ];
+
+        if ( candidate < shortestDistances[ nodeIndex ] )
+        {
+          parents[ nodeIndex ] = nearestVertex;
+          shortestDistances[ nodeIndex ] = candidate;
+          heap.insertOrDecrease( nodeIndex, candidate );
+        }
+      }
+    }
+    return parents;
   }
 
   /**
@@ -116,8 +546,11 @@ public class ShortestPath {
    * @return The array of parent values from the start node to each
    *         node.
    */
-  public int[] dijkstra(int source) {
-    int numNodes = graph[ 0 ].length;
+  private int[] linearDijkstra(int source) {
+    int numNodes = graph.size();
+    int[] offsets = graph.getOffsets();
+    int[] targets = graph.getTargets();
+    int[] weights = graph.getWeights();
 
     // shortestDistances[i] will hold the shortest distance from src to i
     int[] shortestDistances = new int[ numNodes ];
@@ -134,9 +567,10 @@ public class ShortestPath {
 
     // Store the shortest path for each node
     int[] parents = new int[ numNodes ];
-    parents[ source ] = NO_PARENT;
+    Arrays.fill( parents, NO_PARENT );
 
     shortestDistances[ source ] = 0;
+    distances = shortestDistances;
 
     for ( int i = 1; i < numNodes; i++ )
     {
@@ -152,16 +586,23 @@ public class ShortestPath {
         }
       }
 
+      // The remaining nodes are unreachable from the source
+      if ( nearestVertex == -1 )
+      {
+        break;
+      }
+
       // Mark the picked vertex as processed
       added[ nearestVertex ] = true;
 
       // Update the distances for each connected node from the nearest.
-      for ( int nodeIndex = 0; nodeIndex < numNodes; nodeIndex++ )
+      for ( int link = offsets[ nearestVertex ]; link < offsets[ nearestVertex
+          + 1 ]; link++ )
       {
-        int edgeDistance = graph[ nearestVertex ][ nodeIndex ];
+        int nodeIndex = targets[ link ];
+        int edgeDistance = weights[ link ];
 
-        if ( edgeDistance > 0 && ( ( distance
-            + edgeDistance ) < shortestDistances[ nodeIndex ] ) )
+        if ( ( distance + edgeDistance ) < shortestDistances[ nodeIndex ] )
         {
           parents[ nodeIndex ] = nearestVertex;
           shortestDistances[ nodeIndex ] = distance + edgeDistance;
@@ -172,31 +613,116 @@ public class ShortestPath {
   }
 
   /**
-   * Recursive function to build the path from the source to the
-   * specified <code>current</code> value. This will call itself while
-   * the specified <code>current</code> value is not the end. At this
-   * point, the method will return and for every value that is not the
-   * source will be converted from it's transformed index value to
-   * actual identifier, i.e., host:port address.
+   * Build the route from the source to a single sink from the parents
+   * of the shortest path tree. The tree is walked once to find the
+   * length of the route, and again to fill it from the sink backwards,
+   * so there is no recursion or intermediate list.
    * 
+   * @param parents contains the list for the routes as an index
    * @param source index of the nodes self
-   * @param current index traversing the graph to the end
+   * @param sink index of the end point
+   * @return The indices to traverse from the source to the sink,
+   *         excluding the source. The route is empty if the sink is the
+   *         source or is unreachable.
+   */
+  public static int[] buildPath(int[] parents, int source, int sink) {
+    int length = 0;
+    for ( int current = sink; current != source; current = parents[ current ] )
+    {
+      if ( parents[ current ] == NO_PARENT )
+      {
+        return new int[ 0 ];
+      }
+      ++length;
+    }
+    int[] path = new int[ length ];
+    for ( int current = sink; current != source; current = parents[ current ] )
+    {
+      path[ --length ] = current;
+    }
+    return path;
+  }
+
+  /**
+   * Build the route from the source to every node in a single pass over
+   * the shortest path tree.
+   * 
+   * The depth of every node is found first, where each walk toward the
+   * source stops at the first node of known depth, so the tree is
+   * traversed in <i>O(N)</i>. The nodes are then ordered by depth with
+   * a counting sort, and each route is the route of its parent followed
+   * by the node itself. The parent is always filled first, so each
+   * route is a single copy into one pre-sized array.
+   * 
    * @param parents contains the list for the routes as an index
-   * @param transformer contains a string of the address with respective
-   *        indices for each node
-   * @param addresses will be the value that is being added to as the
-   *        recursive function returns.
+   * @param source index of the nodes self
+   * @return The route to every node, indexed by the sink. The route to
+   *         the source, and to unreachable nodes, is empty.
+   * @throws ArithmeticException if the routes together hold more hops
+   *         than an array can
    */
-  private void buildPath(int source, int current, int[] parents,
-      List<String> transformer, List<String> addresses) {
-    if ( current == NO_PARENT )
+  public static RouteTable buildAllPaths(int[] parents, int source) {
+    int numNodes = parents.length;
+    final int unknown = -1;
+
+    int[] depth = new int[ numNodes ];
+    Arrays.fill( depth, unknown );
+    depth[ source ] = 0;
+
+    int maxDepth = 0;
+    int[] stack = new int[ numNodes ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      int top = 0;
+      int current = node;
+      while ( depth[ current ] == unknown )
+      {
+        if ( parents[ current ] == NO_PARENT )
+        {
+          depth[ current ] = 0;
+          break;
+        }
+        stack[ top++ ] = current;
+        current = parents[ current ];
+      }
+      while ( top > 0 )
+      {
+        int next = stack[ --top ];
+        depth[ next ] = depth[ parents[ next ] ] + 1;
+        maxDepth = Math.max( maxDepth, depth[ next ] );
+      }
+    }
+
+    int[] offsets = new int[ numNodes + 1 ];
+    int[] count = new int[ maxDepth + 2 ];
+    for ( int node = 0; node < numNodes; ++node )
+    {
+      offsets[ node + 1 ] = Math.addExact( offsets[ node ], depth[ node ] );
+      ++count[ depth[ node ] + 1 ];
+    }
+    for ( int d = 0; d <= maxDepth; ++d )
+    {
+      count[ d + 1 ] += count[ d ];
+    }
+    // Reuse the stack as the nodes in order of nondecreasing depth
+    int[] order = stack;
+    for ( int node = 0; node < numNodes; ++node )
     {
-      return;
+      order[ count[ depth[ node ] ]++ ] = node;
     }
-    buildPath( source, parents[ current ], parents, transformer, addresses );
-    if ( current != source )
+
+    int[] hops = new int[ offsets[ numNodes ] ];
+    for ( int node : order )
     {
-      addresses.add( transformer.get( current ) );
+      int length = depth[ node ];
+      if ( length > 0 )
+      {
+        int parent = parents[ node ];
+        System.arraycopy( hops, offsets[ parent ], hops, offsets[ node ],
+            length - 1 );
+        hops[ offsets[ node ] + length - 1 ] = node;
+      }
     }
+    return new RouteTable( offsets, hops );
   }
 }
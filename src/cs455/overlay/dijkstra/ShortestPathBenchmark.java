@@ -0,0 +1,151 @@
+package cs455.overlay.dijkstra;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import cs455.overlay.util.Logger;
+import cs455.overlay.util.OverlayCreator;
+import cs455.overlay.wireformats.LinkWeights;
+
+/**
+ * Compare the time of point-to-point shortest path queries with a full
+ * {@link ShortestPath#dijkstra(int)} per query, against a
+ * {@link ContractionHierarchy} built once for the overlay. The full
+ * computation is also timed with the parallel
+ * {@link ShortestPath.Engine#DELTA_STEPPING} engine, to find the size
+ * of overlay from which it is faster on the host, see
+ * {@link cs455.overlay.util.Configuration#PARALLEL_LINKS}.
+ *
+ * The overlay is created as the registry would with
+ * <b>setup-overlay</b>, but without any messaging nodes, so it may be
+ * larger than can be deployed, e.g.,
+ * <code>java cs455.overlay.dijkstra.ShortestPathBenchmark 100000 4 1000</code>.
+ *
+ * @author stock
+ *
+ */
+public class ShortestPathBenchmark {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private static final Logger LOG = new Logger( true, false );
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args number of nodes, links per node, and number of queries
+   */
+  public static void main(String[] args) {
+    int numNodes = 10000;
+    int connectingEdges = 4;
+    int numQueries = 1000;
+    try
+    {
+      numNodes = Integer.parseInt( args[ 0 ] );
+      connectingEdges = Integer.parseInt( args[ 1 ] );
+      numQueries = Integer.parseInt( args[ 2 ] );
+    } catch ( ArrayIndexOutOfBoundsException | NumberFormatException e )
+    {
+      LOG.info( "USAGE: java cs455.overlay.dijkstra.ShortestPathBenchmark "
+          + "nodes links queries. Defaulting to " + numNodes + " "
+          + connectingEdges + " " + numQueries + "." );
+    }
+
+    String[] addresses = new String[ numNodes ];
+    for ( int i = 0; i < numNodes; ++i )
+    {
+      addresses[ i ] = "node" + i + ":" + ( 1024 + i % 64000 );
+    }
+    LinkWeights linkWeights;
+    try
+    {
+      linkWeights = ( new OverlayCreator() ).createLinkWeights( addresses,
+          connectingEdges );
+    } catch ( Exception e )
+    {
+      LOG.error( e.getMessage() );
+      return;
+    }
+    Graph graph = Graph.fromLinks( linkWeights.getLinks(), new NodeIndex() );
+
+    long start = System.nanoTime();
+    ContractionHierarchy hierarchy = new ContractionHierarchy( graph );
+    long buildTime = System.nanoTime() - start;
+
+    Random random = new Random( 42 );
+    int[] sources = new int[ numQueries ];
+    int[] sinks = new int[ numQueries ];
+    for ( int i = 0; i < numQueries; ++i )
+    {
+      sources[ i ] = random.nextInt( numNodes );
+      sinks[ i ] = random.nextInt( numNodes );
+    }
+
+    ShortestPath shortestPath = new ShortestPath( ShortestPath.Engine.BUCKET,
+        graph );
+    int[] expected = new int[ numQueries ];
+    // Warm up both before timing
+    for ( int i = 0; i < Math.min( numQueries, 100 ); ++i )
+    {
+      shortestPath.dijkstra( sources[ i ] );
+      hierarchy.path( sources[ i ], sinks[ i ] );
+    }
+
+    start = System.nanoTime();
+    for ( int i = 0; i < numQueries; ++i )
+    {
+      int[] parents = shortestPath.dijkstra( sources[ i ] );
+      ShortestPath.buildPath( parents, sources[ i ], sinks[ i ] );
+      expected[ i ] = shortestPath.getDistances()[ sinks[ i ] ];
+    }
+    long dijkstraTime = System.nanoTime() - start;
+
+    ShortestPath parallelPath = new ShortestPath(
+        ShortestPath.Engine.DELTA_STEPPING, graph );
+    for ( int i = 0; i < Math.min( numQueries, 100 ); ++i )
+    {
+      parallelPath.dijkstra( sources[ i ] );
+    }
+    start = System.nanoTime();
+    for ( int i = 0; i < numQueries; ++i )
+    {
+      int[] parents = parallelPath.dijkstra( sources[ i ] );
+      ShortestPath.buildPath( parents, sources[ i ], sinks[ i ] );
+    }
+    long parallelTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for ( int i = 0; i < numQueries; ++i )
+    {
+      hierarchy.path( sources[ i ], sinks[ i ] );
+    }
+    long hierarchyTime = System.nanoTime() - start;
+
+    int mismatches = 0;
+    for ( int i = 0; i < numQueries; ++i )
+    {
+      if ( hierarchy.distance( sources[ i ], sinks[ i ] ) != expected[ i ] )
+      {
+        ++mismatches;
+      }
+    }
+
+    System.out.println( "\nOverlay of (" + numNodes + ") nodes with ("
+        + connectingEdges + ") links each, and (" + numQueries
+        + ") queries:\n" );
+    System.out.println( String.format( "\t%-28s: %12.3f ms",
+        "Contraction ( " + hierarchy.numShortcuts() + " shortcuts )",
+        buildTime / 1e6 ) );
+    System.out.println( String.format( "\t%-28s: %12.3f us / query",
+        "Dijkstra", dijkstraTime / 1e3 / numQueries ) );
+    System.out.println( String.format( "\t%-28s: %12.3f us / query",
+        "Delta-stepping ( " + ForkJoinPool.getCommonPoolParallelism()
+            + " threads )",
+        parallelTime / 1e3 / numQueries ) );
+    System.out.println( String.format( "\t%-28s: %12.3f us / query",
+        "Contraction hierarchy", hierarchyTime / 1e3 / numQueries ) );
+    System.out.println( "\n\t" + mismatches
+        + " distance(s) differ between the two.\n" );
+  }
+}
@@ -0,0 +1,204 @@
+package cs455.overlay.node;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import cs455.overlay.transport.LoopbackTransport;
+import cs455.overlay.transport.Transport;
+import cs455.overlay.util.Logger;
+import cs455.overlay.util.StatisticsCollectorAndDisplay;
+
+/**
+ * Run a registry and an overlay of messaging nodes within this
+ * process, connected by a {@link LoopbackTransport} in place of
+ * sockets, so overlays of thousands of nodes can be set up and routed
+ * over on a single host.
+ *
+ * The registry is sent the same commands as it would be at its
+ * console, i.e., <b>setup-overlay</b>, <b>send-overlay-link-weights</b>
+ * and <b>start</b>, each once the nodes have finished the last. The
+ * time for the routes to converge and for every message to be
+ * received is reported with the number of messages relayed, e.g.,
+ * <code>java cs455.overlay.node.LoopbackOverlay 1000 4 10</code> for
+ * 1000 nodes of 4 links each sending for 10 rounds.
+ *
+ * @author stock
+ *
+ */
+public class LoopbackOverlay {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private static final Logger LOG = new Logger( true, false );
+
+  // The messages a node sends in each round
+  private static final int MESSAGES_PER_ROUND = 5;
+
+  // How long each step may take before the run is abandoned
+  private static final long TIMEOUT = TimeUnit.MINUTES.toNanos( 5 );
+
+  // How long the routes must stay converged, so that no distance
+  // vector or advertisement is still in flight
+  private static final long QUIET = TimeUnit.MILLISECONDS.toNanos( 500 );
+
+  /**
+   * Run the overlay.
+   *
+   * @param args the number of nodes, links of each node and rounds
+   */
+  public static void main(String[] args) {
+    int numNodes = 1000;
+    int numLinks = 4;
+    int rounds = 10;
+    try
+    {
+      if ( args.length > 2 )
+      {
+        numNodes = Integer.parseInt( args[ 0 ] );
+        numLinks = Integer.parseInt( args[ 1 ] );
+        rounds = Integer.parseInt( args[ 2 ] );
+      }
+    } catch ( NumberFormatException e )
+    {
+      numNodes = 1000;
+      numLinks = 4;
+      rounds = 10;
+      LOG.info( "USAGE: java cs455.overlay.node.LoopbackOverlay "
+          + "nodes links rounds. Defaulting to 1000 4 10." );
+    }
+
+    Transport transport = new LoopbackTransport();
+    Registry registry = new Registry();
+    List<MessagingNode> nodes = new ArrayList<>();
+    try ( Transport.Listener listener = transport.listen( 0 ) )
+    {
+      listener.accept( registry );
+      long start = System.nanoTime();
+      for ( int i = 0; i < numNodes; ++i )
+      {
+        Transport.Listener nodeListener = transport.listen( 0 );
+        MessagingNode node = new MessagingNode( "localhost",
+            nodeListener.getPort(), transport );
+        nodeListener.accept( node );
+        node.registerNode( "localhost", listener.getPort() );
+        nodes.add( node );
+      }
+      await( () -> registry.numConnections() == nodes.size(),
+          "registered" );
+      long registerTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      registry.command( new String[] { "setup-overlay",
+          Integer.toString( numLinks ) } );
+      final int expectedLinks = numNodes * numLinks;
+      await( () -> nodes.stream().mapToInt( MessagingNode::numConnections )
+          .sum() == expectedLinks, "connected" );
+      long setupTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      registry.command( new String[] { "send-overlay-link-weights" } );
+      final int overlaySize = numNodes;
+      settle( () -> nodes.stream()
+          .allMatch( node -> node.hasConverged( overlaySize ) ),
+          "converged routes" );
+      // Without the time the routes were held to be sure of them
+      long routeTime = System.nanoTime() - start - QUIET;
+
+      start = System.nanoTime();
+      registry.command(
+          new String[] { "start", Integer.toString( rounds ) } );
+      final long expected = ( long ) numNodes * rounds * MESSAGES_PER_ROUND;
+      await( () -> received( nodes ) == expected, "received" );
+      long sendTime = System.nanoTime() - start;
+
+      long relayed = 0;
+      for ( MessagingNode node : nodes )
+      {
+        relayed += node.getStatistics().getRelayTracker();
+      }
+      System.out.println( String.format(
+          "\n\tNodes: %d, Links: %d, Rounds: %d\n"
+              + "\tRegister (ms)\t: %.1f\n\tConnect (ms)\t: %.1f\n"
+              + "\tRoute (ms)\t: %.1f\n\tSend (ms)\t: %.1f\n"
+              + "\tMessages\t: %d (%.0f/s)\n"
+              + "\tRelayed\t\t: %d (%.2f per message)\n",
+          numNodes, numLinks, rounds, registerTime / 1e6, setupTime / 1e6,
+          routeTime / 1e6, sendTime / 1e6, expected,
+          expected / ( sendTime / 1e9 ), relayed,
+          ( double ) relayed / expected ) );
+      // The registry and nodes never stop their threads
+      System.exit( 0 );
+    } catch ( IOException | InterruptedException e )
+    {
+      LOG.error( "Stopped after (" + nodes.size() + ") nodes. "
+          + e.getMessage() );
+      System.exit( 1 );
+    }
+  }
+
+  /**
+   * @return The number of messages received by all of the nodes.
+   */
+  private static long received(List<MessagingNode> nodes) {
+    long received = 0;
+    for ( MessagingNode node : nodes )
+    {
+      received += node.getStatistics().getReceiveTracker();
+    }
+    return received;
+  }
+
+  /**
+   * Wait for the nodes to finish a step.
+   *
+   * @param done true once the step is finished
+   * @param step what the nodes have done, for the error message
+   * @throws InterruptedException if the step is not finished in time
+   */
+  private static void await(BooleanSupplier done, String step)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TIMEOUT;
+    while ( !done.getAsBoolean() )
+    {
+      if ( System.nanoTime() > deadline )
+      {
+        throw new InterruptedException(
+            "Not every node had " + step + " in time." );
+      }
+      TimeUnit.MILLISECONDS.sleep( 10 );
+    }
+  }
+
+  /**
+   * Wait for the nodes to finish a step that messages still in flight
+   * may undo, such as the routes converging, until it has stayed
+   * finished for {@link #QUIET}.
+   *
+   * @param done true while the step is finished
+   * @param step what the nodes have done, for the error message
+   * @throws InterruptedException if the step is not finished in time
+   */
+  private static void settle(BooleanSupplier done, String step)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TIMEOUT;
+    long since = System.nanoTime();
+    while ( System.nanoTime() - since < QUIET )
+    {
+      if ( !done.getAsBoolean() )
+      {
+        await( done, step );
+        since = System.nanoTime();
+      }
+      if ( System.nanoTime() > deadline )
+      {
+        throw new InterruptedException(
+            "Not every node had " + step + " in time." );
+      }
+      TimeUnit.MILLISECONDS.sleep( 10 );
+    }
+  }
+}
@@ -2,27 +2,45 @@ package cs455.overlay.node;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import cs455.overlay.dijkstra.DistanceVectorTable;
+import cs455.overlay.dijkstra.LinkStateDatabase;
+import cs455.overlay.dijkstra.NodeIndex;
 import cs455.overlay.dijkstra.RoutingCache;
-import cs455.overlay.transport.TCPConnection;
-import cs455.overlay.transport.TCPServerThread;
+import cs455.overlay.dijkstra.RoutingSnapshot;
+import cs455.overlay.transport.Connection;
+import cs455.overlay.transport.TCPTransport;
+import cs455.overlay.transport.Transport;
+import cs455.overlay.util.Configuration;
 import cs455.overlay.util.Logger;
 import cs455.overlay.util.StatisticsCollectorAndDisplay;
+import cs455.overlay.wireformats.CompactMessage;
+import cs455.overlay.wireformats.DistanceVector;
 import cs455.overlay.wireformats.Event;
+import cs455.overlay.wireformats.HopMessage;
+import cs455.overlay.wireformats.LinkStateAdvertisement;
+import cs455.overlay.wireformats.LinkWeightUpdate;
 import cs455.overlay.wireformats.LinkWeights;
 import cs455.overlay.wireformats.Message;
 import cs455.overlay.wireformats.MessagingNodeList;
 import cs455.overlay.wireformats.Protocol;
 import cs455.overlay.wireformats.Register;
 import cs455.overlay.wireformats.RegisterResponse;
+import cs455.overlay.wireformats.RoutingTable;
 import cs455.overlay.wireformats.TaskComplete;
 import cs455.overlay.wireformats.TaskInitiate;
 import cs455.overlay.wireformats.TaskSummaryResponse;
@@ -48,18 +66,46 @@ public class MessagingNode implements Node, Protocol {
 
   private static final String HELP = "help";
 
-  private TCPConnection registryConnection;
+  private Connection registryConnection;
 
   private LinkWeights linkWeights = null;
 
   private RoutingCache routes = null;
 
-  private Map<String, TCPConnection> connections = new ConcurrentHashMap<>();
+  private RoutingCache.Mode routingMode;
+
+  // The dictionary of nodes a compact message refers to them by, or
+  // null until the link weights are received
+  private NodeIndex nodeIds;
+
+  // Where the routes are saved whenever they change, or null
+  private Path snapshotFile;
+
+  // Computes the next hops from the vectors of the neighbors, when
+  // routing by distance vector, or null
+  private DistanceVectorTable distanceVector;
+
+  // The links flooded by every node, when routing by link state, or
+  // null
+  private LinkStateDatabase linkState;
+
+  // Delays triggered updates, route rebuilds and snapshots, so changes
+  // are applied together
+  private ScheduledExecutorService scheduler;
+
+  private AtomicBoolean updateScheduled = new AtomicBoolean();
+
+  private AtomicBoolean saveScheduled = new AtomicBoolean();
+
+  private Map<String, Connection> connections = new ConcurrentHashMap<>();
 
   private Integer nodePort;
 
   private String nodeHost;
 
+  // Opens the connections to the registry and the other nodes
+  private Transport transport;
+
   private StatisticsCollectorAndDisplay statistics =
       new StatisticsCollectorAndDisplay();
 
@@ -70,15 +116,52 @@ public class MessagingNode implements Node, Protocol {
    * 
    * @param nodeHost
    * @param nodePort
+   * @param transport to open connections with
    */
-  private MessagingNode(String nodeHost, int nodePort) {
+  MessagingNode(String nodeHost, int nodePort, Transport transport) {
     this.nodeHost = nodeHost;
     this.nodePort = nodePort;
+    this.transport = transport;
+    switch ( Configuration.get( Configuration.ROUTING_MODE, "source" ) )
+    {
+      case "next-hop" :
+        this.routingMode = RoutingCache.Mode.NEXT_HOP;
+        break;
+
+      case "ecmp" :
+        this.routingMode = RoutingCache.Mode.ECMP;
+        break;
+
+      case "distance-vector" :
+        this.routingMode = RoutingCache.Mode.NEXT_HOP;
+        this.distanceVector =
+            new DistanceVectorTable( nodeHost + ":" + nodePort );
+        break;
+
+      default :
+        this.routingMode = RoutingCache.Mode.SOURCE;
+        break;
+    }
+    if ( distanceVector == null && Configuration
+        .get( Configuration.LINK_STATE, "false" ).equals( "true" ) )
+    {
+      this.linkState = new LinkStateDatabase( nodeHost + ":" + nodePort );
+    }
+    this.snapshotFile = Configuration.getPath( Configuration.ROUTE_SNAPSHOT );
+    if ( distanceVector != null || linkState != null || snapshotFile != null )
+    {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor( r ->
+      {
+        Thread thread = new Thread( r );
+        thread.setDaemon( true );
+        return thread;
+      } );
+    }
   }
 
   /**
-   * Start up a new TCPServerThread for the messaging node to listen on
-   * then register the node.
+   * Listen for the connections of the messaging node over TCP then
+   * register the node.
    *
    * @param args
    */
@@ -90,12 +173,19 @@ public class MessagingNode implements Node, Protocol {
       System.exit( 1 );
     }
     LOG.info( "Messaging Node starting up at: " + new Date() );
-    try ( ServerSocket serverSocket = new ServerSocket( 0 ) )
+    RoutingSnapshot snapshot = readSnapshot();
+    Transport transport = new TCPTransport();
+    try ( Transport.Listener listener = listen( transport, snapshot ) )
     {
-      int nodePort = serverSocket.getLocalPort();
+      int nodePort = listener.getPort();
       MessagingNode node = new MessagingNode(
-          InetAddress.getLocalHost().getHostName(), nodePort );
-      ( new Thread( new TCPServerThread( node, serverSocket ) ) ).start();
+          InetAddress.getLocalHost().getHostName(), nodePort, transport );
+      listener.accept( node );
+      if ( snapshot != null && ( node.nodeHost + ":" + nodePort )
+          .equals( snapshot.getNode( snapshot.getSelf() ) ) )
+      {
+        node.restoreRoutes( snapshot );
+      }
       node.registerNode( args[ 0 ], Integer.valueOf( args[ 1 ] ) );
       node.interact();
     } catch ( IOException e )
@@ -105,24 +195,174 @@ public class MessagingNode implements Node, Protocol {
     }
   }
 
+  /**
+   * Read the routes saved before this node last exited, if
+   * {@link Configuration#ROUTE_SNAPSHOT} is set and the file exists.
+   * 
+   * @return The snapshot, or null if there is none to restore.
+   */
+  private static RoutingSnapshot readSnapshot() {
+    Path file = Configuration.getPath( Configuration.ROUTE_SNAPSHOT );
+    if ( file == null || !file.toFile().isFile() )
+    {
+      return null;
+    }
+    try
+    {
+      return RoutingSnapshot.read( file );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to read the routing snapshot. " + e.getMessage() );
+      return null;
+    }
+  }
+
+  /**
+   * Listen on the port this node had when the snapshot was saved, so
+   * that it keeps the same identifier in the overlay, or on any free
+   * port otherwise.
+   * 
+   * @param transport to listen with
+   * @param snapshot routes saved before this node last exited, or null
+   * @return The listener on the port.
+   * @throws IOException if no port can be bound
+   */
+  private static Transport.Listener listen(Transport transport,
+      RoutingSnapshot snapshot) throws IOException {
+    if ( snapshot != null )
+    {
+      String[] self = snapshot.getNode( snapshot.getSelf() ).split( ":" );
+      if ( self[ 0 ].equals( InetAddress.getLocalHost().getHostName() ) )
+      {
+        try
+        {
+          return transport.listen( Integer.parseInt( self[ 1 ] ) );
+        } catch ( IOException | NumberFormatException e )
+        {
+          LOG.error( "Unable to listen on the port of the routing snapshot. "
+              + e.getMessage() );
+        }
+      }
+    }
+    return transport.listen( 0 );
+  }
+
+  /**
+   * Resume forwarding with the routes saved before this node last
+   * exited. The neighbors in the snapshot are connected to again, and
+   * replace their connections to the previous instance of this node.
+   * The dictionary of nodes saved with the routes is restored too, so
+   * compact messages are read with the same identifiers as the peers
+   * that send them.
+   * 
+   * When routing by distance vector, the table is seeded with the
+   * weights of the links saved with the routes, and the vector of this
+   * node is sent to the neighbors, which send their whole vectors back
+   * as this node connects. When routing by link state, the sequence
+   * saved with the routes is continued, and a new advertisement of the
+   * links is flooded. The neighbors send back the advertisements of
+   * every node as this node connects.
+   * 
+   * @param snapshot routes saved with the same identifier as this node
+   */
+  private void restoreRoutes(RoutingSnapshot snapshot) {
+    routes = new RoutingCache( snapshot );
+    routingMode = routes.getMode();
+    nodeIds = snapshot.getDictionary();
+    String self = nodeHost + ":" + nodePort;
+    IntBuffer neighbors = snapshot.getNeighbors();
+    IntBuffer weights = snapshot.getWeights();
+    List<String> links = new ArrayList<>();
+    int connected = 0;
+    while ( neighbors.hasRemaining() )
+    {
+      String peer = snapshot.getNode( neighbors.get() );
+      int weight = weights.get();
+      if ( weight != DistanceVectorTable.UNKNOWN_WEIGHT )
+      {
+        links.add( self + " " + peer + " " + weight );
+      }
+      if ( connect( peer ) )
+      {
+        ++connected;
+      }
+    }
+    if ( distanceVector != null && !links.isEmpty() )
+    {
+      linkWeights = new LinkWeights( links.toArray( new String[ 0 ] ) );
+      distanceVector.setLinkWeights( linkWeights );
+      scheduleDistanceVector();
+    } else if ( linkState != null && !links.isEmpty() )
+    {
+      linkWeights = new LinkWeights( links.toArray( new String[ 0 ] ) );
+      linkState.resume( snapshot.getSequence() );
+      flood( linkState.originate( linkWeights ), null );
+      scheduleLinkState();
+    }
+    LOG.info( "Routes are restored from " + snapshotFile + " with ("
+        + connected + ") connections. Ready to forward messages." );
+  }
+
+  /**
+   * Save the routes once {@link RoutingSnapshot#SAVE_DELAY} has passed
+   * since they changed, if {@link Configuration#ROUTE_SNAPSHOT} is set,
+   * unless a save is already waiting. Every change in the meantime is
+   * written with it.
+   */
+  private void saveRoutes() {
+    if ( snapshotFile != null && saveScheduled.compareAndSet( false, true ) )
+    {
+      scheduler.schedule( this::writeRoutes, RoutingSnapshot.SAVE_DELAY,
+          TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Write the routes held now, and the links to the neighbors, to the
+   * snapshot.
+   */
+  private void writeRoutes() {
+    saveScheduled.set( false );
+    if ( routes == null )
+    {
+      return;
+    }
+    try
+    {
+      Map<String, Integer> neighbors = new HashMap<>();
+      for ( String peer : connections.keySet() )
+      {
+        neighbors.put( peer, distanceVector != null
+            ? distanceVector.getLinkWeight( peer )
+            : linkState != null ? linkState.getLinkWeight( peer )
+                : DistanceVectorTable.UNKNOWN_WEIGHT );
+      }
+      routes.save( snapshotFile, neighbors,
+          linkState == null ? 0 : linkState.getSequence(), nodeIds );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to save the routing snapshot. " + e.getMessage() );
+    }
+  }
+
   /**
    * Registers a node with the registry.
    *
    * @param host identifier for the registry node.
    * @param port number for the registry node
    */
-  private void registerNode(String registryHost, Integer registryPort) {
+  void registerNode(String registryHost, Integer registryPort) {
     try
     {
-      Socket socketToTheServer = new Socket( registryHost, registryPort );
-      TCPConnection connection = new TCPConnection( this, socketToTheServer );
+      Connection connection =
+          transport.connect( this, registryHost, registryPort );
 
       Register register = new Register( Protocol.REGISTER_REQUEST,
           this.nodeHost, this.nodePort );
 
       LOG.info(
           "MessagingNode Identifier: " + this.nodeHost + ":" + this.nodePort );
-      connection.getTCPSenderThread().sendData( register.getBytes() );
+      connection.send( register.getBytes() );
       connection.start();
 
       this.registryConnection = connection;
@@ -145,10 +385,19 @@ public class MessagingNode implements Node, Protocol {
     while ( running )
     {
       Scanner scan = new Scanner( System.in );
-      switch ( scan.nextLine().toLowerCase() )
+      // Only the command is case insensitive, as arguments may include
+      // host names
+      String[] input = scan.nextLine().trim().split( "\\s+" );
+      switch ( input[ 0 ].toLowerCase() )
       {
         case PRINT_SHORTEST_PATH :
-          printShortestPath();
+          if ( input.length > 1 )
+          {
+            printShortestPath( input );
+          } else
+          {
+            printShortestPath();
+          }
           break;
 
         case EXIT_OVERLAY :
@@ -166,6 +415,7 @@ public class MessagingNode implements Node, Protocol {
         case HELP :
           System.out.println(
               "\n\tprint-shortest-path\t: print shortest path from this node to all others.\n\n"
+                  + "\tprint-shortest-path [a] b\t: print shortest path from this node, or node a, to node b.\n\n"
                   + "\texit-overlay\t\t: leave the overlay prior to starting.\n" );
           break;
 
@@ -192,7 +442,7 @@ public class MessagingNode implements Node, Protocol {
 
     try
     {
-      registryConnection.getTCPSenderThread().sendData( register.getBytes() );
+      registryConnection.send( register.getBytes() );
       registryConnection.close();
     } catch ( IOException | InterruptedException e )
     {
@@ -204,8 +454,11 @@ public class MessagingNode implements Node, Protocol {
    * {@inheritDoc}
    */
   @Override
-  public void onEvent(Event event, TCPConnection connection) {
-    LOG.debug( event.toString() );
+  public void onEvent(Event event, Connection connection) {
+    if ( LOG.isDebug() )
+    {
+      LOG.debug( event.toString() );
+    }
     switch ( event.getType() )
     {
       case Protocol.REGISTER_RESPONSE :
@@ -213,7 +466,11 @@ public class MessagingNode implements Node, Protocol {
         break;
 
       case Protocol.MESSAGING_NODE_LIST :
-        establishOverlayConnections( event );
+        // Connect from a thread of its own, as with the task initiate,
+        // so the blocking connects do not hold an event loop shared
+        // with the other connections
+        ( new Thread( () -> establishOverlayConnections( event ) ) )
+            .start();
         break;
 
       case Protocol.REGISTER_REQUEST :
@@ -222,19 +479,92 @@ public class MessagingNode implements Node, Protocol {
 
       case Protocol.LINK_WEIGHTS :
         linkWeights = ( LinkWeights ) event;
-        routes = new RoutingCache( linkWeights, nodeHost + ":" + nodePort );
+        if ( linkWeights.getNodes().length > 0 )
+        {
+          nodeIds = NodeIndex.sorted( linkWeights.getNodes() );
+        }
+        if ( distanceVector != null )
+        {
+          distanceVector.setLinkWeights( linkWeights );
+          scheduleDistanceVector();
+          LOG.info( "Link weights of (" + linkWeights.getNumLinks()
+              + ") links are received. Exchanging distance vectors." );
+          break;
+        }
+        if ( linkState != null )
+        {
+          flood( linkState.originate( linkWeights ), null );
+          scheduleLinkState();
+          LOG.info( "Link weights of (" + linkWeights.getNumLinks()
+              + ") links are received. Flooding link state." );
+          break;
+        }
+        routes = new RoutingCache( linkWeights, nodeHost + ":" + nodePort,
+            routingMode );
         LOG.info(
             "Link weights are received and processed. Ready to send messages." );
+        saveRoutes();
+        break;
+
+      case Protocol.ROUTING_TABLE :
+        routes = new RoutingCache( ( RoutingTable ) event,
+            nodeHost + ":" + nodePort );
+        LOG.info(
+            "Routing table is received from the registry. Ready to send messages." );
+        saveRoutes();
+        break;
+
+      case Protocol.LINK_WEIGHT_UPDATE :
+        linkWeightUpdateHandler( event );
+        break;
+
+      case Protocol.DISTANCE_VECTOR :
+        if ( distanceVector != null
+            && distanceVector.merge( ( DistanceVector ) event ) )
+        {
+          scheduleDistanceVector();
+        }
+        break;
+
+      case Protocol.LINK_STATE_ADVERTISEMENT :
+        LinkStateAdvertisement lsa = ( LinkStateAdvertisement ) event;
+        if ( linkState == null )
+        {
+          break;
+        }
+        if ( linkState.install( lsa ) )
+        {
+          flood( lsa, connection );
+          scheduleLinkState();
+          break;
+        }
+        // An advertisement of this node from before it restarted
+        LinkStateAdvertisement newer = linkState.supersede( lsa );
+        if ( newer != null )
+        {
+          flood( newer, null );
+        }
         break;
 
       case Protocol.TASK_INITIATE :
-        taskInitiate( event );
+        // Send from a thread of its own, so that the thread receiving
+        // events, which may be an event loop shared with the other
+        // connections, is free to relay while this node sends
+        ( new Thread( () -> taskInitiate( event ) ) ).start();
         break;
 
       case Protocol.MESSAGE :
         messageHandler( event );
         break;
 
+      case Protocol.COMPACT_MESSAGE :
+        compactMessageHandler( event );
+        break;
+
+      case Protocol.HOP_MESSAGE :
+        hopMessageHandler( event );
+        break;
+
       case Protocol.PULL_TRAFFIC_SUMMARY :
         sendTrafficSummary();
         break;
@@ -253,49 +583,96 @@ public class MessagingNode implements Node, Protocol {
 
     for ( String peer : peers )
     {
-      String[] info = peer.split( ":" );
-      Socket socketToMessagingNode = null;
-      try
-      {
-        socketToMessagingNode =
-            new Socket( info[ 0 ], Integer.parseInt( info[ 1 ] ) );
-      } catch ( NumberFormatException | IOException e )
+      if ( !connect( peer ) )
       {
-        LOG.error( e.getMessage() );
-        e.printStackTrace();
         return;
       }
-      try
-      {
-        TCPConnection connection =
-            new TCPConnection( this, socketToMessagingNode );
-        Register register = new Register( Protocol.REGISTER_REQUEST,
-            this.nodeHost, this.nodePort );
-        connection.getTCPSenderThread().sendData( register.getBytes() );
-        connection.start();
-        // Add "outgoing" connection to this.connections
-        connections.put( peer, connection );
-      } catch ( IOException | InterruptedException e )
-      {
-        LOG.error( e.getMessage() );
-        e.printStackTrace();
-      }
     }
     int numberOfPeers = msg.getNumPeers();
     System.out.println( "Finished establishing ("
         + Integer.toString( numberOfPeers ) + ") connections.\n" );
   }
 
+  /**
+   * Open a connection to a peer, and register this node with it so that
+   * the peer may send messages back over the same connection.
+   * 
+   * @param peer host:port identifier of the messaging node
+   * @return false if the peer could not be reached, true otherwise.
+   */
+  private boolean connect(String peer) {
+    String[] info = peer.split( ":" );
+    Connection connection = null;
+    try
+    {
+      connection = transport.connect( this, info[ 0 ],
+          Integer.parseInt( info[ 1 ] ) );
+    } catch ( NumberFormatException | IOException e )
+    {
+      LOG.error( e.getMessage() );
+      e.printStackTrace();
+      return false;
+    }
+    try
+    {
+      Register register = new Register( Protocol.REGISTER_REQUEST,
+          this.nodeHost, this.nodePort );
+      connection.send( register.getBytes() );
+      connection.start();
+      // Add "outgoing" connection to this.connections
+      connections.put( peer, connection );
+    } catch ( IOException | InterruptedException e )
+    {
+      LOG.error( e.getMessage() );
+      e.printStackTrace();
+    }
+    return true;
+  }
+
   /**
    * Acknowledge "incoming" connections and add connection to
    * this.connections. Allows for this to send bidirectional message.
    * 
+   * When routing by distance vector, a neighbor whose link weight is
+   * already known has connected again, such as after restarting, and is
+   * sent the whole vector of this node. When routing by link state,
+   * such a neighbor is sent the newest advertisement of every node.
+   * 
    * @param event
    * @param connection
    */
-  private void acknowledgeNewConnection(Event event, TCPConnection connection) {
+  private void acknowledgeNewConnection(Event event, Connection connection) {
     String nodeDetails = ( ( Register ) event ).getConnection();
     connections.put( nodeDetails, connection );
+    DistanceVector vector = distanceVector == null ? null
+        : distanceVector.getVector( nodeDetails );
+    if ( vector != null )
+    {
+      try
+      {
+        connection.send( vector.getBytes() );
+      } catch ( IOException | InterruptedException e )
+      {
+        LOG.error( e.getMessage() + "\nUnable to send distance vector to "
+            + nodeDetails + "." );
+      }
+    }
+    if ( linkState == null || linkState
+        .getLinkWeight( nodeDetails ) == DistanceVectorTable.UNKNOWN_WEIGHT )
+    {
+      return;
+    }
+    try
+    {
+      for ( LinkStateAdvertisement lsa : linkState.getAdvertisements() )
+      {
+        connection.send( lsa.getBytes() );
+      }
+    } catch ( IOException | InterruptedException e )
+    {
+      LOG.error( e.getMessage() + "\nUnable to send link state to "
+          + nodeDetails + "." );
+    }
   }
 
   /**
@@ -311,42 +688,94 @@ public class MessagingNode implements Node, Protocol {
    * Once a node has finished sending messages for all the rounds, a
    * task completion message is send back to the registry.
    * 
+   * In the {@link RoutingCache.Mode#NEXT_HOP} and
+   * {@link RoutingCache.Mode#ECMP} modes, messages carry only the sink
+   * and are sent to the next hop for it. The messages of a round share
+   * a flow, so they may follow the same of several equal-cost paths.
+   * 
    * @param event received to retrieve the number of sending rounds
    * 
    */
   private void taskInitiate(Event event) {
     int rounds = ( ( TaskInitiate ) event ).getNumRounds();
+    if ( routes == null )
+    {
+      // The registry still expects the task to complete
+      LOG.error( "Routes have not been computed. No messages are sent." );
+      rounds = 0;
+    }
 
     Random random = new Random();
     for ( int i = 0; i < rounds; ++i )
     {
       String sinkNode;
       String[] routingPath;
-      TCPConnection connection;
+      int[] compactPath = null;
+      Connection connection;
       try
       {
         sinkNode =
             routes.getConnection( random.nextInt( routes.numConnection() ) );
-        routingPath = routes.getRoute( sinkNode );
-        connection = connections.get( routingPath[ 0 ] );
-        LOG.debug( "New Route to: " + Arrays.toString( routingPath ) );
+        if ( routes.getMode() != RoutingCache.Mode.SOURCE )
+        {
+          routingPath = null;
+          connection = null;
+        } else
+        {
+          routingPath = routes.getRoute( sinkNode );
+          if ( routingPath.length == 0 )
+          {
+            // Such as while the link state is still being learned
+            LOG.error( "There is no route to " + sinkNode
+                + ". Skipping the round." );
+            continue;
+          }
+          connection = connections.get( routingPath[ 0 ] );
+          if ( connection == null
+              || connection.isCongested() )
+          {
+            // Switch to a backup route around the first hop, if one is
+            // held
+            routingPath = routes.getRoute( sinkNode, routingPath[ 0 ] );
+            connection = connections.get( routingPath[ 0 ] );
+          }
+          LOG.debug( "New Route to: " + Arrays.toString( routingPath ) );
+          compactPath = compact( routingPath );
+        }
       } catch ( ArrayIndexOutOfBoundsException | NullPointerException
           | ClassCastException e )
       {
         LOG.error( e.getMessage() );
-        return;
+        continue;
       }
-      // Send 5 messages to the randomly chosen sink node per round
+      // Send 5 messages to the randomly chosen sink node per round, as
+      // one flow
+      int flow = random.nextInt();
       for ( int m = 0; m < 5; ++m )
       {
         int position = 0;
         int payload = random.nextInt();
         try
         {
-          Message msg = new Message( payload, ++position, routingPath );
-          connection.getTCPSenderThread().sendData( msg.getBytes() );
+          if ( routingPath == null )
+          {
+            connection =
+                connections.get( routes.getNextHop( sinkNode, flow ) );
+          }
+          Event msg;
+          if ( routingPath == null )
+          {
+            msg = new HopMessage( payload, flow, sinkNode );
+          } else if ( compactPath != null )
+          {
+            msg = new CompactMessage( payload, ++position, compactPath );
+          } else
+          {
+            msg = new Message( payload, ++position, routingPath );
+          }
+          connection.send( msg.encode() );
           statistics.send( payload );
-        } catch ( IOException | InterruptedException e )
+        } catch ( IOException | InterruptedException | NullPointerException e )
         {
           LOG.error( e.getMessage() );
         }
@@ -356,7 +785,7 @@ public class MessagingNode implements Node, Protocol {
     TaskComplete complete = new TaskComplete( nodeHost, nodePort );
     try
     {
-      registryConnection.getTCPSenderThread().sendData( complete.getBytes() );
+      registryConnection.send( complete.getBytes() );
     } catch ( IOException | InterruptedException e )
     {
       LOG.error(
@@ -365,6 +794,32 @@ public class MessagingNode implements Node, Protocol {
 
   }
 
+  /**
+   * Convert a routing path to the identifiers of the nodes in the
+   * dictionary sent with the link weights.
+   * 
+   * @param routingPath host:port of each connection
+   * @return The identifier of each connection, or null if there is no
+   *         dictionary or a connection is not in it.
+   */
+  private int[] compact(String[] routingPath) {
+    NodeIndex dictionary = nodeIds;
+    if ( dictionary == null )
+    {
+      return null;
+    }
+    int[] compactPath = new int[ routingPath.length ];
+    for ( int i = 0; i < routingPath.length; ++i )
+    {
+      compactPath[ i ] = dictionary.indexOf( routingPath[ i ] );
+      if ( compactPath[ i ] == NodeIndex.UNKNOWN )
+      {
+        return null;
+      }
+    }
+    return compactPath;
+  }
+
   /**
    * Manage incoming messages by either forwarding the content, or
    * receiving the message. The statistics for this node are updated as
@@ -379,25 +834,31 @@ public class MessagingNode implements Node, Protocol {
    * <b>forwarded</b></li>
    * </ul>
    * 
+   * A forwarded message is relayed in the bytes it was received as,
+   * with only the position changed.
+   * 
    * @param event received to retrieve the message
    */
   private void messageHandler(Event event) {
     Message msg = ( Message ) event;
-    String[] routingPath = msg.getRoutingPath();
     int position = msg.getPosition();
 
-    if ( routingPath.length == position )
+    if ( msg.getPathLength() == position )
     {
       LOG.debug( "RECEIVED" );
       statistics.received( msg.getPayload() );
     } else
     {
-      TCPConnection connection = connections.get( routingPath[ position ] );
-      msg.incrementPosition();
       try
       {
-        LOG.debug( "FORWARDING to: " + routingPath[ position ] );
-        connection.getTCPSenderThread().sendData( msg.getBytes() );
+        String nextHop = msg.getHop( position );
+        Connection connection = connections.get( nextHop );
+        msg.incrementPosition();
+        if ( LOG.isDebug() )
+        {
+          LOG.debug( "FORWARDING to: " + nextHop );
+        }
+        connection.send( msg.encode() );
         statistics.forward();
       } catch ( IOException | InterruptedException e )
       {
@@ -407,6 +868,292 @@ public class MessagingNode implements Node, Protocol {
     }
   }
 
+
+  /**
+   * Send the triggered updates of the distance vector once
+   * {@link DistanceVectorTable#UPDATE_DELAY} has passed, unless they
+   * are already waiting to be sent.
+   */
+  private void scheduleDistanceVector() {
+    if ( updateScheduled.compareAndSet( false, true ) )
+    {
+      scheduler.schedule( this::sendDistanceVector,
+          DistanceVectorTable.UPDATE_DELAY, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Send the triggered updates of the distance vector to the neighbors,
+   * and hold the new next hops if any have changed.
+   */
+  private void sendDistanceVector() {
+    updateScheduled.set( false );
+    distanceVector.flush().forEach( (peer, vector) ->
+    {
+      Connection connection = connections.get( peer );
+      if ( connection == null )
+      {
+        LOG.error( "There is no connection to the neighbor " + peer + "." );
+        return;
+      }
+      try
+      {
+        connection.send( vector.getBytes() );
+      } catch ( IOException | InterruptedException e )
+      {
+        LOG.error( e.getMessage() + "\nUnable to send distance vector to "
+            + peer + "." );
+      }
+    } );
+    // Restored routes are held until the table has learned as many
+    // sinks
+    if ( distanceVector.haveRoutesChanged() && ( routes == null
+        || distanceVector.size() > routes.numConnection() ) )
+    {
+      routes = new RoutingCache( distanceVector.getRoutingTable(),
+          nodeHost + ":" + nodePort );
+      saveRoutes();
+    }
+  }
+
+  /**
+   * Manage incoming compact messages the same as
+   * {@link #messageHandler(Event)}, where the next hop is looked up in
+   * the dictionary of nodes.
+   * 
+   * @param event received to retrieve the message
+   */
+  private void compactMessageHandler(Event event) {
+    CompactMessage msg = ( CompactMessage ) event;
+    int position = msg.getPosition();
+    try
+    {
+      if ( msg.getPathLength() == position )
+      {
+        LOG.debug( "RECEIVED" );
+        statistics.received( msg.getPayload() );
+        return;
+      }
+      if ( nodeIds == null )
+      {
+        LOG.error( "The dictionary of nodes has not been received. "
+            + "Unable to forward the message." );
+        return;
+      }
+      String nextHop = nodeIds.get( msg.getHop( position ) );
+      Connection connection = connections.get( nextHop );
+      msg.incrementPosition();
+      if ( LOG.isDebug() )
+      {
+        LOG.debug( "FORWARDING to: " + nextHop );
+      }
+      connection.send( msg.encode() );
+      statistics.forward();
+    } catch ( IOException | InterruptedException
+        | ArrayIndexOutOfBoundsException e )
+    {
+      LOG.error( e.getMessage() );
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Forward a link state advertisement to every neighbor, other than
+   * the one it was received from.
+   * 
+   * @param lsa the advertisement to forward, or null to do nothing
+   * @param received connection the advertisement came from, or null if
+   *        it was originated by this node
+   */
+  private void flood(LinkStateAdvertisement lsa, Connection received) {
+    if ( lsa == null )
+    {
+      return;
+    }
+    byte[] bytes;
+    try
+    {
+      bytes = lsa.getBytes();
+    } catch ( IOException e )
+    {
+      LOG.error( e.getMessage() + "\nUnable to marshall link state." );
+      return;
+    }
+    connections.forEach( (peer, connection) ->
+    {
+      if ( connection == received )
+      {
+        return;
+      }
+      try
+      {
+        connection.send( bytes );
+      } catch ( InterruptedException e )
+      {
+        LOG.error( e.getMessage() + "\nUnable to send link state to "
+            + peer + "." );
+      }
+    } );
+  }
+
+  /**
+   * Rebuild the routes from the link state database once
+   * {@link LinkStateDatabase#REBUILD_DELAY} has passed, unless a
+   * rebuild is already waiting, so a burst of advertisements is applied
+   * at once.
+   */
+  private void scheduleLinkState() {
+    if ( updateScheduled.compareAndSet( false, true ) )
+    {
+      scheduler.schedule( this::applyLinkState,
+          LinkStateDatabase.REBUILD_DELAY, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Apply the advertisements installed since the last rebuild. The
+   * routes are computed again when links have been learned, and
+   * otherwise only the routes affected by the changed weights are
+   * repaired.
+   */
+  private void applyLinkState() {
+    updateScheduled.set( false );
+    // Restored routes are held until every node has advertised
+    if ( !linkState.hasOriginated() || ( routes != null
+        && linkState.numOrigins() <= routes.numConnection() ) )
+    {
+      return;
+    }
+    String[] changes = linkState.takeChanges();
+    if ( changes == null || routes == null )
+    {
+      linkWeights = linkState.getLinkWeights();
+      routes = new RoutingCache( linkWeights, nodeHost + ":" + nodePort,
+          routingMode );
+      LOG.info( "Link state of (" + linkState.numOrigins()
+          + ") nodes is processed. Ready to send messages." );
+    } else
+    {
+      for ( String link : changes )
+      {
+        String[] details = link.split( "\\s+" );
+        int weight = Integer.parseInt( details[ 2 ] );
+        routes.updateLinkWeight( details[ 0 ], details[ 1 ], weight );
+        linkWeights.setWeight( details[ 0 ], details[ 1 ], weight );
+      }
+    }
+    saveRoutes();
+  }
+
+  /**
+   * Apply the changed link weights from the registry to the routing
+   * cache, which repairs only the routes that are affected. The link
+   * weights are kept up to date for printing the shortest paths. When
+   * routing by distance vector, the weight of the link to the neighbor
+   * is changed instead, and triggered updates are sent as needed. When
+   * routing by link state, a new advertisement is flooded instead.
+   * 
+   * @param event received to retrieve the changed links
+   */
+  private void linkWeightUpdateHandler(Event event) {
+    if ( linkState != null )
+    {
+      String self = nodeHost + ":" + nodePort;
+      for ( String link : ( ( LinkWeightUpdate ) event ).getLinks() )
+      {
+        String peer = LinkWeights.getPeer( link, self );
+        LinkStateAdvertisement lsa = peer == null ? null
+            : linkState.originate( peer,
+                Integer.parseInt( link.split( "\\s+" )[ 2 ] ) );
+        if ( lsa == null )
+        {
+          LOG.error( "Unable to update the link: " + link );
+          continue;
+        }
+        flood( lsa, null );
+      }
+      scheduleLinkState();
+      return;
+    }
+    if ( distanceVector != null )
+    {
+      String self = nodeHost + ":" + nodePort;
+      for ( String link : ( ( LinkWeightUpdate ) event ).getLinks() )
+      {
+        String[] details = link.split( "\\s+" );
+        String peer = LinkWeights.getPeer( link, self );
+        int weight = Integer.parseInt( details[ 2 ] );
+        if ( peer == null || !distanceVector.setLinkWeight( peer, weight ) )
+        {
+          LOG.error( "Unable to update the link: " + link );
+          continue;
+        }
+        if ( linkWeights != null )
+        {
+          linkWeights.setWeight( details[ 0 ], details[ 1 ], weight );
+        }
+      }
+      scheduleDistanceVector();
+      return;
+    }
+    if ( routes == null )
+    {
+      LOG.error( "Link weights have not been received. Ignoring update." );
+      return;
+    }
+    for ( String link : ( ( LinkWeightUpdate ) event ).getLinks() )
+    {
+      String[] details = link.split( "\\s+" );
+      int weight = Integer.parseInt( details[ 2 ] );
+      if ( !routes.updateLinkWeight( details[ 0 ], details[ 1 ], weight ) )
+      {
+        LOG.error( "Unable to update the link: " + link );
+        continue;
+      }
+      if ( linkWeights != null )
+      {
+        linkWeights.setWeight( details[ 0 ], details[ 1 ], weight );
+      }
+    }
+    LOG.info( "Link weight update is received and the routes are repaired." );
+    saveRoutes();
+  }
+
+  /**
+   * Manage incoming hop-by-hop messages by either receiving the
+   * message, or forwarding it to the next hop for the sink from the
+   * routing cache. The statistics are updated as in
+   * {@link #messageHandler(Event)}.
+   * 
+   * @param event received to retrieve the message
+   */
+  private void hopMessageHandler(Event event) {
+    HopMessage msg = ( HopMessage ) event;
+    String sinkNode = msg.getSink();
+
+    if ( sinkNode.equals( nodeHost + ":" + nodePort ) )
+    {
+      LOG.debug( "RECEIVED" );
+      statistics.received( msg.getPayload() );
+    } else
+    {
+      String nextHop = routes.getNextHop( sinkNode, msg.getFlow() );
+      try
+      {
+        if ( LOG.isDebug() )
+        {
+          LOG.debug( "FORWARDING to: " + nextHop );
+        }
+        connections.get( nextHop ).send( msg.encode() );
+        statistics.forward();
+      } catch ( IOException | InterruptedException | NullPointerException e )
+      {
+        LOG.error( "Unable to forward message to " + sinkNode + ". "
+            + e.getMessage() );
+      }
+    }
+  }
+
   /**
    * Print the shortest path as computed by Dijkstras shortest path
    * algorithm for this node.
@@ -431,6 +1178,29 @@ public class MessagingNode implements Node, Protocol {
     }
   }
 
+  /**
+   * Print the shortest path between two nodes with the
+   * <b>print-shortest-path [source] sink</b> command, where the source
+   * defaults to this node.
+   * 
+   * @param input foreground command from scanner input.
+   */
+  private void printShortestPath(String[] input) {
+    if ( routes == null || linkWeights == null )
+    {
+      LOG.error( "Link weights have not yet been received from registry."
+          + " Unable to display the shortest path." );
+      return;
+    }
+    String source = input.length > 2 ? input[ 1 ] : nodeHost + ":" + nodePort;
+    String sink = input[ input.length > 2 ? 2 : 1 ];
+    if ( !routes.printShortestPath( linkWeights, source, sink ) )
+    {
+      LOG.error( "Unable to display the shortest path from " + source + " to "
+          + sink + ". Both must be nodes in the overlay." );
+    }
+  }
+
   /**
    * Upon receiving a request for the traffic summary from the registry,
    * this node will respond with the messaging statistics and reset all
@@ -442,11 +1212,37 @@ public class MessagingNode implements Node, Protocol {
 
     try
     {
-      registryConnection.getTCPSenderThread().sendData( response.getBytes() );
+      registryConnection.send( response.getBytes() );
     } catch ( IOException | InterruptedException e )
     {
       LOG.error( "Unable to send traffic summary response. " + e.getMessage() );
     }
     statistics.reset();
   }
+
+  /**
+   * @return The number of connections to other messaging nodes.
+   */
+  int numConnections() {
+    return connections.size();
+  }
+
+  /**
+   * @param numNodes the number of nodes in the overlay
+   * @return true once the node has routes to every other node, and no
+   *         triggered update or rebuild of the routes is waiting.
+   */
+  boolean hasConverged(int numNodes) {
+    RoutingCache current = routes;
+    return current != null && current.numConnection() == numNodes - 1
+        && !updateScheduled.get();
+  }
+
+  /**
+   * @return The statistics of the messages sent, received and relayed
+   *         since the last traffic summary.
+   */
+  StatisticsCollectorAndDisplay getStatistics() {
+    return statistics;
+  }
 }
@@ -1,6 +1,6 @@
 package cs455.overlay.node;
 
-import cs455.overlay.transport.TCPConnection;
+import cs455.overlay.transport.Connection;
 import cs455.overlay.wireformats.Event;
 
 /**
@@ -19,6 +19,6 @@ public interface Node {
    * @param event
    * @param connection
    */
-  public void onEvent(Event event, TCPConnection connection);
+  public void onEvent(Event event, Connection connection);
 
 }
@@ -1,25 +1,32 @@
 package cs455.overlay.node;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import cs455.overlay.transport.TCPConnection;
-import cs455.overlay.transport.TCPServerThread;
+import cs455.overlay.dijkstra.Graph;
+import cs455.overlay.dijkstra.NodeIndex;
+import cs455.overlay.dijkstra.RoutingCache;
+import cs455.overlay.transport.Connection;
+import cs455.overlay.transport.TCPTransport;
+import cs455.overlay.transport.Transport;
+import cs455.overlay.util.Configuration;
 import cs455.overlay.util.Logger;
 import cs455.overlay.util.OverlayCreator;
 import cs455.overlay.util.StatisticsCollectorAndDisplay;
 import cs455.overlay.wireformats.Event;
+import cs455.overlay.wireformats.LinkWeightUpdate;
 import cs455.overlay.wireformats.LinkWeights;
 import cs455.overlay.wireformats.Protocol;
 import cs455.overlay.wireformats.Register;
 import cs455.overlay.wireformats.RegisterResponse;
+import cs455.overlay.wireformats.RoutingTable;
 import cs455.overlay.wireformats.TaskInitiate;
 import cs455.overlay.wireformats.TaskSummaryRequest;
 import cs455.overlay.wireformats.TaskSummaryResponse;
@@ -51,20 +58,37 @@ public class Registry implements Node {
 
   private static final String SEND_LINK_WEIGHTS = "send-overlay-link-weights";
 
+  private static final String SEND_ROUTING_TABLES =
+      "send-overlay-routing-tables";
+
+  private static final String UPDATE_LINK_WEIGHT = "update-link-weight";
+
   private static final String LIST_WEIGHTS = "list-weights";
 
   private static final String HELP = "help";
 
   private static final String START = "start";
 
-  private Map<String, TCPConnection> connections = new HashMap<>();
+  private Map<String, Connection> connections = new HashMap<>();
 
   private List<TaskSummaryResponse> statisticsSummary = new ArrayList<>();
 
   private LinkWeights linkWeights = null;
 
+  private boolean routingTablesSent = false;
+
+  // Only the links of each node are sent to it, when the messaging
+  // nodes route by distance vector or flood their own link state
+  private boolean localLinks = Configuration
+      .get( Configuration.ROUTING_MODE, "source" ).equals( "distance-vector" )
+      || Configuration.get( Configuration.LINK_STATE, "false" )
+          .equals( "true" );
+
   private AtomicInteger receivedCompletedTasks = new AtomicInteger( 0 );
 
+  // Computes the routing tables, each time they are distributed
+  private ForkJoinPool pool = new ForkJoinPool();
+
   /**
    * Stands-up the registry as an entry point to the class.
    *
@@ -79,10 +103,10 @@ public class Registry implements Node {
 
     LOG.info( "Registry starting up at: " + new Date() );
     Registry registry = new Registry();
-    try ( ServerSocket serverSocket =
-        new ServerSocket( Integer.valueOf( args[ 0 ] ) ) )
+    try ( Transport.Listener listener =
+        new TCPTransport().listen( Integer.valueOf( args[ 0 ] ) ) )
     {
-      ( new Thread( new TCPServerThread( registry, serverSocket ) ) ).start();
+      listener.accept( registry );
 
       registry.interact();
 
@@ -104,47 +128,72 @@ public class Registry implements Node {
     Scanner scan = new Scanner( System.in );
     while ( true )
     {
-      String line = scan.nextLine().toLowerCase();
-      String[] input = line.split( "\\s+" );
-      switch ( input[ 0 ] )
-      {
-        case SETUP_OVERLAY :
-          setupOverlay( input );
-          break;
-
-        case SEND_LINK_WEIGHTS :
-          sendLinkWeights();
-          break;
-
-        case LIST_MSG_NODES :
-          displayMessagingNodes();
-          break;
-
-        case LIST_WEIGHTS :
-          displayLinkWeights();
-          break;
-
-        case START :
-          taskInitiate( input );
-          break;
-
-        case HELP :
-          displayHelpMessage();
-          break;
-
-        default :
-          LOG.error(
-              "Unable to process. Please enter a valid command! Input 'help' for options." );
-          break;
-      }
+      // Only the command is case insensitive, as arguments may include
+      // host names
+      String[] input = scan.nextLine().trim().split( "\\s+" );
+      command( input );
     }
   }
 
+  /**
+   * Process a command, as input while the processes are running.
+   *
+   * @param input the command followed by its arguments
+   */
+  void command(String[] input) {
+    switch ( input[ 0 ].toLowerCase() )
+    {
+      case SETUP_OVERLAY :
+        setupOverlay( input );
+        break;
+
+      case SEND_LINK_WEIGHTS :
+        sendLinkWeights();
+        break;
+
+      case SEND_ROUTING_TABLES :
+        sendRoutingTables();
+        break;
+
+      case UPDATE_LINK_WEIGHT :
+        updateLinkWeight( input );
+        break;
+
+      case LIST_MSG_NODES :
+        displayMessagingNodes();
+        break;
+
+      case LIST_WEIGHTS :
+        displayLinkWeights();
+        break;
+
+      case START :
+        taskInitiate( input );
+        break;
+
+      case HELP :
+        displayHelpMessage();
+        break;
+
+      default :
+        LOG.error(
+            "Unable to process. Please enter a valid command! Input 'help' for options." );
+        break;
+    }
+  }
+
+  /**
+   * @return The number of registered messaging nodes.
+   */
+  synchronized int numConnections() {
+    return connections.size();
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
-  public void onEvent(Event event, TCPConnection connection) {
+  public void onEvent(Event event, Connection connection) {
     LOG.debug( event.toString() );
     switch ( event.getType() )
     {
@@ -175,10 +224,10 @@ public class Registry implements Node {
    * @param register true to register new node, false to remove it
    */
   private synchronized void registrationHandler(Event event,
-      TCPConnection connection, final boolean register) {
+      Connection connection, final boolean register) {
     String nodeDetails = ( ( Register ) event ).getConnection();
-    String message = registerStatusMessage( nodeDetails, connection.getSocket()
-        .getInetAddress().getHostName().split( "\\." )[ 0 ], register );
+    String message = registerStatusMessage( nodeDetails,
+        connection.getRemoteHostName().split( "\\." )[ 0 ], register );
     byte status;
     if ( message.length() == 0 )
     {
@@ -204,7 +253,7 @@ public class Registry implements Node {
     RegisterResponse response = new RegisterResponse( status, message );
     try
     {
-      connection.getTCPSenderThread().sendData( response.getBytes() );
+      connection.send( response.getBytes() );
     } catch ( IOException | InterruptedException e )
     {
       LOG.error( e.getMessage() );
@@ -219,7 +268,7 @@ public class Registry implements Node {
    * 
    * @param nodeDetails the host:port from the event message (request)
    * @param connectionIP the remote socket IP address from the current
-   *        TCPConnection
+   *        Connection
    * @return a <code>String</code> containing the error message, or
    *         otherwise empty
    */
@@ -292,7 +341,9 @@ public class Registry implements Node {
    * topology has been created prior with <i>setup-overlay N</i>.
    * 
    * Once received, the client will compute the routing cache for the
-   * topology from each given node.
+   * topology from each given node. When the messaging nodes route by
+   * distance vector or link state, each is sent only the links it has an
+   * end of.
    */
   private void sendLinkWeights() {
     if ( linkWeights == null )
@@ -311,7 +362,9 @@ public class Registry implements Node {
     {
       try
       {
-        v.getTCPSenderThread().sendData( linkWeights.getBytes() );
+        v.send( localLinks
+            ? linkWeights.getLocalLinks( k ).getBytes()
+            : linkWeights.getBytes() );
       } catch ( IOException | InterruptedException e )
       {
         LOG.error(
@@ -324,6 +377,162 @@ public class Registry implements Node {
     linkWeights.setWeightsSent( true );
   }
 
+  /**
+   * Void method in charge of computing the routes for every connection
+   * in the overlay, and sending each only its own next hop table. This
+   * is an alternative to {@link #sendLinkWeights()}, where the shortest
+   * paths from every node are computed in parallel on the registry
+   * rather than once on each messaging node.
+   * 
+   * Once received, the client will forward messages hop-by-hop using
+   * the table.
+   */
+  private void sendRoutingTables() {
+    if ( linkWeights == null )
+    {
+      LOG.error(
+          "The overlay has not yet been configured, and there are no link weights." );
+      return;
+    }
+    if ( linkWeights.areWeightsSent() )
+    {
+      LOG.error(
+          "Link have already been delievered. Ready to initiate sending messages." );
+      return;
+    }
+    long start = System.currentTimeMillis();
+    int parallelism = distributeRoutingTables();
+    System.out.println( "\nOverlay Routing Tables have been computed in "
+        + ( System.currentTimeMillis() - start ) + " ms with (" + parallelism
+        + ") threads, and sent to the (" + connections.size()
+        + ") connections in the network.\n" );
+    linkWeights.setWeightsSent( true );
+    routingTablesSent = true;
+  }
+
+  /**
+   * Compute the next hop table of every connection from the current
+   * link weights in parallel, and send each table as it completes.
+   * 
+   * The tables are sent to a copy of the connections, as nodes may
+   * register or deregister while they are computed.
+   * 
+   * @return The number of threads the tables were computed with.
+   */
+  private int distributeRoutingTables() {
+    NodeIndex nodes = new NodeIndex();
+    Graph graph = Graph.fromLinks( linkWeights.getLinks(), nodes );
+    String[] identifiers = new String[ nodes.size() ];
+    for ( int i = 0; i < identifiers.length; ++i )
+    {
+      identifiers[ i ] = nodes.get( i );
+    }
+
+    Map<String, Connection> targets;
+    synchronized ( this )
+    {
+      targets = new HashMap<>( connections );
+    }
+    RoutingCache.buildNextHopTables( graph, pool, (source, nextHops) ->
+    {
+      Connection connection = targets.get( identifiers[ source ] );
+      if ( connection == null )
+      {
+        LOG.error( identifiers[ source ] + " is no longer registered. "
+            + "Unable to send routing table." );
+        return;
+      }
+      RoutingTable table = new RoutingTable( identifiers, source, nextHops );
+      try
+      {
+        connection.send( table.getBytes() );
+      } catch ( IOException | InterruptedException e )
+      {
+        LOG.error( e.getMessage() + "\nUnable to send routing table to "
+            + identifiers[ source ] + "." );
+      }
+    } );
+    return pool.getParallelism();
+  }
+
+  /**
+   * Change the weight of a link in the overlay with the
+   * <b>update-link-weight host:port host:port weight</b> command.
+   * 
+   * If the link weights have not been sent yet, the new weight is sent
+   * with them. Otherwise, only the changed link is sent to the
+   * messaging nodes so that each may repair its own routes. If the
+   * routes were computed by the registry, the routing tables are
+   * recomputed and sent again instead. When the messaging nodes route
+   * by distance vector, the changed link is only sent to its two ends.
+   * 
+   * @param input foreground command from scanner input.
+   */
+  private void updateLinkWeight(String[] input) {
+    if ( linkWeights == null )
+    {
+      LOG.error(
+          "The overlay has not yet been configured, and there are no link weights." );
+      return;
+    }
+    int weight;
+    try
+    {
+      weight = Integer.parseInt( input[ 3 ] );
+    } catch ( ArrayIndexOutOfBoundsException | NumberFormatException e )
+    {
+      LOG.error( "USAGE: update-link-weight host:port host:port weight" );
+      return;
+    }
+    if ( weight < 1 )
+    {
+      LOG.error( "The weight of a link must be a positive number." );
+      return;
+    }
+    if ( !linkWeights.setWeight( input[ 1 ], input[ 2 ], weight ) )
+    {
+      LOG.error( "There is no link between " + input[ 1 ] + " and "
+          + input[ 2 ] + " in the overlay." );
+      return;
+    }
+    if ( !linkWeights.areWeightsSent() )
+    {
+      System.out.println( "\nThe link weight has been changed, and will be "
+          + "sent with the overlay link weights.\n" );
+      return;
+    }
+    if ( routingTablesSent )
+    {
+      distributeRoutingTables();
+      System.out.println( "\nOverlay Routing Tables have been recomputed "
+          + "and sent to the (" + connections.size()
+          + ") connections in the network.\n" );
+      return;
+    }
+    LinkWeightUpdate update = new LinkWeightUpdate( new String[] {
+        input[ 1 ] + " " + input[ 2 ] + " " + Integer.toString( weight ) } );
+    connections.forEach( (k, v) ->
+    {
+      if ( localLinks && !k.equals( input[ 1 ] )
+          && !k.equals( input[ 2 ] ) )
+      {
+        return;
+      }
+      try
+      {
+        v.send( update.getBytes() );
+      } catch ( IOException | InterruptedException e )
+      {
+        LOG.error( e.getMessage()
+            + "\nUnable to send link weight update to connection." );
+        return;
+      }
+    } );
+    System.out.println( "\nThe link weight update has been sent to the ("
+        + ( localLinks ? 2 : connections.size() )
+        + ") connections in the network.\n" );
+  }
+
   /**
    * Each node in the overlay will be responsible for sending N rounds
    * of messages. The number of rounds is specified from the command
@@ -376,7 +585,7 @@ public class Registry implements Node {
     {
       try
       {
-        v.getTCPSenderThread().sendData( startTask.getBytes() );
+        v.send( startTask.getBytes() );
       } catch ( IOException | InterruptedException e )
       {
         LOG.error( e.getMessage() );
@@ -396,37 +605,48 @@ public class Registry implements Node {
    * then wait for a few seconds, to ensure all transit messages are
    * delivered. Then request to pull a traffic summary.
    * 
-   * @param event
+   * The count is atomic, so only the last task to complete waits, and
+   * it waits on a thread of its own, so that the thread receiving
+   * events, which may be an event loop shared with the other
+   * connections, is not held for the wait.
    */
-  private synchronized void completedTaskHandler() {
-    receivedCompletedTasks.getAndIncrement();
-    LOG.debug( "TASK HANDLER: " + receivedCompletedTasks.toString() + " , "
+  private void completedTaskHandler() {
+    int completed = receivedCompletedTasks.incrementAndGet();
+    LOG.debug( "TASK HANDLER: " + Integer.toString( completed ) + " , "
         + Integer.toString( connections.size() ) );
-    if ( receivedCompletedTasks.get() == connections.size() )
+    if ( completed == connections.size() )
+    {
+      receivedCompletedTasks.set( 0 );
+      ( new Thread( this::pullTrafficSummaries ) ).start();
+    }
+  }
+
+  /**
+   * Wait for the messages in transit to be received, then request a
+   * traffic summary from every messaging node.
+   */
+  private void pullTrafficSummaries() {
+    try
+    {
+      // Sleep for 15 seconds to allow all messages to be received.
+      TimeUnit.SECONDS.sleep( 15 );
+    } catch ( InterruptedException e )
+    {
+      LOG.error( "Unable to sleep thread: " + e.getMessage() );
+    }
+    connections.forEach( (k, connection) ->
     {
+      TaskSummaryRequest request = new TaskSummaryRequest();
       try
       {
-        // Sleep for 15 seconds to allow all messages to be received.
-        TimeUnit.SECONDS.sleep( 15 );
-      } catch ( InterruptedException e )
+        connection.send( request.getBytes() );
+      } catch ( IOException | InterruptedException e )
       {
-        LOG.error( "Unable to sleep thread: " + e.getMessage() );
+        LOG.error(
+            e.getMessage() + "\nUnable to send link weights to connection." );
+        return;
       }
-      connections.forEach( (k, connection) ->
-      {
-        TaskSummaryRequest request = new TaskSummaryRequest();
-        try
-        {
-          connection.getTCPSenderThread().sendData( request.getBytes() );
-        } catch ( IOException | InterruptedException e )
-        {
-          LOG.error(
-              e.getMessage() + "\nUnable to send link weights to connection." );
-          return;
-        }
-      } );
-      receivedCompletedTasks.set( 0 );
-    }
+    } );
   }
 
   /**
@@ -491,6 +711,8 @@ public class Registry implements Node {
             + "\tsetup-overlay k\t\t\t: setup a k-regular graph of order N.\n\n"
             + "\tlist-weights\t\t\t: display the link weights associated with the network topology.\n\n"
             + "\tsend-overlay-link-weights\t: send the topology overlay weights to the connected nodes.\n\n"
+            + "\tsend-overlay-routing-tables\t: compute the routes for every node, and send each its next hops.\n\n"
+            + "\tupdate-link-weight a b w\t: change the weight of the link between nodes a and b to w.\n\n"
             + "\tstart r\t\t\t\t: notify the connected nodes to initialize r rounds of message sending.\n" );
   }
 }
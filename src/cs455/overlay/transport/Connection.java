@@ -0,0 +1,71 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import cs455.overlay.node.Node;
+import cs455.overlay.util.BufferPool;
+import cs455.overlay.wireformats.Event;
+
+/**
+ * One end of a connection between two nodes, as returned by a
+ * {@link Transport} and passed with each message to
+ * {@link Node#onEvent(Event, Connection)}.
+ *
+ * The nodes only send, close and check the congestion of a connection
+ * through this interface, so the {@link TCPConnection} and the
+ * {@link LoopbackConnection} each implement it without sharing the
+ * sockets and threads of the other.
+ *
+ * @author stock
+ *
+ */
+public interface Connection {
+
+  /**
+   * Send an encoded event to the other end, waiting if necessary for
+   * space to queue it. The connection owns the buffer from then on,
+   * and releases it once it is sent.
+   *
+   * @param data from the {@link BufferPool} with the bytes between its
+   *        position and limit, such as from {@link Event#encode()}
+   * @throws InterruptedException
+   */
+  public void send(ByteBuffer data) throws InterruptedException;
+
+  /**
+   * Copy the data to a pooled buffer and send it to the other end.
+   *
+   * @param data the marshalled bytes of an event
+   * @throws InterruptedException
+   */
+  public default void send(byte[] data) throws InterruptedException {
+    send( BufferPool.acquire( data.length ).put( data ).flip() );
+  }
+
+  /**
+   * Check if the queue of the connection is full, such that sending
+   * more data would wait for the connection to catch up.
+   *
+   * @return true if there is no space left in the queue, false
+   *         otherwise.
+   */
+  public boolean isCongested();
+
+  /**
+   * @return The host name of the other end of the connection.
+   */
+  public String getRemoteHostName();
+
+  /**
+   * Allow the connection to start receiving messages.
+   */
+  public void start();
+
+  /**
+   * Close the connection, once the messages already sent are sent.
+   *
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public void close() throws IOException, InterruptedException;
+}
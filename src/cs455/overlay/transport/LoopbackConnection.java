@@ -0,0 +1,193 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import cs455.overlay.node.Node;
+import cs455.overlay.util.BufferPool;
+import cs455.overlay.util.Logger;
+import cs455.overlay.wireformats.EventFactory;
+
+/**
+ * One end of a connection between two nodes in the same process, made
+ * by the {@link LoopbackTransport}.
+ *
+ * A message sent from one end is queued, in the buffer it was encoded
+ * into, on the other end, whose virtual thread decodes it in place and
+ * passes it to its node. Nothing is copied or written to a socket, so
+ * an overlay run this way measures the cost of routing and relaying
+ * alone.
+ *
+ * As with the TCPSenderThread, a full queue makes the sending thread
+ * wait, except on a thread delivering messages, which may be relaying
+ * a message to a connection whose own thread is relaying to it. Such a
+ * thread queues the message regardless, rather than wait on a cycle of
+ * full queues.
+ *
+ * @author stock
+ *
+ */
+public class LoopbackConnection implements Connection {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private final static Logger LOG = new Logger( true, false );
+
+  private static final int QUEUE_SIZE = 1000;
+
+  // Queued to stop the thread delivering messages
+  private static final ByteBuffer CLOSED = ByteBuffer.allocate( 0 );
+
+  // Set on the threads delivering messages, which never wait
+  private static final ThreadLocal<Boolean> delivering = new ThreadLocal<>();
+
+  private Node node;
+
+  // The other end, which messages sent from this end are queued on
+  private LoopbackConnection peer;
+
+  // The messages sent from the other end, not yet delivered
+  private LinkedBlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
+
+  private volatile boolean closed;
+
+  /**
+   * Default constructor - one end of a connection, to be linked to the
+   * other with {@link #link(LoopbackConnection, LoopbackConnection)}.
+   *
+   * @param node to handle the messages received on this end
+   */
+  LoopbackConnection(Node node) {
+    this.node = node;
+  }
+
+  /**
+   * Link the two ends of a connection, so each sends to the other.
+   */
+  static void link(LoopbackConnection a, LoopbackConnection b) {
+    a.peer = b;
+    b.peer = a;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Every node of the transport is on this host.
+   */
+  @Override
+  public String getRemoteHostName() {
+    return "localhost";
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The message is queued on the other end, in the same buffer.
+   */
+  @Override
+  public void send(ByteBuffer data) throws InterruptedException {
+    peer.receive( data );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isCongested() {
+    return peer.queue.size() >= QUEUE_SIZE;
+  }
+
+  /**
+   * Start delivering the messages sent from the other end, on a virtual
+   * thread.
+   */
+  @Override
+  public void start() {
+    Thread.ofVirtual().start( this::deliver );
+  }
+
+  /**
+   * Stop delivering messages on both ends, once those already sent are
+   * delivered.
+   */
+  @Override
+  public void close() {
+    close( this );
+    close( peer );
+  }
+
+  private static void close(LoopbackConnection end) {
+    end.closed = true;
+    end.queue.offer( CLOSED );
+    synchronized ( end )
+    {
+      end.notifyAll();
+    }
+  }
+
+  /**
+   * Queue a message sent from the other end.
+   */
+  private void receive(ByteBuffer data) throws InterruptedException {
+    if ( delivering.get() == null )
+    {
+      synchronized ( this )
+      {
+        while ( queue.size() >= QUEUE_SIZE && !closed )
+        {
+          wait();
+        }
+      }
+    }
+    if ( closed )
+    {
+      BufferPool.release( data );
+      LOG.error( "Unable to send data, the connection is closed." );
+      return;
+    }
+    queue.offer( data );
+  }
+
+  /**
+   * Pass each message sent from the other end to the node, until the
+   * connection is closed.
+   */
+  private void deliver() {
+    delivering.set( Boolean.TRUE );
+    while ( true )
+    {
+      ByteBuffer data;
+      try
+      {
+        data = queue.take();
+      } catch ( InterruptedException e )
+      {
+        LOG.error( e.getMessage() );
+        break;
+      }
+      if ( data == CLOSED )
+      {
+        break;
+      }
+      if ( queue.size() == QUEUE_SIZE - 1 )
+      {
+        synchronized ( this )
+        {
+          notifyAll();
+        }
+      }
+      try
+      {
+        node.onEvent( EventFactory.getInstance().createEvent( data ), this );
+      } catch ( IOException e )
+      {
+        LOG.error( e.getMessage() );
+      } finally
+      {
+        BufferPool.release( data );
+      }
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import cs455.overlay.node.Node;
+
+/**
+ * Connects nodes within a single process, with a
+ * {@link LoopbackConnection} in place of each socket, so an overlay of
+ * thousands of nodes can be run in one process without the cost or
+ * noise of the network.
+ *
+ * Every node that shares a transport is on the same host, so a
+ * connection is made to the node listening on the port whatever the
+ * host is.
+ *
+ * @author stock
+ *
+ */
+public class LoopbackTransport implements Transport {
+
+  // The first port given to a listener that asks for any free port
+  private static final int FIRST_PORT = 1024;
+
+  private Map<Integer, LoopbackListener> listeners =
+      new ConcurrentHashMap<>();
+
+  private AtomicInteger nextPort = new AtomicInteger( FIRST_PORT );
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Listener listen(int port) throws IOException {
+    if ( port != 0 )
+    {
+      LoopbackListener listener = new LoopbackListener( port );
+      if ( listeners.putIfAbsent( port, listener ) != null )
+      {
+        throw new BindException( "Port " + port + " is already in use." );
+      }
+      return listener;
+    }
+    while ( true )
+    {
+      LoopbackListener listener =
+          new LoopbackListener( nextPort.getAndIncrement() );
+      if ( listeners.putIfAbsent( listener.port, listener ) == null )
+      {
+        return listener;
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Connection connect(Node node, String host, int port)
+      throws IOException {
+    LoopbackListener listener = listeners.get( port );
+    if ( listener == null || listener.node == null )
+    {
+      throw new ConnectException( "Connection refused to port " + port );
+    }
+    LoopbackConnection local = new LoopbackConnection( node );
+    LoopbackConnection remote = new LoopbackConnection( listener.node );
+    LoopbackConnection.link( local, remote );
+    remote.start();
+    return local;
+  }
+
+  /**
+   * A port of the transport, accepting connections once it has a node.
+   */
+  private class LoopbackListener implements Listener {
+
+    private int port;
+
+    private volatile Node node;
+
+    private LoopbackListener(int port) {
+      this.port = port;
+    }
+
+    @Override
+    public int getPort() {
+      return port;
+    }
+
+    @Override
+    public void accept(Node node) {
+      this.node = node;
+    }
+
+    @Override
+    public void close() {
+      listeners.remove( port, this );
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package cs455.overlay.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import cs455.overlay.node.Node;
+
+/**
+ * Reads the messages of a non-blocking connection on its
+ * {@link TCPEventLoop}, in place of a TCPReceiverThread.
+ *
+ * Whatever has arrived is read into a {@link TCPFrameBuffer}, and
+ * every complete message in it is handled in place.
+ *
+ * @author stock
+ *
+ */
+public class TCPChannelReceiver {
+
+  private Node node;
+
+  private SocketChannel channel;
+
+  private TCPConnection connection;
+
+  private TCPFrameBuffer frames = new TCPFrameBuffer();
+
+  /**
+   * Default constructor - Initialize the receiver with the node to
+   * handle the messages of the channel.
+   *
+   * @param node
+   * @param channel
+   * @param connection
+   */
+  public TCPChannelReceiver(Node node, SocketChannel channel,
+      TCPConnection connection) {
+    this.node = node;
+    this.channel = channel;
+    this.connection = connection;
+  }
+
+  /**
+   * Read what has arrived on the channel, and handle each complete
+   * message.
+   *
+   * @throws IOException if the channel is closed, or a message length
+   *         is invalid
+   */
+  void read() throws IOException {
+    if ( channel.read( frames.reserve() ) < 0 )
+    {
+      throw new EOFException( "Connection is closed by the peer." );
+    }
+    frames.dispatch( node, connection );
+  }
+
+  /**
+   * Return the buffer to the pool, discarding any partial message.
+   */
+  void release() {
+    frames.release();
+  }
+}
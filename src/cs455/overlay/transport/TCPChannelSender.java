@@ -0,0 +1,242 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import cs455.overlay.util.BufferPool;
+import cs455.overlay.util.Logger;
+
+/**
+ * Sends the messages of a non-blocking connection from its
+ * {@link TCPEventLoop}, in place of a running TCPSenderThread.
+ *
+ * Messages may be sent from any thread, and are queued until the loop
+ * writes them. The loop copies as many queued messages as fit, each
+ * with its length, into a single buffer and writes them together. If
+ * the channel cannot take all of it, the rest is written when the
+ * channel is ready again.
+ *
+ * As with the TCPSenderThread, a full queue makes the sending thread
+ * wait, except on an event loop, which queues the message regardless
+ * rather than wait on a connection it may itself be draining.
+ *
+ * @author stock
+ *
+ */
+public class TCPChannelSender implements Runnable {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private final static Logger LOG = new Logger( true, false );
+
+  private static final int QUEUE_SIZE = 1000;
+
+  // The size of the buffer for a write, unless a message is larger
+  private static final int WRITE_SIZE = 16 * 1024;
+
+  private SocketChannel channel;
+
+  private TCPEventLoop loop;
+
+  private Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+
+  // The number of messages queued and not yet copied to be written
+  private AtomicInteger pending = new AtomicInteger();
+
+  // Whether a write is queued on the loop
+  private AtomicBoolean flushing = new AtomicBoolean();
+
+  private Runnable flush = this::run;
+
+  private volatile boolean closed;
+
+  // The following are only used on the loop
+
+  private SelectionKey key;
+
+  // Messages copied and not yet written, or null
+  private ByteBuffer out;
+
+  /**
+   * Default constructor - Initialize the sender for the channel, to be
+   * written from the loop.
+   *
+   * @param channel
+   * @param loop
+   */
+  public TCPChannelSender(SocketChannel channel, TCPEventLoop loop) {
+    this.channel = channel;
+    this.loop = loop;
+  }
+
+  /**
+   * Queue a pooled buffer to be written from the loop, waiting if
+   * necessary for space to become available. The sender owns the
+   * buffer from then on, and releases it once written.
+   *
+   * @param data with the bytes between its position and limit
+   * @throws InterruptedException
+   */
+  public void sendData(final ByteBuffer data) throws InterruptedException {
+    synchronized ( this )
+    {
+      while ( !TCPEventLoop.inEventLoop() && pending.get() >= QUEUE_SIZE
+          && !closed )
+      {
+        wait();
+      }
+      // the check and the offer are under the lock release() drains
+      // the queue with, so a buffer can not be queued after the drain
+      if ( closed )
+      {
+        BufferPool.release( data );
+        LOG.error( "Unable to send data, the connection is closed." );
+        return;
+      }
+      pending.incrementAndGet();
+      queue.offer( data );
+    }
+    if ( flushing.compareAndSet( false, true ) )
+    {
+      loop.execute( flush );
+    }
+  }
+
+  /**
+   * @return true if the queue is full, such that sending more data
+   *         would wait for the loop to write it, false otherwise.
+   */
+  public boolean isCongested() {
+    return pending.get() >= QUEUE_SIZE;
+  }
+
+  /**
+   * Write the queued messages, as a task on the loop.
+   *
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    try
+    {
+      write();
+    } catch ( IOException e )
+    {
+      LOG.debug( "Closing connection... " + e );
+      loop.close( ( TCPConnection ) key.attachment() );
+    }
+  }
+
+  /**
+   * Set the key of the channel once it is registered with the loop.
+   */
+  void attach(SelectionKey key) {
+    this.key = key;
+  }
+
+  /**
+   * Write as much of the queued messages as the channel will take, and
+   * wait for the channel to be ready for the rest.
+   *
+   * @throws IOException if the channel cannot be written
+   */
+  void write() throws IOException {
+    flushing.set( false );
+    if ( key == null || !key.isValid() )
+    {
+      return;
+    }
+    while ( true )
+    {
+      if ( out == null || !out.hasRemaining() )
+      {
+        if ( queue.isEmpty() )
+        {
+          break;
+        }
+        fill();
+      }
+      channel.write( out );
+      if ( out.hasRemaining() )
+      {
+        break;
+      }
+    }
+    boolean remaining = out != null && out.hasRemaining();
+    if ( !remaining && out != null )
+    {
+      BufferPool.release( out );
+      out = null;
+    }
+    int ops = remaining ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+        : SelectionKey.OP_READ;
+    if ( key.interestOps() != ops )
+    {
+      key.interestOps( ops );
+    }
+  }
+
+  /**
+   * Copy queued messages, each with its length, to the write buffer
+   * until the next does not fit.
+   */
+  private void fill() {
+    int first = Integer.BYTES + queue.peek().remaining();
+    if ( out == null || out.capacity() < first )
+    {
+      if ( out != null )
+      {
+        BufferPool.release( out );
+      }
+      out = BufferPool.acquire( Math.max( WRITE_SIZE, first ) );
+    }
+    out.clear();
+    int copied = 0;
+    ByteBuffer data;
+    while ( ( data = queue.peek() ) != null
+        && out.remaining() >= Integer.BYTES + data.remaining() )
+    {
+      queue.poll();
+      out.putInt( data.remaining() ).put( data );
+      BufferPool.release( data );
+      ++copied;
+    }
+    out.flip();
+    if ( pending.getAndAdd( -copied ) >= QUEUE_SIZE )
+    {
+      synchronized ( this )
+      {
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Discard the queued messages once the channel is closed, and wake
+   * any thread waiting to send.
+   */
+  void release() {
+    synchronized ( this )
+    {
+      closed = true;
+      ByteBuffer data;
+      while ( ( data = queue.poll() ) != null )
+      {
+        BufferPool.release( data );
+      }
+      notifyAll();
+    }
+    if ( out != null )
+    {
+      BufferPool.release( out );
+      out = null;
+    }
+  }
+}
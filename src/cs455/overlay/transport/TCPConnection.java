@@ -1,18 +1,38 @@
 package cs455.overlay.transport;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.TimeUnit;
 import cs455.overlay.node.Node;
+import cs455.overlay.util.Configuration;
 
 /**
  * This class is used to establish a connection by starting a new
- * TCPSenderThread and TCPReceiverThread.
- * 
+ * TCPSenderThread and TCPReceiverThread, on platform or virtual
+ * threads.
+ *
+ * If the socket is backed by a channel, as those opened with
+ * {@link #openSocket(String, int)} and accepted from
+ * {@link #openServerSocket(int)} are in the <b>nio</b>
+ * {@link Configuration#TRANSPORT}, the connection is instead handled
+ * on a shared {@link TCPEventLoop} and starts no threads of its own.
+ *
+ * A {@link LoopbackConnection} has no socket at all, and queues its
+ * messages on the other end of the connection in the same process.
+ * Both are used by the nodes only as a {@link Connection}.
+ *
  * @author stock
  *
  */
-public class TCPConnection {
+public final class TCPConnection implements Connection {
+
+  // Connections waiting to be accepted, limited by the host
+  private static final int BACKLOG = 1024;
 
   private Socket socket;
 
@@ -20,23 +40,87 @@ public class TCPConnection {
 
   private TCPReceiverThread receiver;
 
+  private TCPChannelSender channelSender;
+
+  private TCPChannelReceiver channelReceiver;
+
+  private TCPEventLoop loop;
+
   /**
    * Default constructor - create a new TCPConnection given a Node,
    * i.e., MessageNode or Registry, and the socket for the connection.
-   * 
+   *
    * @param node
    * @param socket
    * @throws IOException
    */
   public TCPConnection(Node node, Socket socket) throws IOException {
     this.socket = socket;
-    this.sender = new TCPSenderThread( this.socket );
-    this.receiver = new TCPReceiverThread( node, this.socket, this );
+    SocketChannel channel = socket.getChannel();
+    if ( channel != null )
+    {
+      this.loop = TCPEventLoop.assign();
+      this.channelSender = new TCPChannelSender( channel, loop );
+      this.channelReceiver = new TCPChannelReceiver( node, channel, this );
+    } else
+    {
+      this.sender = new TCPSenderThread( this.socket );
+      this.receiver = new TCPReceiverThread( node, this.socket, this );
+    }
+  }
+
+  /**
+   * Open a socket to the host, backed by a channel if the
+   * {@link Configuration#TRANSPORT} is <b>nio</b>.
+   *
+   * @param host
+   * @param port
+   * @return The connected socket.
+   * @throws IOException
+   */
+  public static Socket openSocket(String host, int port) throws IOException {
+    if ( isNonBlocking() )
+    {
+      return SocketChannel.open( new InetSocketAddress( host, port ) )
+          .socket();
+    }
+    return new Socket( host, port );
+  }
+
+  /**
+   * Listen on the port, with a server socket backed by a channel if the
+   * {@link Configuration#TRANSPORT} is <b>nio</b>, so the sockets it
+   * accepts are too. The backlog is large enough for every messaging
+   * node of an overlay to connect to the registry at once, rather than
+   * wait for their connections to be retried.
+   *
+   * @param port to listen on, or 0 for any free port
+   * @return The bound server socket.
+   * @throws IOException
+   */
+  public static ServerSocket openServerSocket(int port) throws IOException {
+    if ( isNonBlocking() )
+    {
+      ServerSocketChannel channel = ServerSocketChannel.open();
+      channel.bind( new InetSocketAddress( port ), BACKLOG );
+      return channel.socket();
+    }
+    return new ServerSocket( port, BACKLOG );
+  }
+
+  private static boolean isNonBlocking() {
+    return Configuration.get( Configuration.TRANSPORT, "threads" )
+        .equals( "nio" );
+  }
+
+  private static boolean isVirtual() {
+    return Configuration.get( Configuration.TRANSPORT, "threads" )
+        .equals( "virtual" );
   }
 
   /**
    * Get the Socket for the connection to verify Inet information
-   * 
+   *
    * @return the socket for the connection.
    */
   public Socket getSocket() {
@@ -44,34 +128,90 @@ public class TCPConnection {
   }
 
   /**
-   * Get the TCPSenderThread so the client or server can send a message
-   * over the socket
-   * 
-   * @return the TCPSenderThread instance that was instantiated during
-   *         the {@link #run()} method of the new thread.
+   * {@inheritDoc}
+   */
+  @Override
+  public String getRemoteHostName() {
+    return this.socket.getInetAddress().getHostName();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * The message is queued on the TCPSenderThread, or on the
+   * TCPChannelSender of a connection handled on an event loop.
+   */
+  @Override
+  public void send(ByteBuffer data) throws InterruptedException {
+    if ( channelSender != null )
+    {
+      channelSender.sendData( data );
+    } else
+    {
+      sender.sendData( data );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isCongested() {
+    return channelSender != null ? channelSender.isCongested()
+        : sender.isCongested();
+  }
+
+  /**
+   * @return The sender of a connection handled on an event loop, or
+   *         null.
+   */
+  TCPChannelSender getChannelSender() {
+    return this.channelSender;
+  }
+
+  /**
+   * @return The receiver of a connection handled on an event loop, or
+   *         null.
    */
-  public TCPSenderThread getTCPSenderThread() {
-    return this.sender;
+  TCPChannelReceiver getChannelReceiver() {
+    return this.channelReceiver;
   }
 
   /**
-   * Allow the TCPConnection to start receiving messages.
-   * 
+   * Allow the TCPConnection to start receiving messages. The sender and
+   * receiver run on virtual threads if the
+   * {@link Configuration#TRANSPORT} is <b>virtual</b>, so that blocking
+   * on the socket or the queue does not hold a platform thread.
+   *
    */
+  @Override
   public void start() {
-    ( new Thread( this.receiver ) ).start();
-    ( new Thread( this.sender ) ).start();
+    if ( loop != null )
+    {
+      loop.register( this );
+      return;
+    }
+    Thread.Builder builder =
+        isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform();
+    builder.start( this.receiver );
+    builder.start( this.sender );
   }
 
   /**
    * Close the socket sender and receiver. Use a one second wait to
    * ensure all remaining messages are sent.
-   * 
+   *
    * @throws IOException
    * @throws InterruptedException
    */
+  @Override
   public void close() throws IOException, InterruptedException {
     TimeUnit.SECONDS.sleep( 1 );
+    if ( loop != null )
+    {
+      loop.close( this );
+      return;
+    }
     this.socket.close();
     this.sender.dout.close();
     this.receiver.din.close();
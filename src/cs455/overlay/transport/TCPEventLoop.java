@@ -0,0 +1,224 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import cs455.overlay.util.Configuration;
+import cs455.overlay.util.Logger;
+
+/**
+ * A thread that drives the reads and writes of many connections with a
+ * single <code>Selector</code>, in place of a TCPSenderThread and
+ * TCPReceiverThread for each connection.
+ *
+ * A fixed number of loops, set by {@link Configuration#TRANSPORT_THREADS},
+ * are started with the first connection, and connections are assigned
+ * to them in turn. Every event of a connection is handled on its loop,
+ * so the {@link TCPChannelReceiver} and the writing side of the
+ * {@link TCPChannelSender} need no locks. Other threads hand work to
+ * a loop with {@link #execute(Runnable)}.
+ *
+ * @author stock
+ *
+ */
+public class TCPEventLoop implements Runnable {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private final static Logger LOG = new Logger( true, false );
+
+  private static TCPEventLoop[] loops;
+
+  private static int next;
+
+  // The loop running on the current thread, if any
+  private static final ThreadLocal<TCPEventLoop> current =
+      new ThreadLocal<>();
+
+  private Selector selector;
+
+  private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Default constructor - open the selector for the loop.
+   *
+   * @throws IOException
+   */
+  private TCPEventLoop() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Assign a new connection to the next event loop, starting the loops
+   * if this is the first connection.
+   *
+   * @return The event loop the connection is to be handled on.
+   * @throws IOException if the loops cannot be started
+   */
+  public static synchronized TCPEventLoop assign() throws IOException {
+    if ( loops == null )
+    {
+      int threads = Math.max( 1, Configuration.getInt(
+          Configuration.TRANSPORT_THREADS,
+          Runtime.getRuntime().availableProcessors() ) );
+      TCPEventLoop[] started = new TCPEventLoop[ threads ];
+      for ( int i = 0; i < threads; ++i )
+      {
+        started[ i ] = new TCPEventLoop();
+        ( new Thread( started[ i ], "TCPEventLoop-" + i ) ).start();
+      }
+      loops = started;
+    }
+    TCPEventLoop loop = loops[ next ];
+    next = ( next + 1 ) % loops.length;
+    return loop;
+  }
+
+  /**
+   * @return true if the calling thread is an event loop, which must
+   *         never wait for a connection to drain.
+   */
+  public static boolean inEventLoop() {
+    return current.get() != null;
+  }
+
+  /**
+   * Run a task on the loop, after any tasks already given to it.
+   *
+   * @param task to run on the loop thread
+   */
+  public void execute(Runnable task) {
+    tasks.offer( task );
+    selector.wakeup();
+  }
+
+  /**
+   * Register the channel of a connection with the loop, to be read from
+   * as data arrives. Any data sent before then is written once the
+   * channel is registered.
+   *
+   * @param connection backed by a socket channel
+   */
+  void register(TCPConnection connection) {
+    execute( () ->
+    {
+      SocketChannel channel = connection.getSocket().getChannel();
+      try
+      {
+        channel.configureBlocking( false );
+        SelectionKey key =
+            channel.register( selector, SelectionKey.OP_READ, connection );
+        TCPChannelSender sender = connection.getChannelSender();
+        sender.attach( key );
+        sender.write();
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to register connection. " + e.getMessage() );
+        close( connection );
+      }
+    } );
+  }
+
+  /**
+   * Close the channel of a connection, and return its buffers to the
+   * pool.
+   *
+   * @param connection registered with this loop
+   */
+  void close(TCPConnection connection) {
+    if ( current.get() != this )
+    {
+      execute( () -> close( connection ) );
+      return;
+    }
+    SocketChannel channel = connection.getSocket().getChannel();
+    SelectionKey key = channel.keyFor( selector );
+    if ( key != null )
+    {
+      key.cancel();
+    }
+    try
+    {
+      channel.close();
+    } catch ( IOException e )
+    {
+      LOG.error( e.getMessage() );
+    }
+    connection.getChannelSender().release();
+    connection.getChannelReceiver().release();
+  }
+
+  /**
+   * Wait for connections to be ready, then read from or write to each of
+   * them, and run the tasks given to the loop in between.
+   *
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    current.set( this );
+    while ( selector.isOpen() )
+    {
+      try
+      {
+        runTasks();
+        selector.select();
+        runTasks();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while ( keys.hasNext() )
+        {
+          SelectionKey key = keys.next();
+          keys.remove();
+          handle( key );
+        }
+      } catch ( IOException e )
+      {
+        LOG.error( "Event loop is stopping. " + e.getMessage() );
+        break;
+      }
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ( ( task = tasks.poll() ) != null )
+    {
+      try
+      {
+        task.run();
+      } catch ( RuntimeException e )
+      {
+        LOG.error( "Event loop task failed. " + e );
+      }
+    }
+  }
+
+  /**
+   * Read from or write to a ready connection, and close it if either
+   * fails, so one connection cannot stop the others on the loop.
+   */
+  private void handle(SelectionKey key) {
+    TCPConnection connection = ( TCPConnection ) key.attachment();
+    try
+    {
+      if ( key.isReadable() )
+      {
+        connection.getChannelReceiver().read();
+      }
+      if ( key.isValid() && key.isWritable() )
+      {
+        connection.getChannelSender().write();
+      }
+    } catch ( IOException | RuntimeException e )
+    {
+      LOG.debug( "Closing connection... " + e );
+      close( connection );
+    }
+  }
+}
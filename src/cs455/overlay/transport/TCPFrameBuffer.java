@@ -0,0 +1,121 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import cs455.overlay.node.Node;
+import cs455.overlay.util.BufferPool;
+import cs455.overlay.util.Configuration;
+import cs455.overlay.wireformats.Event;
+import cs455.overlay.wireformats.EventFactory;
+
+/**
+ * The bytes received on a connection, split into messages of a length
+ * then that many bytes, however the reads divide them.
+ *
+ * Each read fills a buffer from the {@link BufferPool} with as much as
+ * has arrived, and every complete message in it is passed to the
+ * {@link EventFactory} as a view of the buffer, without being copied.
+ * A partial message is kept for the next read, and the buffer is grown
+ * if the message is larger than it. The buffer is released whenever no
+ * partial message is left, so an idle connection holds none.
+ *
+ * A length larger than {@link Configuration#MAX_FRAME} fails the
+ * connection, so a corrupt length cannot allocate the memory it
+ * claims.
+ *
+ * @author stock
+ *
+ */
+class TCPFrameBuffer {
+
+  // The size of the buffer for a read, unless a message is larger
+  private static final int READ_SIZE = 16 * 1024;
+
+  private static final int DEFAULT_MAX_FRAME = 64 * 1024 * 1024;
+
+  private int maxFrame;
+
+  // Holds the partial message between reads, or null
+  private ByteBuffer in;
+
+  /**
+   * Default constructor - an empty buffer for a connection.
+   */
+  TCPFrameBuffer() {
+    this.maxFrame =
+        Configuration.getInt( Configuration.MAX_FRAME, DEFAULT_MAX_FRAME );
+  }
+
+  /**
+   * @return The buffer to read into, positioned after any partial
+   *         message, with space remaining.
+   */
+  ByteBuffer reserve() {
+    if ( in == null )
+    {
+      in = BufferPool.acquire( READ_SIZE );
+    }
+    return in;
+  }
+
+  /**
+   * Handle each complete message read into the buffer, and keep the
+   * rest for the next read.
+   *
+   * @param node to handle the events
+   * @param connection the messages were received on
+   * @throws IOException if a message length is negative or larger than
+   *         the limit, or a message cannot be decoded
+   */
+  void dispatch(Node node, TCPConnection connection) throws IOException {
+    in.flip();
+    int needed = 0;
+    while ( in.remaining() >= Integer.BYTES )
+    {
+      int len = in.getInt( in.position() );
+      if ( len < 0 || len > maxFrame )
+      {
+        throw new IOException( "Invalid message length: " + len );
+      }
+      if ( in.remaining() < Integer.BYTES + len )
+      {
+        needed = Integer.BYTES + len;
+        break;
+      }
+      int start = in.position() + Integer.BYTES;
+      int limit = in.limit();
+      in.position( start ).limit( start + len );
+      try
+      {
+        Event event = EventFactory.getInstance().createEvent( in );
+        node.onEvent( event, connection );
+      } finally
+      {
+        in.limit( limit ).position( start + len );
+      }
+    }
+    in.compact();
+    if ( needed > in.capacity() )
+    {
+      ByteBuffer larger = BufferPool.acquire( needed );
+      larger.clear();
+      larger.put( in.flip() );
+      BufferPool.release( in );
+      in = larger;
+    } else if ( in.position() == 0 )
+    {
+      release();
+    }
+  }
+
+  /**
+   * Return the buffer to the pool, discarding any partial message.
+   */
+  void release() {
+    if ( in != null )
+    {
+      BufferPool.release( in );
+      in = null;
+    }
+  }
+}
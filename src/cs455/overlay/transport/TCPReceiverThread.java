@@ -1,20 +1,23 @@
 package cs455.overlay.transport;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import cs455.overlay.node.Node;
 import cs455.overlay.util.Logger;
-import cs455.overlay.wireformats.Event;
-import cs455.overlay.wireformats.EventFactory;
 
 /**
  * The TCP Receiving Thread to acknowledge new wireformat messages
  * received on the specified connection.
  * 
- * The thread is blocked waiting to read an integer (the protocol for
- * each message). This ensures the thread is not running unless there
- * is something to be read.
+ * The thread is blocked waiting to read from the socket. This ensures
+ * the thread is not running unless there is something to be read.
+ * 
+ * Each read takes as much as has arrived into a
+ * {@link TCPFrameBuffer}, and every complete message in it is handled
+ * in place, so a burst of messages costs a single read and no copies.
  * 
  * @author stock
  *
@@ -35,6 +38,8 @@ public class TCPReceiverThread implements Runnable {
 
   private TCPConnection connection;
 
+  private TCPFrameBuffer frames = new TCPFrameBuffer();
+
   /**
    * Default constructor - Initialize the TCPReceiverThread with the
    * socket and data input stream information
@@ -64,18 +69,20 @@ public class TCPReceiverThread implements Runnable {
     {
       try
       {
-        int len = din.readInt();
-
-        byte[] data = new byte[ len ];
-        din.readFully( data, 0, len );
-
-        EventFactory eventFactory = EventFactory.getInstance();
-        Event event = eventFactory.createEvent( data );
-        node.onEvent( event, connection );
+        ByteBuffer in = frames.reserve();
+        int read = din.read( in.array(), in.arrayOffset() + in.position(),
+            in.remaining() );
+        if ( read < 0 )
+        {
+          throw new EOFException( "Connection is closed by the peer." );
+        }
+        in.position( in.position() + read );
+        frames.dispatch( node, connection );
 
       } catch ( IOException e )
       {
         LOG.debug( "Closing connection... " + e );
+        frames.release();
         break;
       }
     }
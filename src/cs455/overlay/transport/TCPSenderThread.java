@@ -3,15 +3,32 @@ package cs455.overlay.transport;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import cs455.overlay.util.BufferPool;
+import cs455.overlay.util.Configuration;
 import cs455.overlay.util.Logger;
+import cs455.overlay.wireformats.Event;
 
 /**
  * Class used to send data, via <code>byte[]</code> to the receiver.
  * 
  * Running as a thread, the TCPConnection holds an instance to the
- * sender for new messages. This makes use of a linked blocking queue
- * to buffer the rate at which messages are being sent.
+ * sender for new messages. This makes use of a blocking queue to
+ * buffer the rate at which messages are being sent.
+ * 
+ * The queue only holds buffers from the {@link BufferPool}, which are
+ * released once written, and the queue is an array, so sending a
+ * message does not allocate.
+ * 
+ * Every message queued while the previous write was in progress is
+ * drained at once, up to {@link Configuration#SEND_BATCH} messages,
+ * and written with a single call, so under load the socket is written
+ * once per batch rather than once per message. A batch that is not
+ * full may wait up to {@link Configuration#SEND_LINGER} for more.
  * 
  * @author stock
  *
@@ -26,8 +43,18 @@ public class TCPSenderThread implements Runnable {
 
   protected DataOutputStream dout;
 
-  private LinkedBlockingQueue<byte[]> queue;
+  private ArrayBlockingQueue<ByteBuffer> queue;
+
+  private int batchSize;
+
+  private long lingerNanos;
 
+  // The messages taken from the queue to be written together
+  private List<ByteBuffer> batch;
+
+  // The length and bytes of each message of a batch, written with a
+  // single call
+  private byte[] frame = new byte[ BufferPool.MIN_CAPACITY ];
 
   /**
    * Default constructor - Initialize the TCPSenderThread with the queue
@@ -39,28 +66,58 @@ public class TCPSenderThread implements Runnable {
    */
   public TCPSenderThread(Socket socket) throws IOException {
     final int defaultQueueSize = 1000;
-    this.queue = new LinkedBlockingQueue<>( defaultQueueSize );
+    this.queue = new ArrayBlockingQueue<>( defaultQueueSize );
     this.dout = new DataOutputStream( socket.getOutputStream() );
+    this.batchSize =
+        Math.max( 1, Configuration.getInt( Configuration.SEND_BATCH, 64 ) );
+    this.lingerNanos = TimeUnit.MICROSECONDS
+        .toNanos( Configuration.getInt( Configuration.SEND_LINGER, 0 ) );
+    this.batch = new ArrayList<>( batchSize );
   }
 
   /**
-   * Send the data to the linked blocking queue, waiting if necessary
-   * for space to become available.
+   * Copy the data to a pooled buffer on the blocking queue, waiting if
+   * necessary for space to become available.
    * 
    * @param data that will be added to the tail of the queue.
    * @throws InterruptedException
    */
   public void sendData(final byte[] data) throws InterruptedException {
+    sendData( BufferPool.acquire( data.length ).put( data ).flip() );
+  }
+
+  /**
+   * Send the encoded event to the blocking queue, waiting if
+   * necessary for space to become available. The sender owns the
+   * buffer from then on, and releases it once written.
+   * 
+   * @param data from the {@link BufferPool} with the bytes between its
+   *        position and limit, such as from {@link Event#encode()}
+   * @throws InterruptedException
+   */
+  public void sendData(final ByteBuffer data) throws InterruptedException {
     queue.put( data );
   }
 
+  /**
+   * Check if the queue is full, such that sending more data would wait
+   * for the connection to catch up.
+   * 
+   * @return true if there is no space left in the queue, false
+   *         otherwise.
+   */
+  public boolean isCongested() {
+    return queue.remainingCapacity() == 0;
+  }
+
   /**
    * Send the data through the socket connection using the data output
    * stream. Write the length first, and then the actual data - that way
    * the receiver knows when to stop reading.
    * 
    * This block on the <code>queue.take()</code> method until there is
-   * data to be read on the queue.
+   * data to be read on the queue, and then drains whatever else has
+   * been queued to write with it.
    */
   @Override
   public void run() {
@@ -68,11 +125,24 @@ public class TCPSenderThread implements Runnable {
     {
       try
       {
-        byte[] data = queue.take();
-        int len = data.length;
-        dout.writeInt( len );
-        dout.write( data, 0, len );
-        dout.flush();
+        batch.add( queue.take() );
+        queue.drainTo( batch, batchSize - batch.size() );
+        if ( lingerNanos > 0 )
+        {
+          long deadline = System.nanoTime() + lingerNanos;
+          while ( batch.size() < batchSize )
+          {
+            ByteBuffer data = queue.poll( deadline - System.nanoTime(),
+                TimeUnit.NANOSECONDS );
+            if ( data == null )
+            {
+              break;
+            }
+            batch.add( data );
+            queue.drainTo( batch, batchSize - batch.size() );
+          }
+        }
+        writeBatch();
 
       } catch ( InterruptedException | IOException e )
       {
@@ -80,4 +150,38 @@ public class TCPSenderThread implements Runnable {
       }
     }
   }
+
+  /**
+   * Copy each message of the batch after its length, release its
+   * buffer, and write them all with a single call.
+   * 
+   * @throws IOException
+   */
+  private void writeBatch() throws IOException {
+    int size = 0;
+    for ( int i = 0; i < batch.size(); ++i )
+    {
+      size += Integer.BYTES + batch.get( i ).remaining();
+    }
+    if ( frame.length < size )
+    {
+      frame = new byte[ size ];
+    }
+    int offset = 0;
+    for ( int i = 0; i < batch.size(); ++i )
+    {
+      ByteBuffer data = batch.get( i );
+      int len = data.remaining();
+      frame[ offset ] = ( byte ) ( len >>> 24 );
+      frame[ offset + 1 ] = ( byte ) ( len >>> 16 );
+      frame[ offset + 2 ] = ( byte ) ( len >>> 8 );
+      frame[ offset + 3 ] = ( byte ) len;
+      data.get( frame, offset + Integer.BYTES, len );
+      BufferPool.release( data );
+      offset += Integer.BYTES + len;
+    }
+    batch.clear();
+    dout.write( frame, 0, size );
+    dout.flush();
+  }
 }
@@ -0,0 +1,60 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import cs455.overlay.node.Node;
+import cs455.overlay.util.Configuration;
+
+/**
+ * Connects nodes over TCP, with the sockets and threads of the
+ * configured {@link Configuration#TRANSPORT}.
+ *
+ * @author stock
+ *
+ */
+public class TCPTransport implements Transport {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Listener listen(int port) throws IOException {
+    return new TCPListener( TCPConnection.openServerSocket( port ) );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Connection connect(Node node, String host, int port)
+      throws IOException {
+    return new TCPConnection( node, TCPConnection.openSocket( host, port ) );
+  }
+
+  /**
+   * A server socket, accepting connections on a TCPServerThread.
+   */
+  private static class TCPListener implements Listener {
+
+    private ServerSocket serverSocket;
+
+    private TCPListener(ServerSocket serverSocket) {
+      this.serverSocket = serverSocket;
+    }
+
+    @Override
+    public int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void accept(Node node) {
+      ( new Thread( new TCPServerThread( node, serverSocket ) ) ).start();
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
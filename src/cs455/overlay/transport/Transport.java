@@ -0,0 +1,67 @@
+package cs455.overlay.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import cs455.overlay.node.Node;
+
+/**
+ * How nodes listen for and open connections to each other, so the
+ * Registry and MessagingNode do not depend on sockets.
+ *
+ * Messages are sent and connections closed through the
+ * {@link Connection} a transport returns, and received through
+ * {@link Node#onEvent(cs455.overlay.wireformats.Event, Connection)},
+ * whichever transport is used. The {@link TCPTransport} connects nodes
+ * over the network, and the {@link LoopbackTransport} connects nodes
+ * within a single process.
+ *
+ * @author stock
+ *
+ */
+public interface Transport {
+
+  /**
+   * Reserve a port to accept connections on. Connections are only
+   * accepted once the node to handle them is given to
+   * {@link Listener#accept(Node)}, as a node needs its port to be
+   * created.
+   *
+   * @param port to listen on, or 0 for any free port
+   * @return The listener on the port.
+   * @throws IOException if the port cannot be reserved
+   */
+  public Listener listen(int port) throws IOException;
+
+  /**
+   * Open a connection to a listening node. The connection is not
+   * started, so messages may be sent before any are received.
+   *
+   * @param node to handle the messages received on the connection
+   * @param host
+   * @param port
+   * @return The connection, to be started with
+   *         {@link Connection#start()}.
+   * @throws IOException if there is no node listening
+   */
+  public Connection connect(Node node, String host, int port)
+      throws IOException;
+
+  /**
+   * A port reserved with {@link Transport#listen(int)}.
+   */
+  public interface Listener extends Closeable {
+
+    /**
+     * @return The port connections are accepted on.
+     */
+    public int getPort();
+
+    /**
+     * Start accepting connections, and start each accepted connection
+     * with the node to handle its messages.
+     *
+     * @param node
+     */
+    public void accept(Node node);
+  }
+}
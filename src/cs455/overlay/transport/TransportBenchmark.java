@@ -0,0 +1,159 @@
+package cs455.overlay.transport;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import cs455.overlay.node.Node;
+import cs455.overlay.util.Configuration;
+import cs455.overlay.util.Logger;
+import cs455.overlay.wireformats.Event;
+import cs455.overlay.wireformats.HopMessage;
+
+/**
+ * Measure how the configured {@link Configuration#TRANSPORT} scales
+ * with the number of open connections, as the registry holds one for
+ * every messaging node.
+ *
+ * Connections are opened over the loopback interface to a server
+ * socket in the same process, and are left open as more are added, so
+ * each step reports the cost of holding all of them. Both ends of a
+ * connection are in the process, so the <b>threads</b> and
+ * <b>virtual</b> transports start four threads for each. After each
+ * step, every connection sends a few messages, and the time until all
+ * have been received is reported with the platform threads and memory
+ * of the process, e.g.,
+ * <code>java -Dcs455.overlay.transport=virtual cs455.overlay.transport.TransportBenchmark 1000 2000 4000</code>.
+ *
+ * @author stock
+ *
+ */
+public class TransportBenchmark implements Node {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private static final Logger LOG = new Logger( true, false );
+
+  private static final int MESSAGES_PER_CONNECTION = 10;
+
+  private Semaphore received = new Semaphore( 0 );
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onEvent(Event event, Connection connection) {
+    received.release();
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args the number of connections to hold at each step
+   */
+  public static void main(String[] args) {
+    int[] steps = { 1000, 2000, 4000 };
+    try
+    {
+      if ( args.length > 0 )
+      {
+        steps = new int[ args.length ];
+        for ( int i = 0; i < args.length; ++i )
+        {
+          steps[ i ] = Integer.parseInt( args[ i ] );
+        }
+      }
+    } catch ( NumberFormatException e )
+    {
+      steps = new int[] { 1000, 2000, 4000 };
+      LOG.info( "USAGE: java cs455.overlay.transport.TransportBenchmark "
+          + "connections... Defaulting to 1000 2000 4000." );
+    }
+
+    TransportBenchmark node = new TransportBenchmark();
+    List<TCPConnection> connections = new ArrayList<>();
+    try ( ServerSocket serverSocket = TCPConnection.openServerSocket( 0 ) )
+    {
+      Thread.ofPlatform().daemon()
+          .start( new TCPServerThread( node, serverSocket ) );
+
+      System.out.println( "\nTransport: "
+          + Configuration.get( Configuration.TRANSPORT, "threads" ) + "\n" );
+      System.out.println( String.format( "\t%12s %12s %12s %10s %10s %12s",
+          "Connections", "Open (ms)", "Send (ms)", "Threads", "Heap (MB)",
+          "Resident" ) );
+      for ( int target : steps )
+      {
+        long start = System.nanoTime();
+        while ( connections.size() < target )
+        {
+          TCPConnection connection = new TCPConnection( node, TCPConnection
+              .openSocket( "localhost", serverSocket.getLocalPort() ) );
+          connection.start();
+          connections.add( connection );
+        }
+        long openTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for ( TCPConnection connection : connections )
+        {
+          for ( int m = 0; m < MESSAGES_PER_CONNECTION; ++m )
+          {
+            connection.send( new HopMessage( m, 0, "benchmark" ).encode() );
+          }
+        }
+        int expected = connections.size() * MESSAGES_PER_CONNECTION;
+        if ( !node.received.tryAcquire( expected, 60, TimeUnit.SECONDS ) )
+        {
+          LOG.error( "Not every message was received within a minute." );
+          break;
+        }
+        long sendTime = System.nanoTime() - start;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println( String.format(
+            "\t%12d %12.1f %12.1f %10d %10.1f %12s", connections.size(),
+            openTime / 1e6, sendTime / 1e6,
+            ManagementFactory.getThreadMXBean().getThreadCount(),
+            ( runtime.totalMemory() - runtime.freeMemory() ) / 1e6,
+            residentMemory() ) );
+      }
+      System.out.println();
+      // The connections never stop their threads
+      System.exit( 0 );
+    } catch ( IOException | InterruptedException e )
+    {
+      LOG.error( "Stopped after (" + connections.size() + ") connections. "
+          + e.getMessage() );
+      System.exit( 1 );
+    }
+  }
+
+  /**
+   * @return The resident memory of the process, if known on the host.
+   */
+  private static String residentMemory() {
+    try
+    {
+      for ( String line : Files
+          .readAllLines( Paths.get( "/proc/self/status" ) ) )
+      {
+        if ( line.startsWith( "VmRSS:" ) )
+        {
+          return line.substring( 6 ).trim();
+        }
+      }
+    } catch ( IOException e )
+    {
+      LOG.debug( e.getMessage() );
+    }
+    return "n/a";
+  }
+}
@@ -0,0 +1,109 @@
+package cs455.overlay.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of heap <code>ByteBuffer</code>s that events are encoded into
+ * and decoded from, so steady message traffic does not allocate a new
+ * <code>byte[]</code> for every message.
+ *
+ * Buffers are held in size classes of powers of two, from
+ * {@link #MIN_CAPACITY} to {@link #MAX_CAPACITY} bytes. A larger
+ * request is allocated and never pooled. Each class holds at most
+ * {@link #BUFFERS_PER_CLASS} idle buffers, and the queues are arrays,
+ * so acquiring and releasing a buffer does not allocate either.
+ *
+ * A released buffer may be handed out again straight away, so it must
+ * not be used by the releasing thread afterwards, and every buffer
+ * released must have been acquired from the pool.
+ *
+ * @author stock
+ *
+ */
+public class BufferPool {
+
+  private static final int MIN_SHIFT = 6;
+
+  private static final int MAX_SHIFT = 16;
+
+  /**
+   * The capacity of the smallest pooled buffer.
+   */
+  public static final int MIN_CAPACITY = 1 << MIN_SHIFT;
+
+  /**
+   * The capacity of the largest pooled buffer.
+   */
+  public static final int MAX_CAPACITY = 1 << MAX_SHIFT;
+
+  /**
+   * The most idle buffers held in each size class.
+   */
+  public static final int BUFFERS_PER_CLASS = 1024;
+
+  private static final List<ArrayBlockingQueue<ByteBuffer>> pools =
+      new ArrayList<>();
+
+  static
+  {
+    for ( int shift = MIN_SHIFT; shift <= MAX_SHIFT; ++shift )
+    {
+      pools.add( new ArrayBlockingQueue<>( BUFFERS_PER_CLASS ) );
+    }
+  }
+
+  /**
+   * Default constructor - Exists only to defeat instantiation.
+   */
+  private BufferPool() {}
+
+  /**
+   * Retrieve a buffer for an encoding of known size.
+   *
+   * @param size the number of bytes that will be put in the buffer
+   * @return A buffer at position 0, limited to <code>size</code>
+   *         bytes, so putting more than was sized for fails rather than
+   *         growing the buffer.
+   * @throws IllegalArgumentException if the size is negative
+   */
+  public static ByteBuffer acquire(int size) {
+    if ( size < 0 )
+    {
+      throw new IllegalArgumentException( "Negative buffer size: " + size );
+    }
+    if ( size > MAX_CAPACITY )
+    {
+      return ByteBuffer.allocate( size );
+    }
+    int shift = size <= MIN_CAPACITY ? MIN_SHIFT
+        : Integer.SIZE - Integer.numberOfLeadingZeros( size - 1 );
+    ByteBuffer buffer = pools.get( shift - MIN_SHIFT ).poll();
+    if ( buffer == null )
+    {
+      buffer = ByteBuffer.allocate( 1 << shift );
+    }
+    buffer.clear().limit( size );
+    return buffer;
+  }
+
+  /**
+   * Return a buffer to the pool once it is no longer used. A buffer
+   * that is not of a pooled size class, or whose class is full, is left
+   * for the garbage collector.
+   *
+   * @param buffer acquired from {@link #acquire(int)}
+   */
+  public static void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if ( capacity < MIN_CAPACITY || capacity > MAX_CAPACITY
+        || Integer.bitCount( capacity ) != 1 )
+    {
+      return;
+    }
+    pools.get( Integer.numberOfTrailingZeros( capacity ) - MIN_SHIFT )
+        .offer( buffer );
+  }
+}
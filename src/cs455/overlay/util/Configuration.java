@@ -0,0 +1,168 @@
+package cs455.overlay.util;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runtime options for the Registry and Messaging Nodes.
+ *
+ * Options are read from Java system properties, so they may be
+ * specified on the command line without changing the positional
+ * arguments of either node, e.g.,
+ * <code>java -Dcs455.overlay.routing=next-hop cs455.overlay.node.MessagingNode host port</code>.
+ *
+ * @author stock
+ *
+ */
+public class Configuration {
+
+  /**
+   * Have the ability to log output INFO, DEBUG, ERROR configured by
+   * Logger(INFO, DEBUG) and LOGGER#MASTER for ERROR settings.
+   */
+  private static final Logger LOG = new Logger( true, false );
+
+  /**
+   * How messages are routed from a source to a sink, either
+   * <b>source</b> ( the full path travels with each message ),
+   * <b>next-hop</b> ( each node looks up the next hop ), <b>ecmp</b>
+   * ( each node chooses among equal-cost next hops ) or
+   * <b>distance-vector</b> ( next hops are computed by exchanging
+   * distances with neighbors ).
+   */
+  public static final String ROUTING_MODE = "cs455.overlay.routing";
+
+  /**
+   * The number of materialized routes each messaging node holds in the
+   * <b>source</b> routing mode.
+   */
+  public static final String ROUTE_CACHE_SIZE = "cs455.overlay.routing.cache";
+
+  /**
+   * The number of shortest loopless routes each messaging node holds
+   * per sink in the <b>source</b> routing mode, so it may switch to a
+   * backup route when the first hop is congested.
+   */
+  public static final String ROUTE_PATHS = "cs455.overlay.routing.paths";
+
+  /**
+   * How one of several equal-cost next hops is chosen in the
+   * <b>ecmp</b> routing mode, either <b>hash</b> ( every message of a
+   * flow takes the same path ) or <b>round-robin</b> ( successive
+   * messages to a sink alternate ).
+   */
+  public static final String ECMP_SELECTION = "cs455.overlay.routing.ecmp";
+
+  /**
+   * Whether the messaging nodes flood the weights of their own links
+   * to each other, <b>true</b>, rather than receive every link weight
+   * from the registry, <b>false</b>.
+   */
+  public static final String LINK_STATE = "cs455.overlay.routing.link-state";
+
+  /**
+   * The fewest directed links an overlay must have before a messaging
+   * node computes its shortest path tree in parallel with
+   * delta-stepping, rather than on a single thread.
+   */
+  public static final String PARALLEL_LINKS = "cs455.overlay.routing.parallel";
+
+  /**
+   * The file a messaging node saves its routes to shortly after they
+   * change, and restores them from when it starts. Unset by default, so
+   * routes are only held in memory.
+   */
+  public static final String ROUTE_SNAPSHOT = "cs455.overlay.routing.snapshot";
+
+  /**
+   * How connections are driven, either <b>threads</b> ( a sending and
+   * a receiving platform thread for each connection ), <b>virtual</b>
+   * ( the same, on virtual threads ) or <b>nio</b> ( a few event loops
+   * share every connection with non-blocking channels ).
+   */
+  public static final String TRANSPORT = "cs455.overlay.transport";
+
+  /**
+   * The number of event loops in the <b>nio</b> transport. Defaults to
+   * the number of available processors.
+   */
+  public static final String TRANSPORT_THREADS =
+      "cs455.overlay.transport.threads";
+
+  /**
+   * The most messages a sending thread writes to its socket at once.
+   * Messages queued while the previous write was in progress are taken
+   * together, up to this many, and written with a single call.
+   */
+  public static final String SEND_BATCH = "cs455.overlay.transport.batch";
+
+  /**
+   * The microseconds a sending thread waits for more messages before
+   * writing a batch that is not full. Defaults to 0, so a message is
+   * never held back when the socket is idle.
+   */
+  public static final String SEND_LINGER = "cs455.overlay.transport.linger";
+
+  /**
+   * The largest message, in bytes, a connection accepts. A longer
+   * length fails the connection rather than allocate a buffer for it.
+   */
+  public static final String MAX_FRAME = "cs455.overlay.transport.max-frame";
+
+  /**
+   * Default constructor - Exists only to defeat instantiation.
+   */
+  private Configuration() {}
+
+  /**
+   * Retrieve the value of an option.
+   *
+   * @param key name of the system property
+   * @param defaultValue returned if the option is not set
+   * @return The value of the option, or <code>defaultValue</code>.
+   */
+  public static String get(String key, String defaultValue) {
+    return System.getProperty( key, defaultValue ).trim().toLowerCase();
+  }
+
+  /**
+   * Retrieve the value of a numeric option.
+   *
+   * @param key name of the system property
+   * @param defaultValue returned if the option is not set or is not a
+   *        valid number
+   * @return The value of the option, or <code>defaultValue</code>.
+   */
+  public static int getInt(String key, int defaultValue) {
+    String value = System.getProperty( key );
+    if ( value == null )
+    {
+      return defaultValue;
+    }
+    try
+    {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e )
+    {
+      LOG.error( "Invalid value for " + key + ": " + value
+          + ". Defaulting to " + defaultValue + "." );
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Retrieve the value of a file option, which unlike
+   * {@link #get(String, String)} keeps its case.
+   *
+   * @param key name of the system property
+   * @return The path of the file, or null if the option is not set.
+   */
+  public static Path getPath(String key) {
+    String value = System.getProperty( key );
+    if ( value == null || value.trim().isEmpty() )
+    {
+      return null;
+    }
+    return Paths.get( value.trim() );
+  }
+}
@@ -87,6 +87,16 @@ public class Logger {
     }
   }
 
+  /**
+   * Check if <b>'DEBUG'</b> logs are displayed, so callers may skip
+   * building messages that would not be.
+   * 
+   * @return true if debug messages are displayed.
+   */
+  public boolean isDebug() {
+    return MASTER && DEBUG;
+  }
+
   /**
    * Display the message with details for the <b>'ERROR'</b> type.
    * Configured by the global {@link Logger::MASTER} variable.
@@ -1,10 +1,11 @@
 package cs455.overlay.util;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import cs455.overlay.transport.TCPConnection;
+import cs455.overlay.transport.Connection;
 import cs455.overlay.wireformats.LinkWeights;
 import cs455.overlay.wireformats.MessagingNodeList;
 
@@ -37,9 +38,56 @@ public class OverlayCreator {
    * @throws Exception throws an exception if the network conditions are
    *         not met.
    */
-  public LinkWeights setupOverlay(Map<String, TCPConnection> connections,
+  public LinkWeights setupOverlay(Map<String, Connection> connections,
       int connectingEdges) throws Exception {
-    int totalConnections = connections.size();
+    verifyConditions( connections.size(), connectingEdges );
+
+    OverlayNode[] topology =
+        buildTopology( connections, connectingEdges, connections.size() );
+
+    LinkWeights linkWeights = new LinkWeights( topology );
+
+    disperseConnections( topology );
+
+    return linkWeights;
+  }
+
+  /**
+   * Create the link weights of an overlay without sending the
+   * connections to any messaging node, e.g., to benchmark the routing
+   * over an overlay larger than can be deployed.
+   * 
+   * @param addresses host:port identifier of each node
+   * @param connectingEdges how many bidirectional connections should be
+   *        made between each node.
+   * @return The link weights of the overlay.
+   * @throws Exception throws an exception if the network conditions are
+   *         not met.
+   */
+  public LinkWeights createLinkWeights(String[] addresses,
+      int connectingEdges) throws Exception {
+    verifyConditions( addresses.length, connectingEdges );
+
+    Map<String, Connection> connections = new LinkedHashMap<>();
+    for ( String address : addresses )
+    {
+      connections.put( address, null );
+    }
+    return new LinkWeights(
+        buildTopology( connections, connectingEdges, addresses.length ) );
+  }
+
+  /**
+   * Verify a k-regular graph of order N can be constructed.
+   * 
+   * @param totalConnections the total number of messaging nodes
+   * @param connectingEdges how many bidirectional connections should be
+   *        made between each node.
+   * @throws Exception throws an exception if the network conditions are
+   *         not met.
+   */
+  private void verifyConditions(int totalConnections, int connectingEdges)
+      throws Exception {
     String insufficientError =
         "Insufficient conditions for a K-regular graph of order N. ";
 
@@ -63,15 +111,6 @@ public class OverlayCreator {
       throw new Exception( insufficientError
           + "The topological structure must satisfy N ≥ K+1" );
     }
-
-    OverlayNode[] topology =
-        buildTopology( connections, connectingEdges, totalConnections );
-
-    LinkWeights linkWeights = new LinkWeights( topology );
-
-    disperseConnections( topology );
-
-    return linkWeights;
   }
 
   /**
@@ -94,14 +133,14 @@ public class OverlayCreator {
    *        between each connection for a bidirectional graph
    * @param totalConnections the total number of messaging nodes
    */
-  private OverlayNode[] buildTopology(Map<String, TCPConnection> connections,
+  private OverlayNode[] buildTopology(Map<String, Connection> connections,
       int connectingEdges, int totalConnections) {
 
     String[] addresses = new String[ totalConnections ];
     OverlayNode[] topology = new OverlayNode[ totalConnections ];
 
     int index = 0;
-    for ( Entry<String, TCPConnection> entry : connections.entrySet() )
+    for ( Entry<String, Connection> entry : connections.entrySet() )
     {
       String address = entry.getKey();
       addresses[ index ] = address;
@@ -201,8 +240,7 @@ public class OverlayCreator {
 
       MessagingNodeList message = new MessagingNodeList( numPeers, peers );
       LOG.debug( message.toString() );
-      topology[ i ].getConnection().getTCPSenderThread()
-          .sendData( message.getBytes() );
+      topology[ i ].getConnection().send( message.getBytes() );
     }
   }
 }
@@ -3,7 +3,7 @@ package cs455.overlay.util;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import cs455.overlay.transport.TCPConnection;
+import cs455.overlay.transport.Connection;
 
 /**
  * Class to maintain a nodes properties while constructing the
@@ -20,7 +20,7 @@ public class OverlayNode {
 
   private String self;
 
-  private TCPConnection connection;
+  private Connection connection;
 
   /**
    * 
@@ -30,7 +30,7 @@ public class OverlayNode {
    * @param connection
    * @param self
    */
-  public OverlayNode(TCPConnection connection, String self) {
+  public OverlayNode(Connection connection, String self) {
     this.peers = new ArrayList<>();
     this.neighbors = new HashSet<>();
     this.connection = connection;
@@ -51,7 +51,7 @@ public class OverlayNode {
    * 
    * @return The connection associated with this node.
    */
-  public TCPConnection getConnection() {
+  public Connection getConnection() {
     return connection;
   }
 
@@ -0,0 +1,301 @@
+package cs455.overlay.wireformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import cs455.overlay.util.BufferPool;
+
+/**
+ * A {@link Message} whose routing path is carried as the integer
+ * identifier of each node rather than its host:port, in the
+ * dictionary of nodes sent with the {@link LinkWeights}.
+ *
+ * Each identifier is written as a variable length integer, seven bits
+ * to a byte with the high bit set on every byte but the last, so an
+ * overlay of fewer than 128 nodes needs a single byte per hop. The
+ * position is a fixed integer, so a relaying node patches it in the
+ * received frame and forwards it as is. As with a {@link Message}, a
+ * received message is only valid until its frame is released.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) CompactMessage</li>
+ * <li>Payload : ( negative ) 2147483648 to 2147483647</li>
+ * <li>Position : index of connection in the routing path</li>
+ * <li>Routing Path : variable length count, then the variable length
+ * identifier of each connection</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class CompactMessage implements Event {
+
+  private static final int POSITION_OFFSET = 2 * Integer.BYTES;
+
+  private static final int PATH_OFFSET = 3 * Integer.BYTES;
+
+  private int type;
+
+  private int payload;
+
+  private int position;
+
+  // Decoded only when requested, if the message was received
+  private int[] routingPath;
+
+  // The frame the message was received in, or null
+  private ByteBuffer frame;
+
+  // The index of the message in the frame, and its length in bytes
+  private int start;
+
+  private int length;
+
+  // The index in the frame of the next variable length integer
+  private int cursor;
+
+  /**
+   * Default constructor - create a new message to send between nodes.
+   *
+   * @param payload
+   * @param position
+   * @param routingPath identifier of each connection in the dictionary
+   *        of nodes
+   */
+  public CompactMessage(int payload, int position, int[] routingPath) {
+    this.type = Protocol.COMPACT_MESSAGE;
+    this.payload = payload;
+    this.position = position;
+    this.routingPath = routingPath;
+  }
+
+  /**
+   * Constructor - Unmarshall the header of the <code>byte[]</code>,
+   * which is kept for the routing path and for forwarding.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public CompactMessage(byte[] marshalledBytes) throws IOException {
+    this( ByteBuffer.wrap( marshalledBytes ) );
+  }
+
+  /**
+   * Constructor - Unmarshall the header of the heap buffer, between its
+   * position and limit, which is kept for the routing path and for
+   * forwarding.
+   *
+   * @param frame holding the bytes of the class.
+   * @throws IOException
+   */
+  public CompactMessage(ByteBuffer frame) throws IOException {
+    this.frame = frame;
+    this.start = frame.position();
+    this.length = frame.remaining();
+    if ( length < PATH_OFFSET + 1 )
+    {
+      throw new IOException( "Message is truncated." );
+    }
+    this.type = frame.getInt( start );
+    this.payload = frame.getInt( start + Integer.BYTES );
+    this.position = frame.getInt( start + POSITION_OFFSET );
+  }
+
+  /**
+   * Increment the position for the next connection
+   */
+  public void incrementPosition() {
+    ++position;
+    if ( frame != null )
+    {
+      frame.putInt( start + POSITION_OFFSET, position );
+    }
+  }
+
+  public int getPayload() {
+    return payload;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * @return The identifier of each connection in the routing path,
+   *         which is decoded on the first call if the message was
+   *         received.
+   * @throws IOException if the routing path is truncated
+   */
+  public int[] getRoutingPath() throws IOException {
+    if ( routingPath == null )
+    {
+      cursor = start + PATH_OFFSET;
+      // Each identifier takes at least one byte
+      int count = readVarInt();
+      if ( count < 0 || count > start + length - cursor )
+      {
+        throw new IOException( "Routing path is truncated." );
+      }
+      int[] decoded = new int[ count ];
+      for ( int i = 0; i < decoded.length; ++i )
+      {
+        decoded[ i ] = readVarInt();
+      }
+      routingPath = decoded;
+    }
+    return routingPath;
+  }
+
+  /**
+   * @return The number of connections in the routing path.
+   * @throws IOException if the routing path is truncated
+   */
+  public int getPathLength() throws IOException {
+    if ( routingPath != null )
+    {
+      return routingPath.length;
+    }
+    cursor = start + PATH_OFFSET;
+    return readVarInt();
+  }
+
+  /**
+   * Retrieve the identifier of a single connection of the routing path,
+   * without decoding the others.
+   *
+   * @param index of the connection in the routing path
+   * @return The identifier of the connection.
+   * @throws IOException if the routing path is shorter than the index,
+   *         or is truncated
+   */
+  public int getHop(int index) throws IOException {
+    if ( routingPath != null )
+    {
+      return routingPath[ index ];
+    }
+    cursor = start + PATH_OFFSET;
+    if ( index < 0 || index >= readVarInt() )
+    {
+      throw new IOException(
+          "There is no connection at " + index + " in the routing path." );
+    }
+    for ( int i = 0; i < index; ++i )
+    {
+      readVarInt();
+    }
+    return readVarInt();
+  }
+
+  /**
+   * Read an unsigned variable length integer from the frame at the
+   * cursor, and move the cursor past it.
+   */
+  private int readVarInt() throws IOException {
+    int value = 0;
+    for ( int shift = 0; shift < Integer.SIZE; shift += 7 )
+    {
+      if ( cursor >= start + length )
+      {
+        throw new IOException( "Routing path is truncated." );
+      }
+      byte b = frame.get( cursor++ );
+      value |= ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        return value;
+      }
+    }
+    throw new IOException( "Routing path is malformed." );
+  }
+
+  /**
+   * @return The number of bytes to write the value as an unsigned
+   *         variable length integer.
+   */
+  private static int sizeOfVarInt(int value) {
+    int size = 1;
+    while ( ( value & ~0x7F ) != 0 )
+    {
+      ++size;
+      value >>>= 7;
+    }
+    return size;
+  }
+
+  /**
+   * Write an unsigned variable length integer.
+   */
+  private static void writeVarInt(ByteBuffer buffer, int value) {
+    while ( ( value & ~0x7F ) != 0 )
+    {
+      buffer.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    buffer.put( ( byte ) value );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    ByteBuffer buffer = encode();
+    byte[] marshalledBytes = new byte[ buffer.remaining() ];
+    buffer.get( marshalledBytes );
+    BufferPool.release( buffer );
+    return marshalledBytes;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * A received message copies the frame, with the position patched.
+   */
+  @Override
+  public ByteBuffer encode() throws IOException {
+    if ( frame != null )
+    {
+      return BufferPool.acquire( length )
+          .put( frame.array(), frame.arrayOffset() + start, length ).flip();
+    }
+    int size = PATH_OFFSET + sizeOfVarInt( routingPath.length );
+    for ( int hop : routingPath )
+    {
+      size += sizeOfVarInt( hop );
+    }
+    ByteBuffer buffer = BufferPool.acquire( size );
+    buffer.putInt( type ).putInt( payload ).putInt( position );
+    writeVarInt( buffer, routingPath.length );
+    for ( int hop : routingPath )
+    {
+      writeVarInt( buffer, hop );
+    }
+    return buffer.flip();
+  }
+
+  @Override
+  public String toString() {
+    String path;
+    try
+    {
+      path = Arrays.toString( getRoutingPath() );
+    } catch ( IOException e )
+    {
+      path = e.getMessage();
+    }
+    return "\n" + Integer.toString( this.type ) + " "
+        + Integer.toString( this.payload ) + " "
+        + Integer.toString( this.position ) + " " + path;
+  }
+
+}
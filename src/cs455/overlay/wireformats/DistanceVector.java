@@ -0,0 +1,168 @@
+package cs455.overlay.wireformats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The distances from a messaging node to the sinks it knows of, sent
+ * only to its neighbors in the overlay when routing by distance vector.
+ *
+ * The first vector a node sends holds every sink it knows of, and
+ * later vectors only the sinks whose distance has changed. A distance
+ * of <code>Integer.MAX_VALUE</code> withdraws the route to the sink.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) DistanceVector</li>
+ * <li>Sender : host:port of the node the distances are from</li>
+ * <li>Sinks : array of host:port identifiers</li>
+ * <li>Distances : array of distances, one per sink</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class DistanceVector implements Event {
+
+  /**
+   * The distance to a sink that can not be reached through the sender.
+   */
+  public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private int type;
+
+  private String sender;
+
+  private String[] sinks;
+
+  private int[] distances;
+
+  /**
+   * Default constructor - create a new vector of distances.
+   *
+   * @param sender host:port of the node the distances are from
+   * @param sinks host:port of each sink
+   * @param distances distance from the sender to each sink
+   */
+  public DistanceVector(String sender, String[] sinks, int[] distances) {
+    this.type = Protocol.DISTANCE_VECTOR;
+    this.sender = sender;
+    this.sinks = sinks;
+    this.distances = distances;
+  }
+
+  /**
+   * Constructor - Unmarshall the <code>byte[]</code> to the respective
+   * class elements.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public DistanceVector(byte[] marshalledBytes) throws IOException {
+    ByteArrayInputStream inputStream =
+        new ByteArrayInputStream( marshalledBytes );
+    DataInputStream din =
+        new DataInputStream( new BufferedInputStream( inputStream ) );
+
+    this.type = din.readInt();
+
+    int len = din.readInt();
+    byte[] senderBytes = new byte[ len ];
+    din.readFully( senderBytes );
+    this.sender = new String( senderBytes );
+
+    int arrayLength = din.readInt();
+
+    this.sinks = new String[ arrayLength ];
+    this.distances = new int[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      len = din.readInt();
+      byte[] bytes = new byte[ len ];
+      din.readFully( bytes );
+      this.sinks[ i ] = ( new String( bytes ) );
+      this.distances[ i ] = din.readInt();
+    }
+
+    inputStream.close();
+    din.close();
+  }
+
+  /**
+   * @return The host:port of the node the distances are from.
+   */
+  public String getSender() {
+    return sender;
+  }
+
+  /**
+   * @return The host:port of each sink.
+   */
+  public String[] getSinks() {
+    return sinks;
+  }
+
+  /**
+   * @return The distance from the sender to each sink, or
+   *         {@link #UNREACHABLE}.
+   */
+  public int[] getDistances() {
+    return distances;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    byte[] marshalledBytes = null;
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dout =
+        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+
+    dout.writeInt( type );
+
+    byte[] senderBytes = sender.getBytes();
+    dout.writeInt( senderBytes.length );
+    dout.write( senderBytes );
+
+    dout.writeInt( sinks.length );
+
+    for ( int i = 0; i < sinks.length; ++i )
+    {
+      byte[] bytes = sinks[ i ].getBytes();
+      dout.writeInt( bytes.length );
+      dout.write( bytes );
+      dout.writeInt( distances[ i ] );
+    }
+
+    dout.flush();
+    marshalledBytes = outputStream.toByteArray();
+
+    outputStream.close();
+    dout.close();
+    return marshalledBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "\n" + Integer.toString( this.type ) + " " + sender + " "
+        + Integer.toString( sinks.length ) + " distance(s).";
+  }
+
+}
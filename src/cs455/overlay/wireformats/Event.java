@@ -1,6 +1,8 @@
 package cs455.overlay.wireformats;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import cs455.overlay.util.BufferPool;
 
 /**
  * Public interface that each message will implement.
@@ -28,4 +30,22 @@ public interface Event {
    */
   public byte[] getBytes() throws IOException;
 
+  /**
+   * Translates from in-memory to network-bound byte sequence in a
+   * buffer from the {@link BufferPool}. The caller owns the buffer, and
+   * releases it once it is written, such as by handing it to
+   * {@link cs455.overlay.transport.TCPSenderThread#sendData(ByteBuffer)}.
+   * 
+   * Events sent with every message size their encoding and put their
+   * fields directly, while others copy {@link #getBytes()}.
+   * 
+   * @return A buffer with the bytes of the object between its position
+   *         and limit.
+   * @throws IOException
+   */
+  public default ByteBuffer encode() throws IOException {
+    byte[] bytes = getBytes();
+    return BufferPool.acquire( bytes.length ).put( bytes ).flip();
+  }
+
 }
@@ -36,6 +36,39 @@ public class EventFactory {
     return instance;
   }
 
+  /**
+   * Create a new event from a frame received in a buffer. The messages
+   * sent with every round are decoded from the frame itself, and refer
+   * to it until it is released, while other events are copied out.
+   * 
+   * @param frame heap buffer with the marshalled bytes between its
+   *        position and limit
+   * @return the event object from the frame.
+   * @throws IOException
+   */
+  public Event createEvent(ByteBuffer frame) throws IOException {
+    if ( frame.remaining() < Integer.BYTES )
+    {
+      throw new IOException( "Event is truncated." );
+    }
+    switch ( frame.getInt( frame.position() ) )
+    {
+      case Protocol.MESSAGE :
+        return new Message( frame );
+
+      case Protocol.COMPACT_MESSAGE :
+        return new CompactMessage( frame );
+
+      case Protocol.HOP_MESSAGE :
+        return new HopMessage( frame );
+
+      default :
+        byte[] marshalledBytes = new byte[ frame.remaining() ];
+        frame.duplicate().get( marshalledBytes );
+        return createEvent( marshalledBytes );
+    }
+  }
+
   /**
    * Create a new event, i.e., wireformat object from the marshalled
    * bytes of said object.
@@ -78,6 +111,24 @@ public class EventFactory {
       case Protocol.TRAFFIC_SUMMARY :
         return new TaskSummaryResponse( marshalledBytes );
 
+      case Protocol.HOP_MESSAGE :
+        return new HopMessage( marshalledBytes );
+
+      case Protocol.ROUTING_TABLE :
+        return new RoutingTable( marshalledBytes );
+
+      case Protocol.LINK_WEIGHT_UPDATE :
+        return new LinkWeightUpdate( marshalledBytes );
+
+      case Protocol.DISTANCE_VECTOR :
+        return new DistanceVector( marshalledBytes );
+
+      case Protocol.LINK_STATE_ADVERTISEMENT :
+        return new LinkStateAdvertisement( marshalledBytes );
+
+      case Protocol.COMPACT_MESSAGE :
+        return new CompactMessage( marshalledBytes );
+
       default :
         LOG.error( "Event could not be created. "
             + ByteBuffer.wrap( marshalledBytes ).getInt() );
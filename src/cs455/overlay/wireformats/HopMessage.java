@@ -0,0 +1,159 @@
+package cs455.overlay.wireformats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import cs455.overlay.util.BufferPool;
+
+/**
+ * A message that is forwarded hop-by-hop from a source to a
+ * <i>sink</i>.
+ *
+ * Unlike a {@link Message}, the route is not carried with the message.
+ * Each node looks up the next hop for the sink in its own routing
+ * cache, so the message is the same size regardless of the path
+ * length.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) HopMessage</li>
+ * <li>Payload : ( negative ) 2147483648 to 2147483647</li>
+ * <li>Flow : identifier shared by related messages, to choose among
+ * equal-cost next hops</li>
+ * <li>Sink : host:port of the destination</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class HopMessage implements Event {
+
+  private static final int SINK_OFFSET = 4 * Integer.BYTES;
+
+  private int type;
+
+  private int payload;
+
+  private int flow;
+
+  private String sink;
+
+  // The frame the message was received in, or null
+  private ByteBuffer frame;
+
+  // The index of the message in the frame, and its length in bytes
+  private int start;
+
+  private int length;
+
+  /**
+   * Default constructor - create a new message to send between nodes.
+   *
+   * @param payload
+   * @param flow
+   * @param sink
+   */
+  public HopMessage(int payload, int flow, String sink) {
+    this.type = Protocol.HOP_MESSAGE;
+    this.payload = payload;
+    this.flow = flow;
+    this.sink = sink;
+  }
+
+  /**
+   * Constructor - Unmarshall the <code>byte[]</code> to the respective
+   * class elements.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public HopMessage(byte[] marshalledBytes) throws IOException {
+    this( ByteBuffer.wrap( marshalledBytes ) );
+  }
+
+  /**
+   * Constructor - Unmarshall the heap buffer, between its position and
+   * limit, which is kept for forwarding. A frame from the
+   * {@link BufferPool} is released once the event is handled, so the
+   * frame is only forwarded until then.
+   *
+   * @param frame holding the bytes of the class.
+   * @throws IOException
+   */
+  public HopMessage(ByteBuffer frame) throws IOException {
+    this.frame = frame;
+    this.start = frame.position();
+    this.length = frame.remaining();
+    if ( length < SINK_OFFSET )
+    {
+      throw new IOException( "Message is truncated." );
+    }
+    this.type = frame.getInt( start );
+    this.payload = frame.getInt( start + Integer.BYTES );
+    this.flow = frame.getInt( start + 2 * Integer.BYTES );
+    int len = frame.getInt( start + 3 * Integer.BYTES );
+    if ( len < 0 || SINK_OFFSET + len > length )
+    {
+      throw new IOException( "Message is truncated." );
+    }
+    this.sink = new String( frame.array(),
+        frame.arrayOffset() + start + SINK_OFFSET, len );
+  }
+
+  public int getPayload() {
+    return payload;
+  }
+
+  public int getFlow() {
+    return flow;
+  }
+
+  public String getSink() {
+    return sink;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    ByteBuffer buffer = encode();
+    byte[] marshalledBytes = new byte[ buffer.remaining() ];
+    buffer.get( marshalledBytes );
+    BufferPool.release( buffer );
+    return marshalledBytes;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * A received message copies the frame, without encoding the sink.
+   */
+  @Override
+  public ByteBuffer encode() throws IOException {
+    if ( frame != null )
+    {
+      return BufferPool.acquire( length )
+          .put( frame.array(), frame.arrayOffset() + start, length ).flip();
+    }
+    byte[] sinkBytes = sink.getBytes();
+    return BufferPool.acquire( SINK_OFFSET + sinkBytes.length )
+        .putInt( type ).putInt( payload ).putInt( flow )
+        .putInt( sinkBytes.length ).put( sinkBytes ).flip();
+  }
+
+  @Override
+  public String toString() {
+    return "\n" + Integer.toString( this.type ) + " "
+        + Integer.toString( this.payload ) + " " + sink;
+  }
+
+}
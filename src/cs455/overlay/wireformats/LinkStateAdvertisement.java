@@ -0,0 +1,183 @@
+package cs455.overlay.wireformats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The links of a single messaging node and their weights, flooded
+ * through the overlay when routing by link state.
+ *
+ * Each node originates its own advertisement, and increases the
+ * sequence number whenever the weight of one of its links changes.
+ * A node forwards an advertisement to its neighbors only the first
+ * time it sees the sequence number, so every advertisement crosses
+ * each link at most twice.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) LinkStateAdvertisement</li>
+ * <li>Origin : host:port of the node the links are from</li>
+ * <li>Sequence : increased by the origin with every change</li>
+ * <li>Neighbors : array of host:port identifiers</li>
+ * <li>Weights : array of weights, one per neighbor</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class LinkStateAdvertisement implements Event {
+
+  private int type;
+
+  private String origin;
+
+  private int sequence;
+
+  private String[] neighbors;
+
+  private int[] weights;
+
+  /**
+   * Default constructor - create a new advertisement of the links of
+   * the origin.
+   *
+   * @param origin host:port of the node the links are from
+   * @param sequence increased by the origin with every change
+   * @param neighbors host:port of the other end of each link
+   * @param weights weight of each link
+   */
+  public LinkStateAdvertisement(String origin, int sequence,
+      String[] neighbors, int[] weights) {
+    this.type = Protocol.LINK_STATE_ADVERTISEMENT;
+    this.origin = origin;
+    this.sequence = sequence;
+    this.neighbors = neighbors;
+    this.weights = weights;
+  }
+
+  /**
+   * Constructor - Unmarshall the <code>byte[]</code> to the respective
+   * class elements.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public LinkStateAdvertisement(byte[] marshalledBytes) throws IOException {
+    ByteArrayInputStream inputStream =
+        new ByteArrayInputStream( marshalledBytes );
+    DataInputStream din =
+        new DataInputStream( new BufferedInputStream( inputStream ) );
+
+    this.type = din.readInt();
+
+    int len = din.readInt();
+    byte[] originBytes = new byte[ len ];
+    din.readFully( originBytes );
+    this.origin = new String( originBytes );
+
+    this.sequence = din.readInt();
+
+    int arrayLength = din.readInt();
+
+    this.neighbors = new String[ arrayLength ];
+    this.weights = new int[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      len = din.readInt();
+      byte[] bytes = new byte[ len ];
+      din.readFully( bytes );
+      this.neighbors[ i ] = ( new String( bytes ) );
+      this.weights[ i ] = din.readInt();
+    }
+
+    inputStream.close();
+    din.close();
+  }
+
+  /**
+   * @return The host:port of the node the links are from.
+   */
+  public String getOrigin() {
+    return origin;
+  }
+
+  /**
+   * @return The sequence number of the advertisement.
+   */
+  public int getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The host:port of the other end of each link.
+   */
+  public String[] getNeighbors() {
+    return neighbors;
+  }
+
+  /**
+   * @return The weight of each link.
+   */
+  public int[] getWeights() {
+    return weights;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    byte[] marshalledBytes = null;
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dout =
+        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+
+    dout.writeInt( type );
+
+    byte[] originBytes = origin.getBytes();
+    dout.writeInt( originBytes.length );
+    dout.write( originBytes );
+
+    dout.writeInt( sequence );
+
+    dout.writeInt( neighbors.length );
+
+    for ( int i = 0; i < neighbors.length; ++i )
+    {
+      byte[] bytes = neighbors[ i ].getBytes();
+      dout.writeInt( bytes.length );
+      dout.write( bytes );
+      dout.writeInt( weights[ i ] );
+    }
+
+    dout.flush();
+    marshalledBytes = outputStream.toByteArray();
+
+    outputStream.close();
+    dout.close();
+    return marshalledBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "\n" + Integer.toString( this.type ) + " " + origin + " #"
+        + Integer.toString( sequence ) + " with "
+        + Integer.toString( neighbors.length ) + " link(s).";
+  }
+
+}
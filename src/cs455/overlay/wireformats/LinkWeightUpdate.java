@@ -0,0 +1,133 @@
+package cs455.overlay.wireformats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The new weights of links that have changed since the
+ * {@link LinkWeights} were sent to the overlay.
+ *
+ * Only the changed links are sent, so the messaging nodes may repair
+ * their routes rather than rebuild them from the full list of links.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) LinkWeightUpdate</li>
+ * <li>Links : array of changed links, host:port host:port weight,
+ * etc.</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class LinkWeightUpdate implements Event {
+
+  private int type;
+
+  /**
+   * <code>String</code> link format are of the form: <b>host:port
+   * host:port weight</b>
+   */
+  private String[] links;
+
+  /**
+   * Default constructor - create a new update for the changed links.
+   *
+   * @param links the changed links, of the form <b>host:port host:port
+   *        weight</b>
+   */
+  public LinkWeightUpdate(String[] links) {
+    this.type = Protocol.LINK_WEIGHT_UPDATE;
+    this.links = links;
+  }
+
+  /**
+   * Constructor - Unmarshall the <code>byte[]</code> to the respective
+   * class elements.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public LinkWeightUpdate(byte[] marshalledBytes) throws IOException {
+    ByteArrayInputStream inputStream =
+        new ByteArrayInputStream( marshalledBytes );
+    DataInputStream din =
+        new DataInputStream( new BufferedInputStream( inputStream ) );
+
+    this.type = din.readInt();
+
+    int arrayLength = din.readInt();
+
+    this.links = new String[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      int len = din.readInt();
+      byte[] bytes = new byte[ len ];
+      din.readFully( bytes );
+      this.links[ i ] = ( new String( bytes ) );
+    }
+
+    inputStream.close();
+    din.close();
+  }
+
+  /**
+   * {@link LinkWeightUpdate#links}
+   *
+   * @return The changed links between connections is returned
+   */
+  public String[] getLinks() {
+    return links;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    byte[] marshalledBytes = null;
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dout =
+        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+
+    dout.writeInt( type );
+
+    dout.writeInt( links.length );
+
+    for ( String item : links )
+    {
+      byte[] bytes = item.getBytes();
+      dout.writeInt( bytes.length );
+      dout.write( bytes );
+    }
+
+    dout.flush();
+    marshalledBytes = outputStream.toByteArray();
+
+    outputStream.close();
+    dout.close();
+    return marshalledBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "\n" + Integer.toString( this.type ) + " "
+        + Integer.toString( links.length ) + " link weight(s) have changed.";
+  }
+
+}
@@ -7,6 +7,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import cs455.overlay.util.OverlayNode;
 
@@ -19,6 +21,10 @@ import cs455.overlay.util.OverlayNode;
  * and invoking the {@link OverlayCreator} class via the command line
  * at the registry.
  * 
+ * The host:port of every node in the overlay is sent with the links,
+ * even when a node is only sent its own links, as the dictionary that
+ * a {@link CompactMessage} refers to nodes by.
+ * 
  * @author stock
  *
  */
@@ -34,6 +40,9 @@ public class LinkWeights implements Event {
    */
   private String[] links;
 
+  // host:port of every node in the overlay, or empty if unknown
+  private String[] nodes;
+
   private boolean weightsSent = false;
 
   /**
@@ -53,6 +62,12 @@ public class LinkWeights implements Event {
     }
     this.links = new String[ numLinks ];
 
+    this.nodes = new String[ topology.length ];
+    for ( int i = 0; i < topology.length; ++i )
+    {
+      nodes[ i ] = topology[ i ].getSelf();
+    }
+
     // Create all the link between each node in the overlay
     Random random = new Random();
     final int minWeight = 1;
@@ -70,6 +85,29 @@ public class LinkWeights implements Event {
     }
   }
 
+  /**
+   * Constructor - create a link weight object from existing links,
+   * without the dictionary of nodes.
+   * 
+   * @param links of the form <b>host:port host:port weight</b>
+   */
+  public LinkWeights(String[] links) {
+    this( links, new String[ 0 ] );
+  }
+
+  /**
+   * Constructor - create a link weight object from existing links.
+   * 
+   * @param links of the form <b>host:port host:port weight</b>
+   * @param nodes host:port of every node in the overlay
+   */
+  private LinkWeights(String[] links, String[] nodes) {
+    this.type = Protocol.LINK_WEIGHTS;
+    this.numLinks = links.length;
+    this.links = links;
+    this.nodes = nodes;
+  }
+
   /**
    * Constructor - Unmarshall the <code>byte[]</code> to the respective
    * class elements.
@@ -99,6 +137,18 @@ public class LinkWeights implements Event {
       this.links[ i ] = ( new String( bytes ) );
     }
 
+    arrayLength = din.readInt();
+
+    this.nodes = new String[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      int len = din.readInt();
+      byte[] bytes = new byte[ len ];
+      din.readFully( bytes );
+      this.nodes[ i ] = ( new String( bytes ) );
+    }
+
     inputStream.close();
     din.close();
   }
@@ -132,6 +182,71 @@ public class LinkWeights implements Event {
     return links;
   }
 
+  /**
+   * @return The host:port of every node in the overlay, or an empty
+   *         array if the links were not sent by the registry.
+   */
+  public String[] getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Change the weight of the bidirectional link between two nodes.
+   * 
+   * @param source host:port of one end of the link
+   * @param destination host:port of the other end of the link
+   * @param weight the new weight of the link
+   * @return true if the link was found and changed, false otherwise.
+   */
+  public boolean setWeight(String source, String destination, int weight) {
+    for ( int i = 0; i < links.length; ++i )
+    {
+      String[] link = links[ i ].split( "\\s+" );
+      if ( ( link[ 0 ].equals( source ) && link[ 1 ].equals( destination ) )
+          || ( link[ 0 ].equals( destination ) && link[ 1 ].equals( source ) ) )
+      {
+        links[ i ] =
+            link[ 0 ] + " " + link[ 1 ] + " " + Integer.toString( weight );
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param link of the form <i>host:port host:port weight</i>
+   * @param node host:port of one end of the link
+   * @return The host:port of the other end of the link, or null if the
+   *         node is at neither end.
+   */
+  public static String getPeer(String link, String node) {
+    String[] details = link.split( "\\s+" );
+    return details[ 0 ].equals( node ) ? details[ 1 ]
+        : details[ 1 ].equals( node ) ? details[ 0 ] : null;
+  }
+
+  /**
+   * Retrieve only the links of a single node, such as for the distance
+   * vector routing mode where a node computes its routes from the
+   * weights of its own links.
+   * 
+   * @param node host:port of the node
+   * @return A new link weight object with the links that have the node
+   *         at either end.
+   */
+  public LinkWeights getLocalLinks(String node) {
+    List<String> local = new ArrayList<>();
+    for ( String link : links )
+    {
+      String[] details = link.split( "\\s+" );
+      if ( details[ 0 ].equals( node ) || details[ 1 ].equals( node ) )
+      {
+        local.add( link );
+      }
+    }
+    return new LinkWeights( local.toArray( new String[ 0 ] ), nodes );
+  }
+
   public int getNumLinks() {
     return numLinks;
   }
@@ -167,6 +282,15 @@ public class LinkWeights implements Event {
       dout.write( bytes );
     }
 
+    dout.writeInt( nodes.length );
+
+    for ( String item : nodes )
+    {
+      byte[] bytes = item.getBytes();
+      dout.writeInt( bytes.length );
+      dout.write( bytes );
+    }
+
     dout.flush();
     marshalledBytes = outputStream.toByteArray();
 
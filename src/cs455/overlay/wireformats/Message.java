@@ -1,13 +1,9 @@
 package cs455.overlay.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import cs455.overlay.util.BufferPool;
 
 /**
  * A message that will be passed between nodes from a source to a
@@ -23,19 +19,41 @@ import java.util.Arrays;
  * etc.</li>
  * </ul>
  * 
+ * A message received from another node keeps the frame it was received
+ * in, and only the header is read. Relaying nodes look up a single hop
+ * with {@link #getHop(int)}, and the position is patched in the frame,
+ * so the received bytes are forwarded without decoding or encoding the
+ * routing path. A frame from the {@link BufferPool} is released once
+ * the event is handled, so the message is only valid until then.
+ * 
  * @author stock
  *
  */
 public class Message implements Event {
 
+  private static final int POSITION_OFFSET = 2 * Integer.BYTES;
+
+  private static final int PATH_LENGTH_OFFSET = 3 * Integer.BYTES;
+
+  private static final int PATH_OFFSET = 4 * Integer.BYTES;
+
   private int type;
 
   private int payload;
 
   private int position;
 
+  // Decoded only when requested, if the message was received
   private String[] routingPath;
 
+  // The frame the message was received in, or null
+  private ByteBuffer frame;
+
+  // The index of the message in the frame, and its length in bytes
+  private int start;
+
+  private int length;
+
   /**
    * Default constructor - create a new message to send between nodes.
    * 
@@ -51,38 +69,35 @@ public class Message implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the header of the <code>byte[]</code>,
+   * which is kept for the routing path and for forwarding.
    * 
    * @param marshalledBytes is the byte array of the class.
    * @throws IOException
    */
   public Message(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
-
-    this.type = din.readInt();
-
-    this.payload = din.readInt();
-
-    this.position = din.readInt();
-
-    int arrayLength = din.readInt();
-
-    this.routingPath = new String[ arrayLength ];
+    this( ByteBuffer.wrap( marshalledBytes ) );
+  }
 
-    for ( int i = 0; i < arrayLength; ++i )
+  /**
+   * Constructor - Unmarshall the header of the heap buffer, between its
+   * position and limit, which is kept for the routing path and for
+   * forwarding.
+   * 
+   * @param frame holding the bytes of the class.
+   * @throws IOException
+   */
+  public Message(ByteBuffer frame) throws IOException {
+    this.frame = frame;
+    this.start = frame.position();
+    this.length = frame.remaining();
+    if ( length < PATH_OFFSET )
     {
-      int len = din.readInt();
-      byte[] bytes = new byte[ len ];
-      din.readFully( bytes );
-      this.routingPath[ i ] = ( new String( bytes ) );
+      throw new IOException( "Message is truncated." );
     }
-
-    inputStream.close();
-    din.close();
+    this.type = frame.getInt( start );
+    this.payload = frame.getInt( start + Integer.BYTES );
+    this.position = frame.getInt( start + POSITION_OFFSET );
   }
 
   /**
@@ -90,6 +105,10 @@ public class Message implements Event {
    */
   public void incrementPosition() {
     ++position;
+    if ( frame != null )
+    {
+      frame.putInt( start + POSITION_OFFSET, position );
+    }
   }
 
   public int getPayload() {
@@ -100,10 +119,92 @@ public class Message implements Event {
     return position;
   }
 
-  public String[] getRoutingPath() {
+  /**
+   * @return The routing path, which is decoded on the first call if
+   *         the message was received.
+   * @throws IOException if the routing path can not be decoded
+   */
+  public String[] getRoutingPath() throws IOException {
+    if ( routingPath == null )
+    {
+      // Each connection takes at least the bytes of its length
+      int count = getPathLength();
+      if ( count < 0 || count > ( length - PATH_OFFSET ) / Integer.BYTES )
+      {
+        throw new IOException( "Routing path is truncated." );
+      }
+      String[] decoded = new String[ count ];
+      int offset = PATH_OFFSET;
+      for ( int i = 0; i < decoded.length; ++i )
+      {
+        decoded[ i ] = readString( offset );
+        offset += Integer.BYTES + frame.getInt( start + offset );
+      }
+      routingPath = decoded;
+    }
     return routingPath;
   }
 
+  /**
+   * @return The number of connections in the routing path.
+   */
+  public int getPathLength() {
+    return routingPath == null ? frame.getInt( start + PATH_LENGTH_OFFSET )
+        : routingPath.length;
+  }
+
+  /**
+   * Retrieve a single connection of the routing path, without decoding
+   * the others.
+   * 
+   * @param index of the connection in the routing path
+   * @return The host:port of the connection.
+   * @throws IOException if the routing path is shorter than the index,
+   *         or is truncated
+   */
+  public String getHop(int index) throws IOException {
+    if ( routingPath != null )
+    {
+      return routingPath[ index ];
+    }
+    if ( index < 0 || index >= getPathLength() )
+    {
+      throw new IOException(
+          "There is no connection at " + index + " in the routing path." );
+    }
+    int offset = PATH_OFFSET;
+    for ( int i = 0; i < index; ++i )
+    {
+      offset += Integer.BYTES + readLength( offset );
+    }
+    return readString( offset );
+  }
+
+  /**
+   * @return The length of the identifier at the offset in the message.
+   */
+  private int readLength(int offset) throws IOException {
+    if ( offset < 0 || offset + Integer.BYTES > length )
+    {
+      throw new IOException( "Routing path is truncated." );
+    }
+    int len = frame.getInt( start + offset );
+    if ( len < 0 || offset + Integer.BYTES + len > length )
+    {
+      throw new IOException( "Routing path is truncated." );
+    }
+    return len;
+  }
+
+  /**
+   * @return The identifier at the offset in the message.
+   */
+  private String readString(int offset) throws IOException {
+    int len = readLength( offset );
+    return new String( frame.array(),
+        frame.arrayOffset() + start + offset + Integer.BYTES, len );
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -117,40 +218,55 @@ public class Message implements Event {
    */
   @Override
   public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
-
-    dout.writeInt( type );
-
-    dout.writeInt( payload );
-
-    dout.writeInt( position );
-
-    dout.writeInt( routingPath.length );
+    ByteBuffer buffer = encode();
+    byte[] marshalledBytes = new byte[ buffer.remaining() ];
+    buffer.get( marshalledBytes );
+    BufferPool.release( buffer );
+    return marshalledBytes;
+  }
 
-    for ( String item : routingPath )
+  /**
+   * {@inheritDoc}
+   * 
+   * A received message copies the frame, with the position patched.
+   */
+  @Override
+  public ByteBuffer encode() throws IOException {
+    if ( frame != null )
     {
-      byte[] bytes = item.getBytes();
-      dout.writeInt( bytes.length );
-      dout.write( bytes );
+      return BufferPool.acquire( length )
+          .put( frame.array(), frame.arrayOffset() + start, length ).flip();
     }
-
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
-
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+    byte[][] identifiers = new byte[ routingPath.length ][];
+    int size = PATH_OFFSET;
+    for ( int i = 0; i < routingPath.length; ++i )
+    {
+      identifiers[ i ] = routingPath[ i ].getBytes();
+      size += Integer.BYTES + identifiers[ i ].length;
+    }
+    ByteBuffer buffer = BufferPool.acquire( size );
+    buffer.putInt( type ).putInt( payload ).putInt( position )
+        .putInt( routingPath.length );
+    for ( byte[] identifier : identifiers )
+    {
+      buffer.putInt( identifier.length ).put( identifier );
+    }
+    return buffer.flip();
   }
 
   @Override
   public String toString() {
+    String path;
+    try
+    {
+      path = Arrays.toString( getRoutingPath() );
+    } catch ( IOException e )
+    {
+      path = e.getMessage();
+    }
     return "\n" + Integer.toString( this.type ) + " "
         + Integer.toString( this.payload ) + " "
-        + Integer.toString( this.position ) + " "
-        + Arrays.toString( routingPath );
+        + Integer.toString( this.position ) + " " + path;
   }
 
 }
@@ -29,6 +29,18 @@ public interface Protocol {
 
   final int TRAFFIC_SUMMARY = 9;
 
+  final int HOP_MESSAGE = 10;
+
+  final int ROUTING_TABLE = 11;
+
+  final int LINK_WEIGHT_UPDATE = 12;
+
+  final int DISTANCE_VECTOR = 13;
+
+  final int LINK_STATE_ADVERTISEMENT = 14;
+
+  final int COMPACT_MESSAGE = 15;
+
   final byte SUCCESS = ( byte ) 200;
 
   final byte FAILURE = ( byte ) 500;
@@ -0,0 +1,159 @@
+package cs455.overlay.wireformats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The next hop from one messaging node to every other node in the
+ * overlay, as precomputed by the registry.
+ *
+ * Rather than every messaging node computing its own routes from the
+ * {@link LinkWeights}, the registry may compute all of them in parallel
+ * and send each node only its own table.
+ *
+ * The message will be of the following format:
+ *
+ * <ul>
+ * <li>Message Type : ( this ) RoutingTable</li>
+ * <li>Nodes : array of connections, host:port, host:port, etc.</li>
+ * <li>Self : index of the receiving node in the nodes</li>
+ * <li>Next Hops : index of the neighbor to forward to for each
+ * node</li>
+ * </ul>
+ *
+ * @author stock
+ *
+ */
+public class RoutingTable implements Event {
+
+  private int type;
+
+  private String[] nodes;
+
+  private int self;
+
+  private int[] nextHops;
+
+  /**
+   * Default constructor - create a new routing table for a node.
+   *
+   * @param nodes identifier of each node, by index
+   * @param self index of the node the table is for
+   * @param nextHops index of the neighbor to forward to for each node
+   */
+  public RoutingTable(String[] nodes, int self, int[] nextHops) {
+    this.type = Protocol.ROUTING_TABLE;
+    this.nodes = nodes;
+    this.self = self;
+    this.nextHops = nextHops;
+  }
+
+  /**
+   * Constructor - Unmarshall the <code>byte[]</code> to the respective
+   * class elements.
+   *
+   * @param marshalledBytes is the byte array of the class.
+   * @throws IOException
+   */
+  public RoutingTable(byte[] marshalledBytes) throws IOException {
+    ByteArrayInputStream inputStream =
+        new ByteArrayInputStream( marshalledBytes );
+    DataInputStream din =
+        new DataInputStream( new BufferedInputStream( inputStream ) );
+
+    this.type = din.readInt();
+
+    int arrayLength = din.readInt();
+
+    this.nodes = new String[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      int len = din.readInt();
+      byte[] bytes = new byte[ len ];
+      din.readFully( bytes );
+      this.nodes[ i ] = ( new String( bytes ) );
+    }
+
+    this.self = din.readInt();
+
+    this.nextHops = new int[ arrayLength ];
+
+    for ( int i = 0; i < arrayLength; ++i )
+    {
+      this.nextHops[ i ] = din.readInt();
+    }
+
+    inputStream.close();
+    din.close();
+  }
+
+  public String[] getNodes() {
+    return nodes;
+  }
+
+  public int getSelf() {
+    return self;
+  }
+
+  public int[] getNextHops() {
+    return nextHops;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public byte[] getBytes() throws IOException {
+    byte[] marshalledBytes = null;
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream dout =
+        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+
+    dout.writeInt( type );
+
+    dout.writeInt( nodes.length );
+
+    for ( String item : nodes )
+    {
+      byte[] bytes = item.getBytes();
+      dout.writeInt( bytes.length );
+      dout.write( bytes );
+    }
+
+    dout.writeInt( self );
+
+    for ( int hop : nextHops )
+    {
+      dout.writeInt( hop );
+    }
+
+    dout.flush();
+    marshalledBytes = outputStream.toByteArray();
+
+    outputStream.close();
+    dout.close();
+    return marshalledBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "\n" + Integer.toString( this.type ) + " " + nodes[ self ]
+        + " has a routing table for " + Integer.toString( nodes.length )
+        + " nodes.";
+  }
+
+}